@@ -0,0 +1,244 @@
+package pers.clare.urlrequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Base of HttpURLConnection views over another transport, e.g. a mock or java.net.http.
+ * The request body is buffered, the exchange runs when the response is first asked and follows same protocol
+ * redirects like HttpURLConnection does.
+ * Public only so adapters of other packages can extend it, not meant to be used directly.
+ *
+ * @param <R> response of one hop
+ */
+public abstract class AdapterURLConnection<R> extends HttpURLConnection {
+    protected static final int MAX_REDIRECTS = 20;
+
+    /**
+     * Request properties captured by {@link #connect()}, they can not be read after connected.
+     */
+    protected Map<String, List<String>> requestHeaders;
+    private ByteArrayOutputStream output;
+    private boolean responded;
+    private Map<String, List<String>> headerFields;
+    private List<Map.Entry<String, String>> headerList;
+    private InputStream body;
+    private IOException failure;
+
+    protected AdapterURLConnection(URL url) {
+        super(url);
+    }
+
+    /**
+     * Called once by {@link #connect()}, a failure fails every later call.
+     */
+    protected void open() throws IOException {
+    }
+
+    /**
+     * Send the request, usually with {@link #sendFollowingRedirects()}, then {@link #respond}.
+     */
+    protected abstract void exchange() throws IOException;
+
+    /**
+     * Send one hop.
+     */
+    protected abstract R send(URL url, String method, byte[] body) throws IOException;
+
+    protected abstract int status(R response);
+
+    /**
+     * Location header of the hop, null if absent.
+     */
+    protected abstract String location(R response);
+
+    /**
+     * Release a redirect hop before the next one is sent.
+     */
+    protected void discard(R response) throws IOException {
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (connected) return;
+        if (failure != null) throw failure;
+        requestHeaders = getRequestProperties();
+        try {
+            open();
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+        connected = true;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (!doOutput) throw new ProtocolException("cannot write output, doOutput is false");
+        if (responded) throw new ProtocolException("cannot write output after reading input");
+        if (output == null) {
+            connect();
+            output = new ByteArrayOutputStream(fixedContentLengthLong > 0 && fixedContentLengthLong < Integer.MAX_VALUE
+                    ? (int) fixedContentLengthLong : 1024);
+        }
+        return output;
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        execute();
+        return responseCode;
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        execute();
+        return responseMessage;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        execute();
+        if (responseCode >= 400) {
+            if (responseCode == HTTP_NOT_FOUND || responseCode == HTTP_GONE) {
+                throw new FileNotFoundException(url.toString());
+            }
+            throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+        }
+        return body;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        if (!responded || responseCode < 400) return null;
+        return body;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        if (!tryExecute()) return Collections.emptyMap();
+        return headerFields;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        if (!tryExecute() || name == null) return null;
+        List<String> values = headerFields.get(name);
+        return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        if (!tryExecute() || n < 0 || n >= headerList.size()) return null;
+        return headerList.get(n).getKey();
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        if (!tryExecute() || n < 0 || n >= headerList.size()) return null;
+        return headerList.get(n).getValue();
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    /**
+     * Body of the response, null before {@link #respond}.
+     */
+    protected InputStream body() {
+        return body;
+    }
+
+    /**
+     * Send the buffered request and follow same protocol redirects, {@link #url} ends at the last hop.
+     */
+    protected final R sendFollowingRedirects() throws IOException {
+        String method = this.method;
+        byte[] bytes = output == null ? null : output.toByteArray();
+        R response = send(url, method, bytes);
+        for (int i = 0; i < MAX_REDIRECTS && instanceFollowRedirects && isRedirect(status(response)); i++) {
+            String location = location(response);
+            if (location == null) break;
+            URL next = new URL(url, location);
+            if (!url.getProtocol().equalsIgnoreCase(next.getProtocol())) break;
+            discard(response);
+            int status = status(response);
+            if (status == HTTP_SEE_OTHER
+                || ((status == HTTP_MOVED_PERM || status == HTTP_MOVED_TEMP) && URLRequestMethod.POST.equals(method))) {
+                method = URLRequestMethod.GET;
+                bytes = null;
+            }
+            url = next;
+            response = send(url, method, bytes);
+        }
+        return response;
+    }
+
+    /**
+     * Complete the exchange, pseudo headers like :status are dropped.
+     */
+    protected final void respond(int status, String message, Map<String, List<String>> headers, InputStream body) {
+        Map<String, List<String>> headerFields = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        List<Map.Entry<String, String>> headerList = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (entry.getKey() == null || entry.getKey().startsWith(":")) continue;
+            headerFields.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+            for (String value : entry.getValue()) {
+                headerList.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), value));
+            }
+        }
+        this.headerFields = Collections.unmodifiableMap(headerFields);
+        this.headerList = headerList;
+        this.responseCode = status;
+        this.responseMessage = message;
+        this.body = body;
+        this.responded = true;
+    }
+
+    private boolean tryExecute() {
+        try {
+            execute();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void execute() throws IOException {
+        if (responded) return;
+        if (failure != null) throw failure;
+        connect();
+        try {
+            exchange();
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+    }
+
+    private static boolean isRedirect(int status) {
+        return status == HTTP_MOVED_PERM
+               || status == HTTP_MOVED_TEMP
+               || status == HTTP_SEE_OTHER
+               || status == 307
+               || status == 308;
+    }
+}
@@ -0,0 +1,15 @@
+package pers.clare.urlrequest;
+
+/**
+ * What to do when a response body is larger than the configured max size.
+ */
+public enum BodyLimitPolicy {
+    /**
+     * Keep the first max size bytes and drop the rest.
+     */
+    TRUNCATE,
+    /**
+     * Abort with {@link pers.clare.urlrequest.exception.ResponseBodyTooLargeException}.
+     */
+    FAIL
+}
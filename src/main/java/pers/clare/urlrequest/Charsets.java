@@ -0,0 +1,122 @@
+package pers.clare.urlrequest;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Charset lookup and decoding without per call allocations of charsets and decoders.
+ */
+@SuppressWarnings("unused")
+public final class Charsets {
+    /**
+     * Names kept, further names are resolved every time so random Content-Type values cannot grow the cache.
+     */
+    private static final int MAX_NAMES = 128;
+
+    /**
+     * Chars kept per thread, larger bodies decode into a fresh buffer.
+     */
+    private static final int MAX_CACHED_CHARS = 64 * 1024;
+
+    private static final Map<String, Optional<Charset>> names = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Decoder> decoders = new ThreadLocal<>();
+
+    static {
+        for (Charset charset : new Charset[]{StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1, StandardCharsets.US_ASCII}) {
+            names.put(charset.name(), Optional.of(charset));
+            names.put(charset.name().toLowerCase(), Optional.of(charset));
+        }
+    }
+
+    private Charsets() {
+    }
+
+    /**
+     * Cached {@link Charset#forName(String)}.
+     *
+     * @return the fallback if the name is illegal or not supported
+     */
+    public static Charset forName(String name, Charset fallback) {
+        if (name == null) return fallback;
+        Optional<Charset> charset = names.get(name);
+        if (charset == null) {
+            charset = lookup(name);
+            if (names.size() < MAX_NAMES) names.put(name, charset);
+        }
+        return charset.orElse(fallback);
+    }
+
+    private static Optional<Charset> lookup(String name) {
+        try {
+            return Optional.of(Charset.forName(name));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Decode straight into the string for UTF-8, ISO-8859-1 and US-ASCII, other charsets go through
+     * a decoder and char buffer reused by the thread. Malformed input is replaced like {@link String#String(byte[], Charset)}.
+     */
+    public static String decode(byte[] bytes, int offset, int length, Charset charset) {
+        if (length == 0) return "";
+        if (charset == StandardCharsets.UTF_8
+            || charset == StandardCharsets.ISO_8859_1
+            || charset == StandardCharsets.US_ASCII) {
+            return new String(bytes, offset, length, charset);
+        }
+        Decoder decoder = decoders.get();
+        if (decoder == null || decoder.charset != charset) {
+            decoder = new Decoder(charset);
+            decoders.set(decoder);
+        }
+        return decoder.decode(bytes, offset, length);
+    }
+
+    /**
+     * Decoder of the last charset used by a thread.
+     */
+    private static class Decoder {
+        private final Charset charset;
+        private final CharsetDecoder decoder;
+        private char[] chars = new char[1024];
+
+        private Decoder(Charset charset) {
+            this.charset = charset;
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        private String decode(byte[] bytes, int offset, int length) {
+            int size = (int) Math.min(Integer.MAX_VALUE - 8, (long) Math.ceil(length * (double) decoder.maxCharsPerByte()));
+            char[] chars = this.chars;
+            if (chars.length < size) {
+                chars = new char[size];
+                if (size <= MAX_CACHED_CHARS) this.chars = chars;
+            }
+            CharBuffer out = CharBuffer.wrap(chars);
+            decoder.reset();
+            try {
+                CoderResult result = decoder.decode(ByteBuffer.wrap(bytes, offset, length), out, true);
+                if (!result.isUnderflow()) result.throwException();
+                result = decoder.flush(out);
+                if (!result.isUnderflow()) result.throwException();
+            } catch (CharacterCodingException e) {
+                // maxCharsPerByte is a bound, only reached by a broken charset
+                return new String(bytes, offset, length, charset);
+            }
+            return new String(chars, 0, out.position());
+        }
+    }
+}
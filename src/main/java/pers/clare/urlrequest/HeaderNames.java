@@ -57,6 +57,9 @@ public final class HeaderNames {
     /** RFC 1945 (HTTP/1.0) Section 10.5, RFC 2616 (HTTP/1.1) Section 14.17 */
     public static final String CONTENT_TYPE = "Content-Type";
 
+    /** RFC 6265 Section 5.4 */
+    public static final String COOKIE = "Cookie";
+
     /** RFC 1945 (HTTP/1.0) Section 10.6, RFC 2616 (HTTP/1.1) Section 14.18 */
     public static final String DATE = "Date";
 
@@ -138,6 +141,12 @@ public final class HeaderNames {
     /** RFC 1945 (HTTP/1.0) Section 10.14, RFC 2616 (HTTP/1.1) Section 14.38 */
     public static final String SERVER = "Server";
 
+    /** RFC 6265 (HTTP State Management) Section 4.1 */
+    public static final String SET_COOKIE = "Set-Cookie";
+
+    /** RFC 2965 (HTTP State Management), obsoleted by RFC 6265 */
+    public static final String SET_COOKIE2 = "Set-Cookie2";
+
     /** RFC 2518 (WevDAV) Section 9.7 */
     public static final String STATUS_URI = "Status-URI";
 
@@ -147,6 +156,12 @@ public final class HeaderNames {
     /** RFC 2518 (WevDAV) Section 9.8 */
     public static final String TIMEOUT = "Timeout";
 
+    /** W3C Trace Context Section 3.2 */
+    public static final String TRACEPARENT = "traceparent";
+
+    /** W3C Trace Context Section 3.3 */
+    public static final String TRACESTATE = "tracestate";
+
     /** RFC 2616 (HTTP/1.1) Section 14.40 */
     public static final String TRAILER = "Trailer";
 
@@ -10,5 +10,7 @@ public final class HeaderValues {
     public static final String X_WWW_FORM_URLENCODED = "application/x-www-form-urlencoded";
     public static final String JSON = "application/json";
     public static final String XML = "application/xml";
+    public static final String EVENT_STREAM = "text/event-stream";
+    public static final String NDJSON = "application/x-ndjson";
     
 }
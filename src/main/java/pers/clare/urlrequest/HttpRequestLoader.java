@@ -0,0 +1,290 @@
+package pers.clare.urlrequest;
+
+import pers.clare.urlrequest.handler.ResponseHandler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Bulk loads {@link HttpRequest} definitions.
+ * <ul>
+ *     <li>.http / .rest: requests separated by ###, a request line, header lines, a blank line and the body</li>
+ *     <li>other files: JSON lines, one flat {@link HttpRequest} object per line</li>
+ * </ul>
+ */
+@SuppressWarnings("unused")
+public class HttpRequestLoader {
+
+    private HttpRequestLoader() {
+    }
+
+    public static List<HttpRequest> load(Path path) throws IOException {
+        String name = path.getFileName().toString().toLowerCase();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (name.endsWith(".http") || name.endsWith(".rest")) {
+                return loadHttp(reader);
+            }
+            return loadJsonLines(reader);
+        }
+    }
+
+    public static List<HttpRequestTemplate> compile(Path path) throws IOException {
+        List<HttpRequest> beans = load(path);
+        List<HttpRequestTemplate> templates = new ArrayList<>(beans.size());
+        for (HttpRequest bean : beans) {
+            templates.add(HttpRequestTemplate.compile(bean));
+        }
+        return templates;
+    }
+
+    /**
+     * Execute every template on the executor.
+     */
+    public static <T> List<CompletableFuture<URLResponse<T>>> executeAll(
+            List<HttpRequestTemplate> templates
+            , ResponseHandler<T> handler
+            , Executor executor
+    ) {
+        List<CompletableFuture<URLResponse<T>>> futures = new ArrayList<>(templates.size());
+        for (HttpRequestTemplate template : templates) {
+            futures.add(CompletableFuture.supplyAsync(() -> template.execute(handler), executor));
+        }
+        return futures;
+    }
+
+    public static List<HttpRequest> loadHttp(String text) throws IOException {
+        return loadHttp(new StringReader(text));
+    }
+
+    public static List<HttpRequest> loadHttp(Reader source) throws IOException {
+        BufferedReader reader = source instanceof BufferedReader ? (BufferedReader) source : new BufferedReader(source);
+        List<HttpRequest> beans = new ArrayList<>();
+        HttpRequest bean = null;
+        StringBuilder headers = new StringBuilder();
+        StringBuilder body = new StringBuilder();
+        boolean inBody = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("###")) {
+                addHttp(beans, bean, headers, body);
+                bean = null;
+                inBody = false;
+                continue;
+            }
+            if (bean == null) {
+                String trim = line.trim();
+                if (trim.isEmpty() || isComment(trim)) continue;
+                bean = new HttpRequest();
+                int index = trim.indexOf(' ');
+                if (index == -1) {
+                    bean.setMethod(URLRequestMethod.GET);
+                    bean.setUrl(trim);
+                } else {
+                    bean.setMethod(trim.substring(0, index).toUpperCase());
+                    String url = trim.substring(index + 1).trim();
+                    int version = url.lastIndexOf(" HTTP/");
+                    bean.setUrl(version == -1 ? url : url.substring(0, version).trim());
+                }
+            } else if (inBody) {
+                body.append(line).append('\n');
+            } else if (line.trim().isEmpty()) {
+                inBody = true;
+            } else if (!isComment(line.trim())) {
+                headers.append(line).append('\n');
+            }
+        }
+        addHttp(beans, bean, headers, body);
+        return beans;
+    }
+
+    private static boolean isComment(String line) {
+        return line.startsWith("#") || line.startsWith("//");
+    }
+
+    public static List<HttpRequest> loadJsonLines(Reader source) throws IOException {
+        BufferedReader reader = source instanceof BufferedReader ? (BufferedReader) source : new BufferedReader(source);
+        List<HttpRequest> beans = new ArrayList<>();
+        String line;
+        int number = 0;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            if (line.isBlank()) continue;
+            try {
+                beans.add(new JsonLine(line).parse());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("line " + number + ": " + e.getMessage(), e);
+            }
+        }
+        return beans;
+    }
+
+    private static void addHttp(List<HttpRequest> beans, HttpRequest bean, StringBuilder headers, StringBuilder body) {
+        if (bean != null) {
+            // trailing blank lines before ### are not body
+            int length = body.length();
+            while (length > 0 && Character.isWhitespace(body.charAt(length - 1))) length--;
+            bean.setHeaders(headers.length() == 0 ? null : headers.toString());
+            bean.setBody(length == 0 ? null : body.substring(0, length));
+            beans.add(bean);
+        }
+        headers.setLength(0);
+        body.setLength(0);
+    }
+
+    /**
+     * Flat JSON object parser, values are strings, numbers, booleans or null.
+     */
+    private static class JsonLine {
+        private final String text;
+        private int index;
+
+        private JsonLine(String text) {
+            this.text = text;
+        }
+
+        private HttpRequest parse() {
+            HttpRequest bean = new HttpRequest();
+            expect('{');
+            if (peek() == '}') {
+                index++;
+                return bean;
+            }
+            do {
+                String name = string();
+                expect(':');
+                Object value = value();
+                switch (name) {
+                    case "url":
+                        bean.setUrl(toString(value));
+                        break;
+                    case "method":
+                        bean.setMethod(toString(value));
+                        break;
+                    case "headers":
+                        bean.setHeaders(toString(value));
+                        break;
+                    case "params":
+                        bean.setParams(toString(value));
+                        break;
+                    case "body":
+                        bean.setBody(toString(value));
+                        break;
+                    case "connectionTimeout":
+                        bean.setConnectionTimeout(toInteger(value));
+                        break;
+                    case "readTimeout":
+                        bean.setReadTimeout(toInteger(value));
+                        break;
+                    default:
+                }
+            } while (next(',', '}'));
+            return bean;
+        }
+
+        private Object value() {
+            char c = peek();
+            if (c == '"') return string();
+            int start = index;
+            while (index < text.length() && ",}] \t".indexOf(text.charAt(index)) == -1) index++;
+            String literal = text.substring(start, index);
+            switch (literal) {
+                case "null":
+                    return null;
+                case "true":
+                    return Boolean.TRUE;
+                case "false":
+                    return Boolean.FALSE;
+                default:
+                    try {
+                        return Double.parseDouble(literal);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("unexpected value " + literal + " at " + start);
+                    }
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (index < text.length()) {
+                char c = text.charAt(index++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (index >= text.length()) break;
+                c = text.charAt(index++);
+                switch (c) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'u':
+                        if (index + 4 > text.length()) throw new IllegalArgumentException("bad unicode escape at " + index);
+                        sb.append((char) Integer.parseInt(text.substring(index, index + 4), 16));
+                        index += 4;
+                        break;
+                    default:
+                        sb.append(c);
+                }
+            }
+            throw new IllegalArgumentException("unterminated string");
+        }
+
+        private boolean next(char more, char end) {
+            char c = peek();
+            index++;
+            if (c == more) return true;
+            if (c == end) return false;
+            throw new IllegalArgumentException("expected " + more + " or " + end + " at " + (index - 1));
+        }
+
+        private void expect(char expected) {
+            if (peek() != expected) {
+                throw new IllegalArgumentException("expected " + expected + " at " + index);
+            }
+            index++;
+        }
+
+        private char peek() {
+            while (index < text.length() && Character.isWhitespace(text.charAt(index))) index++;
+            if (index >= text.length()) throw new IllegalArgumentException("unexpected end");
+            return text.charAt(index);
+        }
+
+        private static String toString(Object value) {
+            if (value == null) return null;
+            if (value instanceof Double && ((Double) value) == Math.rint((Double) value)) {
+                return String.valueOf(((Double) value).longValue());
+            }
+            return value.toString();
+        }
+
+        private static Integer toInteger(Object value) {
+            if (value == null) return null;
+            if (value instanceof Double) return ((Double) value).intValue();
+            return Integer.valueOf(value.toString());
+        }
+    }
+}
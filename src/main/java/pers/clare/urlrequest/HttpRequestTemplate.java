@@ -0,0 +1,160 @@
+package pers.clare.urlrequest;
+
+import pers.clare.urlrequest.handler.ResponseHandler;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, pre-parsed {@link HttpRequest}, compile once and execute repeatedly.
+ */
+@SuppressWarnings("unused")
+public final class HttpRequestTemplate {
+    public static final int MAX_CACHE_SIZE = 10000;
+
+    /**
+     * Least recently used templates, guarded by itself.
+     */
+    private static final Map<List<Object>, HttpRequestTemplate> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, HttpRequestTemplate> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
+
+    private final URL url;
+    private final String method;
+    private final Integer connectionTimeout;
+    private final Integer readTimeout;
+    private final String[] headerNames;
+    private final String[] headerValues;
+    private final String[] paramNames;
+    private final String[] paramValues;
+    private final String body;
+
+    private HttpRequestTemplate(HttpRequest bean) {
+        this.url = URLRequest.build(bean.getUrl()).getUrl();
+        this.method = bean.getMethod();
+        this.connectionTimeout = bean.getConnectionTimeout();
+        this.readTimeout = bean.getReadTimeout();
+        List<String[]> headers = parse(bean.getHeaders());
+        this.headerNames = headers.get(0);
+        this.headerValues = headers.get(1);
+        List<String[]> params = parse(bean.getParams());
+        this.paramNames = params.get(0);
+        this.paramValues = params.get(1);
+        this.body = hasLength(bean.getBody()) ? bean.getBody() : null;
+    }
+
+    /**
+     * Parse the definition once.
+     */
+    public static HttpRequestTemplate compile(HttpRequest bean) {
+        return new HttpRequestTemplate(bean);
+    }
+
+    /**
+     * Compile with a bounded LRU cache, keyed on the definition values.
+     */
+    public static HttpRequestTemplate of(HttpRequest bean) {
+        List<Object> key = Arrays.asList(
+                bean.getUrl()
+                , bean.getMethod()
+                , bean.getHeaders()
+                , bean.getParams()
+                , bean.getBody()
+                , bean.getConnectionTimeout()
+                , bean.getReadTimeout()
+        );
+        HttpRequestTemplate template;
+        synchronized (cache) {
+            template = cache.get(key);
+        }
+        if (template != null) return template;
+        // compiled outside the lock, a race compiles twice and keeps one
+        template = compile(bean);
+        synchronized (cache) {
+            HttpRequestTemplate current = cache.putIfAbsent(key, template);
+            return current == null ? template : current;
+        }
+    }
+
+    public URLRequest<String> toRequest() {
+        return toRequest(URLRequestUtil.toStringHandler);
+    }
+
+    public <T> URLRequest<T> toRequest(ResponseHandler<T> handler) {
+        URLRequest<T> request = URLRequest.build(url, handler)
+                .method(method)
+                .timeout(connectionTimeout)
+                .readTimeout(readTimeout)
+                .redirectAny(true);
+        for (int i = 0; i < paramNames.length; i++) {
+            request.param(paramNames[i], paramValues[i]);
+        }
+        if (body != null) {
+            request.body(body);
+        }
+        for (int i = 0; i < headerNames.length; i++) {
+            request.header(headerNames[i], headerValues[i]);
+        }
+        return request;
+    }
+
+    public URLResponse<String> execute() {
+        return toRequest().go();
+    }
+
+    public <T> URLResponse<T> execute(ResponseHandler<T> handler) {
+        return toRequest(handler).go();
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Parse name: value lines.
+     *
+     * @return names and values
+     */
+    private static List<String[]> parse(String text) {
+        List<String> names = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        if (hasLength(text)) {
+            int index;
+            for (String line : text.split("\n")) {
+                if (!hasLength(line)) continue;
+                index = line.indexOf(':');
+                if (index > -1) {
+                    names.add(line.substring(0, index).trim());
+                    values.add(line.substring(index + 1).trim());
+                } else {
+                    names.add("");
+                    values.add(line);
+                }
+            }
+        }
+        return Arrays.asList(names.toArray(new String[0]), values.toArray(new String[0]));
+    }
+
+    private static boolean hasLength(String str) {
+        return str != null && str.length() > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpRequestTemplate{" +
+               "method='" + method + '\'' +
+               ", url='" + url + '\'' +
+               '}';
+    }
+}
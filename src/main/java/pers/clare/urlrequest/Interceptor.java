@@ -0,0 +1,26 @@
+package pers.clare.urlrequest;
+
+/**
+ * Hook around request execution, e.g. auth, signing, logging, metrics or caching.
+ * Return {@link Chain#proceed(URLRequest)} to continue, or any response to short-circuit.
+ * Returned responses must keep the body type of the request handler.
+ */
+@FunctionalInterface
+public interface Interceptor {
+
+    URLResponse<?> intercept(Chain chain);
+
+    interface Chain {
+
+        String method();
+
+        URLRequest<?> request();
+
+        /**
+         * Continue with the request, use {@link URLRequest#copy()} to rewrite without touching the caller's request.
+         */
+        URLResponse<?> proceed(URLRequest<?> request);
+
+        URLResponse<?> proceed(String method, URLRequest<?> request);
+    }
+}
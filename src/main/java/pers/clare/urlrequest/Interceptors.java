@@ -0,0 +1,77 @@
+package pers.clare.urlrequest;
+
+import java.util.Arrays;
+
+/**
+ * Immutable ordered interceptor chain, the first interceptor is the outermost.
+ * Build it once and share it between requests.
+ */
+@SuppressWarnings("unused")
+public final class Interceptors {
+    private final Interceptor[] interceptors;
+
+    private Interceptors(Interceptor[] interceptors) {
+        this.interceptors = interceptors;
+    }
+
+    public static Interceptors of(Interceptor... interceptors) {
+        return new Interceptors(interceptors.clone());
+    }
+
+    /**
+     * New chain with the interceptor appended innermost.
+     */
+    public Interceptors with(Interceptor interceptor) {
+        Interceptor[] interceptors = Arrays.copyOf(this.interceptors, this.interceptors.length + 1);
+        interceptors[this.interceptors.length] = interceptor;
+        return new Interceptors(interceptors);
+    }
+
+    public int size() {
+        return interceptors.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> URLResponse<T> execute(String method, URLRequest<T> request) {
+        if (interceptors.length == 0) return URLRequestUtil.dispatch(method, request);
+        return (URLResponse<T>) new Call(0, method, request).run();
+    }
+
+    private class Call implements Interceptor.Chain {
+        private final int index;
+        private final String method;
+        private final URLRequest<?> request;
+
+        private Call(int index, String method, URLRequest<?> request) {
+            this.index = index;
+            this.method = method;
+            this.request = request;
+        }
+
+        private URLResponse<?> run() {
+            return interceptors[index].intercept(this);
+        }
+
+        @Override
+        public String method() {
+            return method;
+        }
+
+        @Override
+        public URLRequest<?> request() {
+            return request;
+        }
+
+        @Override
+        public URLResponse<?> proceed(URLRequest<?> request) {
+            return proceed(method, request);
+        }
+
+        @Override
+        public URLResponse<?> proceed(String method, URLRequest<?> request) {
+            int next = index + 1;
+            if (next == interceptors.length) return URLRequestUtil.dispatch(method, request);
+            return new Call(next, method, request).run();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package pers.clare.urlrequest;
+
+import pers.clare.urlrequest.exception.ResponseBodyTooLargeException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Response body stream that enforces a max size and carries the Content-Length hint.
+ */
+class LimitedInputStream extends FilterInputStream {
+    private final long contentLength;
+    private final long maxSize;
+    private final BodyLimitPolicy policy;
+    private long count;
+
+    private LimitedInputStream(InputStream in, long contentLength, long maxSize, BodyLimitPolicy policy) {
+        super(in);
+        this.contentLength = contentLength;
+        this.maxSize = maxSize;
+        this.policy = policy;
+    }
+
+    /**
+     * Wrap the stream, fail fast when Content-Length already exceeds the max size.
+     *
+     * @param maxSize null means unlimited
+     */
+    static LimitedInputStream of(
+            InputStream in
+            , long contentLength
+            , Integer maxSize
+            , BodyLimitPolicy policy
+    ) throws ResponseBodyTooLargeException {
+        long max = maxSize == null ? Long.MAX_VALUE : maxSize;
+        if (contentLength > max && policy == BodyLimitPolicy.FAIL) {
+            throw new ResponseBodyTooLargeException(max);
+        }
+        return new LimitedInputStream(in, contentLength, max, policy);
+    }
+
+    /**
+     * Expected body length, -1 if unknown.
+     */
+    long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Upper bound of the bytes this stream will return.
+     */
+    long getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining() == 0) return overflow();
+        int b = in.read();
+        if (b != -1) count++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        long remaining = remaining();
+        if (remaining == 0) return overflow();
+        int n = in.read(b, off, (int) Math.min(len, remaining));
+        if (n > 0) count += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(Math.min(n, remaining()));
+        count += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), remaining());
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private long remaining() {
+        return maxSize - count;
+    }
+
+    /**
+     * Max size reached, truncate or fail if the source still has data.
+     */
+    private int overflow() throws IOException {
+        if (policy == BodyLimitPolicy.FAIL && in.read() != -1) {
+            throw new ResponseBodyTooLargeException(maxSize);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,135 @@
+package pers.clare.urlrequest;
+
+import pers.clare.urlrequest.exception.ResponseBodyTooLargeException;
+import pers.clare.urlrequest.exception.URLRequestException;
+import pers.clare.urlrequest.exception.URLResponseException;
+import pers.clare.urlrequest.handler.ResponseHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Concurrent identical GET requests share one network call.
+ * The body is read once into an immutable byte array, then every caller applies its own handler to it.
+ * Requests are identical when the method, encoded URL, body limits and key headers are equal.
+ * Authorization, Proxy-Authorization, Cookie and Range are always key headers, requests with a cookie manager
+ * are never coalesced because their cookies are only added on the connection.
+ */
+@SuppressWarnings("unused")
+public class SingleFlight {
+    private static final ResponseHandler<SharedBody> sharedBodyHandler = (in, charset) ->
+            new SharedBody(URLRequestUtil.streamToBytes(in), charset);
+
+    private final Set<String> keyHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, CompletableFuture<URLResponse<SharedBody>>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * @param keyHeaders additional headers that make requests different, e.g. Accept-Language
+     */
+    public SingleFlight(String... keyHeaders) {
+        this.keyHeaders.add(HeaderNames.AUTHORIZATION);
+        this.keyHeaders.add(HeaderNames.PROXY_AUTHORIZATION);
+        this.keyHeaders.add(HeaderNames.COOKIE);
+        this.keyHeaders.add(HeaderNames.RANGE);
+        this.keyHeaders.addAll(List.of(keyHeaders));
+    }
+
+    /**
+     * In-flight calls.
+     */
+    public int size() {
+        return calls.size();
+    }
+
+    <T> URLResponse<T> execute(String method, URLRequest<T> request) {
+        if (request.getCookieManager() != null) return URLRequestUtil.doExecute(method, request);
+        String key = key(method, request);
+        CompletableFuture<URLResponse<SharedBody>> future = new CompletableFuture<>();
+        CompletableFuture<URLResponse<SharedBody>> call = calls.putIfAbsent(key, future);
+        URLResponse<SharedBody> shared;
+        if (call == null) {
+            try {
+                shared = URLRequestUtil.doExecute(method, URLRequest.build(request, sharedBodyHandler));
+                // read the lazy headers before other threads see the response
+                shared.getHeaders();
+                future.complete(shared);
+            } catch (RuntimeException e) {
+                if (e instanceof URLResponseException) ((URLResponseException) e).getResponse().getHeaders();
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                calls.remove(key, future);
+            }
+        } else {
+            shared = join(call, request);
+        }
+        SharedBody body = shared.getBody();
+        try {
+            return URLResponse.build(request.getHandler())
+                    .url(shared.getUrl())
+                    .status(shared.getStatus())
+                    .headers(shared.getHeaders())
+                    .message(shared.getMessage())
+                    .body(request.getHandler().apply(body.stream(request), body.charset));
+        } catch (ResponseBodyTooLargeException e) {
+            throw new URLRequestException(request.getUrl().toString(), e.getMessage(), request, e, true);
+        } catch (IOException e) {
+            throw new URLRequestException(request.getUrl().toString(), e.getMessage(), request, e);
+        }
+    }
+
+    private String key(String method, URLRequest<?> request) {
+        StringBuilder sb = new StringBuilder(method.toUpperCase()).append(' ');
+        try {
+            sb.append(URLRequestUtil.getEncodeURL(request.getUrl(), request.getParams(), request.getUriCharset()));
+        } catch (MalformedURLException e) {
+            throw new URLRequestException(request.getUrl().toString(), e.getMessage(), request, e);
+        }
+        // the leader reads both bodies within its own limits
+        sb.append('\n').append(request.getMaxBodySize())
+                .append(' ').append(request.getMaxErrorBodySize())
+                .append(' ').append(request.getBodyLimitPolicy());
+        for (String name : keyHeaders) {
+            List<String> values = request.getHeaders().get(name);
+            if (values == null) continue;
+            sb.append('\n').append(name.toLowerCase()).append(':').append(values);
+        }
+        return sb.toString();
+    }
+
+    private static <T> URLResponse<SharedBody> join(CompletableFuture<URLResponse<SharedBody>> call, URLRequest<T> request) {
+        try {
+            return call.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new URLRequestException(request.getUrl().toString(), "interrupted", request, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new URLRequestException(request.getUrl().toString(), e.getMessage(), request, e.getCause());
+        }
+    }
+
+    private static class SharedBody {
+        private final byte[] bytes;
+        private final Charset charset;
+
+        private SharedBody(byte[] bytes, Charset charset) {
+            this.bytes = bytes;
+            this.charset = charset;
+        }
+
+        private InputStream stream(URLRequest<?> request) throws IOException {
+            return LimitedInputStream.of(new ByteArrayInputStream(bytes), bytes.length, request.getMaxBodySize(), request.getBodyLimitPolicy());
+        }
+    }
+}
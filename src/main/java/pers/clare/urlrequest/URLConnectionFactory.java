@@ -0,0 +1,18 @@
+package pers.clare.urlrequest;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+
+/**
+ * Opens the connection of every request hop.
+ */
+@FunctionalInterface
+public interface URLConnectionFactory {
+
+    /**
+     * @param proxy null if the request has no proxy
+     */
+    HttpURLConnection open(URL url, Proxy proxy) throws IOException;
+}
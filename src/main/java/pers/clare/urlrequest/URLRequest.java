@@ -1,25 +1,49 @@
 package pers.clare.urlrequest;
 
+import pers.clare.urlrequest.body.PublisherBody;
+import pers.clare.urlrequest.body.RequestBody;
+import pers.clare.urlrequest.download.SegmentedDownload;
 import pers.clare.urlrequest.exception.URLRequestException;
+import pers.clare.urlrequest.exception.URLResponseException;
 import pers.clare.urlrequest.handler.ResponseHandler;
+import pers.clare.urlrequest.stream.ByteBufferPublisher;
+import pers.clare.urlrequest.stream.EventStreamPublisher;
+import pers.clare.urlrequest.stream.NdjsonPublisher;
+import pers.clare.urlrequest.tls.TLSConfig;
+import pers.clare.urlrequest.trace.Tracer;
 
 import java.net.CookieManager;
 import java.net.MalformedURLException;
 import java.net.Proxy;
+import java.net.ProxySelector;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
 
 @SuppressWarnings("unused")
 public class URLRequest<T> {
     private final URL url;
-    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-    private final Map<String, List<Object>> params = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private Map<String, List<Object>> params = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    /**
+     * Frozen requests never change, see {@link #freeze()}.
+     */
+    private boolean frozen;
+    /**
+     * The maps still belong to a frozen request and are copied on the first write.
+     */
+    private boolean sharedHeaders;
+    private boolean sharedParams;
     private final ResponseHandler<T> handler;
     private CookieManager cookieManager;
     /**
@@ -33,7 +57,24 @@ public class URLRequest<T> {
     private Charset charset = StandardCharsets.UTF_8;
     String bodyString;
     byte[] bodyBytes;
+    RequestBody requestBody;
     private Proxy proxy;
+    private ProxySelector proxySelector;
+    /**
+     * Max success response body size in bytes, null means unlimited.
+     */
+    private Integer maxBodySize;
+    /**
+     * Max error response body size in bytes, null means unlimited. Error bodies are always truncated.
+     */
+    private Integer maxErrorBodySize;
+    private BodyLimitPolicy bodyLimitPolicy = BodyLimitPolicy.FAIL;
+    private URLConnectionFactory connectionFactory = URLRequestUtil.DEFAULT_CONNECTION_FACTORY;
+    private TLSConfig tls;
+    private SingleFlight singleFlight;
+    private UploadDictionary uploadDictionary;
+    private Tracer tracer;
+    private Interceptors interceptors;
 
     public URLRequest(String urlString, ResponseHandler<T> handler) {
         try {
@@ -44,24 +85,137 @@ public class URLRequest<T> {
         this.handler = handler;
     }
 
+    public URLRequest(URL url, ResponseHandler<T> handler) {
+        this.url = url;
+        this.handler = handler;
+    }
+
     public URLRequest(String urlString, URLRequest<T> request) {
-        try {
-            this.url = new URL(urlString);
-        } catch (MalformedURLException e) {
-            throw new URLRequestException(urlString, e.getMessage(), this, e);
+        this(toURL(urlString, request), request, request.handler);
+    }
+
+    /**
+     * Copy the request with another response handler.
+     */
+    public URLRequest(URLRequest<?> request, ResponseHandler<T> handler) {
+        this(request.url, request, handler);
+    }
+
+    private URLRequest(URL url, URLRequest<?> request, ResponseHandler<T> handler) {
+        this(url, request, handler, request.frozen);
+    }
+
+    /**
+     * @param share share the headers and params until the first write to them
+     */
+    private URLRequest(URL url, URLRequest<?> request, ResponseHandler<T> handler, boolean share) {
+        this.url = url;
+        if (share) {
+            this.headers = request.headers;
+            this.params = request.params;
+            this.sharedHeaders = true;
+            this.sharedParams = true;
+        } else {
+            this.headers = copyOf(request.headers);
+            this.params = copyOf(request.params);
         }
-        this.headers.putAll(request.headers);
-        this.params.putAll(request.params);
-        this.handler = request.handler;
+        this.handler = handler;
         this.cookieManager = request.cookieManager;
+        this.proxy = request.proxy;
+        this.proxySelector = request.proxySelector;
         this.redirectAny = request.redirectAny;
         this.timeout = request.timeout;
         this.readTimeout = request.readTimeout;
         this.method = request.method;
         this.bodyString = request.bodyString;
         this.bodyBytes = request.bodyBytes;
+        this.requestBody = request.requestBody;
         this.uriCharset = request.uriCharset;
         this.charset = request.charset;
+        this.maxBodySize = request.maxBodySize;
+        this.maxErrorBodySize = request.maxErrorBodySize;
+        this.bodyLimitPolicy = request.bodyLimitPolicy;
+        this.connectionFactory = request.connectionFactory;
+        this.tls = request.tls;
+        this.singleFlight = request.singleFlight;
+        this.uploadDictionary = request.uploadDictionary;
+        this.tracer = request.tracer;
+        this.interceptors = request.interceptors;
+    }
+
+    private static <V> Map<String, List<V>> copyOf(Map<String, List<V>> map) {
+        Map<String, List<V>> copy = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Entry<String, List<V>> entry : map.entrySet()) {
+            copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private static URL toURL(String urlString, URLRequest<?> request) {
+        try {
+            return new URL(urlString);
+        } catch (MalformedURLException e) {
+            throw new URLRequestException(urlString, e.getMessage(), request, e);
+        }
+    }
+
+    /**
+     * Independent copy, later changes do not affect this request.
+     */
+    public URLRequest<T> copy() {
+        return new URLRequest<>(this, handler);
+    }
+
+    /**
+     * Thread-safe snapshot which can be shared and executed concurrently.
+     * <p>
+     * Every setter of a frozen request leaves it untouched and returns a mutable overlay,
+     * the overlay shares the headers and params until its first write to them.
+     */
+    public URLRequest<T> freeze() {
+        if (frozen) return this;
+        URLRequest<T> request = new URLRequest<>(this, handler);
+        request.headers = unmodifiable(request.headers);
+        request.params = unmodifiable(request.params);
+        request.frozen = true;
+        return request;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private static <V> Map<String, List<V>> unmodifiable(Map<String, List<V>> map) {
+        for (Entry<String, List<V>> entry : map.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * The request to apply a change to, an overlay when this one is frozen.
+     */
+    private URLRequest<T> writable() {
+        return frozen ? new URLRequest<>(this, handler) : this;
+    }
+
+    /**
+     * Headers owned by this request, only valid on a request which is not frozen.
+     */
+    Map<String, List<String>> writableHeaders() {
+        if (sharedHeaders) {
+            headers = copyOf(headers);
+            sharedHeaders = false;
+        }
+        return headers;
+    }
+
+    private Map<String, List<Object>> writableParams() {
+        if (sharedParams) {
+            params = copyOf(params);
+            sharedParams = false;
+        }
+        return params;
     }
 
     public static URLRequest<String> build(String url) {
@@ -72,126 +226,303 @@ public class URLRequest<T> {
         return new URLRequest<>(url, handler);
     }
 
+    public static <T> URLRequest<T> build(URL url, ResponseHandler<T> handler) {
+        return new URLRequest<>(url, handler);
+    }
+
     public static <T> URLRequest<T> build(String url, URLRequest<T> request) {
         return new URLRequest<>(url, request);
     }
 
+    public static <T> URLRequest<T> build(URLRequest<?> request, ResponseHandler<T> handler) {
+        return new URLRequest<>(request, handler);
+    }
+
+    /**
+     * GET only the status code, the body is drained and dropped and error statuses do not throw.
+     */
+    public int status() throws URLRequestException {
+        return status(URLRequestMethod.GET);
+    }
+
+    public int status(String method) throws URLRequestException {
+        // a view of this request for the call only, no header or param map is copied
+        URLRequest<Void> request = new URLRequest<>(url, this, URLRequestUtil.statusHandler, true);
+        try {
+            return URLRequestUtil.execute(method, request).getStatus();
+        } catch (URLResponseException e) {
+            // thrown by an interceptor
+            return e.getResponse().getStatus();
+        }
+    }
+
+    /**
+     * GET the body as bytes whatever the handler is.
+     */
+    public byte[] bytes() throws URLRequestException {
+        return URLRequestUtil.execute(URLRequestMethod.GET, build(this, URLRequestUtil.toBytesHandler)).getBody();
+    }
+
     public URLResponse<T> go() throws URLRequestException {
         return URLRequestUtil.execute(method, this);
     }
 
     public URLResponse<T> go(String method) throws URLRequestException {
-        this.method = method;
+        // a frozen request may be running on other threads
+        if (!frozen) this.method = method;
         return URLRequestUtil.execute(method, this);
     }
 
     public URLResponse<T> get() throws URLRequestException {
-        method = URLRequestMethod.GET;
-        return URLRequestUtil.execute(method, this);
+        return go(URLRequestMethod.GET);
     }
 
     public URLResponse<T> post() throws URLRequestException {
-        method = URLRequestMethod.POST;
-        return URLRequestUtil.execute(method, this);
+        return go(URLRequestMethod.POST);
     }
 
     public URLResponse<T> put() throws URLRequestException {
-        method = URLRequestMethod.PUT;
-        return URLRequestUtil.execute(method, this);
+        return go(URLRequestMethod.PUT);
     }
 
     public URLResponse<T> delete() throws URLRequestException {
-        method = URLRequestMethod.DELETE;
-        return URLRequestUtil.execute(method, this);
+        return go(URLRequestMethod.DELETE);
+    }
+
+    public URLResponse<T> head() throws URLRequestException {
+        return go(URLRequestMethod.HEAD);
+    }
+
+    /**
+     * Consume text/event-stream incrementally, the request is executed per subscription.
+     */
+    public EventStreamPublisher eventStream() {
+        return new EventStreamPublisher(this);
+    }
+
+    /**
+     * Consume newline-delimited JSON incrementally, the request is executed per subscription.
+     */
+    public <E> NdjsonPublisher<E> ndjson(Function<String, E> mapper) {
+        return new NdjsonPublisher<>(this, mapper);
+    }
+
+    /**
+     * Consume the response body as ByteBuffer chunks with demand signalling, the request is executed per subscription.
+     */
+    public ByteBufferPublisher publisher() {
+        return new ByteBufferPublisher(this);
+    }
+
+    /**
+     * Download into the file over parallel range requests, see {@link SegmentedDownload}.
+     */
+    public SegmentedDownload download(Path target) {
+        return new SegmentedDownload(this, target);
     }
 
-    ResponseHandler<T> getHandler() {
+    public ResponseHandler<T> getHandler() {
         return handler;
     }
 
     public URLRequest<T> redirectAny(boolean redirectAny) {
-        this.redirectAny = redirectAny;
-        return this;
+        URLRequest<T> request = writable();
+        request.redirectAny = redirectAny;
+        return request;
     }
 
     public URLRequest<T> uriCharset(Charset charset) {
-        this.uriCharset = charset;
-        return this;
+        URLRequest<T> request = writable();
+        request.uriCharset = charset;
+        return request;
     }
 
     public URLRequest<T> charset(Charset charset) {
-        this.charset = charset;
-        return this;
+        URLRequest<T> request = writable();
+        request.charset = charset;
+        return request;
     }
 
     public URLRequest<T> method(String method) {
-        this.method = method;
-        return this;
+        URLRequest<T> request = writable();
+        request.method = method;
+        return request;
     }
 
     public URLRequest<T> timeout(Integer timeout) {
-        this.timeout = timeout;
-        return this;
+        URLRequest<T> request = writable();
+        request.timeout = timeout;
+        return request;
     }
 
     public URLRequest<T> readTimeout(Integer readTimeout) {
-        this.readTimeout = readTimeout;
-        return this;
+        URLRequest<T> request = writable();
+        request.readTimeout = readTimeout;
+        return request;
+    }
+
+    public URLRequest<T> maxBodySize(Integer maxBodySize) {
+        URLRequest<T> request = writable();
+        request.maxBodySize = maxBodySize;
+        return request;
+    }
+
+    public URLRequest<T> maxErrorBodySize(Integer maxErrorBodySize) {
+        URLRequest<T> request = writable();
+        request.maxErrorBodySize = maxErrorBodySize;
+        return request;
+    }
+
+    public URLRequest<T> bodyLimitPolicy(BodyLimitPolicy bodyLimitPolicy) {
+        URLRequest<T> request = writable();
+        request.bodyLimitPolicy = bodyLimitPolicy;
+        return request;
     }
 
     public URLRequest<T> header(String name, String value) {
-        List<String> values = this.headers.computeIfAbsent(name, (key) -> new ArrayList<>());
+        URLRequest<T> request = writable();
+        List<String> values = request.writableHeaders().computeIfAbsent(name, (key) -> new ArrayList<>());
         if (URLRequestUtil.isSingleHeader(name) && values.size() > 0) {
             values.set(0, value);
         } else {
             values.add(value);
         }
-        return this;
+        return request;
     }
 
     public URLRequest<T> headers(Map<String, String> map) {
-        if (map != null && map.size() > 0) {
-            for (Entry<String, String> entry : map.entrySet()) {
-                header(entry.getKey(), entry.getValue());
-            }
+        if (map == null || map.size() == 0) return this;
+        URLRequest<T> request = writable();
+        for (Entry<String, String> entry : map.entrySet()) {
+            request.header(entry.getKey(), entry.getValue());
         }
-        return this;
+        return request;
     }
 
     public URLRequest<T> body(String body) {
-        bodyString = body;
-        return this;
+        URLRequest<T> request = writable();
+        request.bodyString = body;
+        return request;
     }
 
     public URLRequest<T> body(byte[] body) {
-        bodyBytes = body;
-        return this;
+        URLRequest<T> request = writable();
+        request.bodyBytes = body;
+        return request;
+    }
+
+    /**
+     * Streaming body, sent in fixed-length mode when the length is known, otherwise chunked.
+     */
+    public URLRequest<T> body(RequestBody body) {
+        URLRequest<T> request = writable();
+        request.requestBody = body;
+        return request;
+    }
+
+    /**
+     * Flow.Publisher body, buffers are requested as fast as the connection accepts them.
+     *
+     * @param contentLength -1 if unknown
+     */
+    public URLRequest<T> body(Flow.Publisher<ByteBuffer> publisher, long contentLength) {
+        return body(new PublisherBody(publisher, contentLength));
     }
 
     public URLRequest<T> param(String name, Object value) {
         if (value == null) return this;
-        params.computeIfAbsent(name, (key) -> new ArrayList<>())
+        URLRequest<T> request = writable();
+        request.writableParams().computeIfAbsent(name, (key) -> new ArrayList<>())
                 .add(value);
-        return this;
+        return request;
     }
 
     public URLRequest<T> params(Map<String, Object> map) {
-        if (map != null && map.size() > 0) {
-            for (Entry<String, Object> entry : map.entrySet()) {
-                param(entry.getKey(), entry.getValue());
-            }
+        if (map == null || map.size() == 0) return this;
+        URLRequest<T> request = writable();
+        for (Entry<String, Object> entry : map.entrySet()) {
+            request.param(entry.getKey(), entry.getValue());
         }
-        return this;
+        return request;
     }
 
     public URLRequest<T> cookieManager(CookieManager cookieManager) {
-        this.cookieManager = cookieManager;
-        return this;
+        URLRequest<T> request = writable();
+        request.cookieManager = cookieManager;
+        return request;
     }
 
     public URLRequest<T> proxy(Proxy proxy) {
-        this.proxy = proxy;
-        return this;
+        URLRequest<T> request = writable();
+        request.proxy = proxy;
+        return request;
+    }
+
+    /**
+     * Choose proxies per destination with failover, e.g. {@link pers.clare.urlrequest.proxy.ProxyRoutes}.
+     * A fixed {@link #proxy(Proxy)} takes precedence.
+     */
+    public URLRequest<T> proxySelector(ProxySelector proxySelector) {
+        URLRequest<T> request = writable();
+        request.proxySelector = proxySelector;
+        return request;
+    }
+
+    /**
+     * Replace how connections are opened, e.g. {@link pers.clare.urlrequest.http2.Http2ConnectionFactory}.
+     */
+    public URLRequest<T> connectionFactory(URLConnectionFactory connectionFactory) {
+        URLRequest<T> request = writable();
+        request.connectionFactory = connectionFactory;
+        return request;
+    }
+
+    /**
+     * Shared TLS settings of HTTPS connections.
+     */
+    public URLRequest<T> tls(TLSConfig tls) {
+        URLRequest<T> request = writable();
+        request.tls = tls;
+        return request;
+    }
+
+    /**
+     * Coalesce concurrent identical GET requests into one network call.
+     */
+    public URLRequest<T> singleFlight(SingleFlight singleFlight) {
+        URLRequest<T> request = writable();
+        request.singleFlight = singleFlight;
+        return request;
+    }
+
+    /**
+     * Deflate {@link #body(byte[])} uploads against the previous body of the same endpoint.
+     */
+    public URLRequest<T> uploadDictionary(UploadDictionary uploadDictionary) {
+        URLRequest<T> request = writable();
+        request.uploadDictionary = uploadDictionary;
+        return request;
+    }
+
+    /**
+     * Inject traceparent and record a span on every hop.
+     */
+    public URLRequest<T> tracer(Tracer tracer) {
+        URLRequest<T> request = writable();
+        request.tracer = tracer;
+        return request;
+    }
+
+    public URLRequest<T> interceptors(Interceptors interceptors) {
+        URLRequest<T> request = writable();
+        request.interceptors = interceptors;
+        return request;
+    }
+
+    public URLRequest<T> interceptors(Interceptor... interceptors) {
+        URLRequest<T> request = writable();
+        request.interceptors = Interceptors.of(interceptors);
+        return request;
     }
 
     public URL getUrl() {
@@ -214,6 +545,10 @@ public class URLRequest<T> {
         return proxy;
     }
 
+    public ProxySelector getProxySelector() {
+        return proxySelector;
+    }
+
     public boolean isRedirectAny() {
         return redirectAny;
     }
@@ -226,15 +561,75 @@ public class URLRequest<T> {
         return readTimeout;
     }
 
+    public Integer getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    public Integer getMaxErrorBodySize() {
+        return maxErrorBodySize;
+    }
+
+    public BodyLimitPolicy getBodyLimitPolicy() {
+        return bodyLimitPolicy;
+    }
+
+    public URLConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    public TLSConfig getTls() {
+        return tls;
+    }
+
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    public UploadDictionary getUploadDictionary() {
+        return uploadDictionary;
+    }
+
+    /**
+     * Null unless set by {@link #body(RequestBody)}.
+     */
+    public RequestBody getRequestBody() {
+        return requestBody;
+    }
+
+    /**
+     * Whether the request can be sent again, a streaming body must be {@link RequestBody#isRepeatable()}.
+     */
+    public boolean isRepeatable() {
+        return requestBody == null || requestBody.isRepeatable();
+    }
+
+    public Tracer getTracer() {
+        return tracer;
+    }
+
+    public Interceptors getInterceptors() {
+        return interceptors;
+    }
+
     public String getMethod() {
         return method;
     }
 
+    /**
+     * String body, or the byte body decoded with {@link #getCharset()}, frozen requests are not changed.
+     */
     public String getBody() {
-        if (bodyString == null && bodyBytes != null) {
-            bodyString = new String(bodyBytes);
-        }
-        return bodyString;
+        if (bodyString != null || bodyBytes == null) return bodyString;
+        return new String(bodyBytes, charset);
+    }
+
+    /**
+     * Bytes of a byte body or chars of a string body without decoding it, -1 if there is none.
+     */
+    public long getBodyLength() {
+        if (bodyBytes != null) return bodyBytes.length;
+        if (bodyString != null) return bodyString.length();
+        return -1;
     }
 
     public Charset getUriCharset() {
@@ -5,5 +5,7 @@ public class URLRequestMethod {
 	public static final String POST = "POST";
 	public static final String PUT = "PUT";
 	public static final String DELETE = "DELETE";
+	public static final String HEAD = "HEAD";
+	public static final String OPTIONS = "OPTIONS";
 
 }
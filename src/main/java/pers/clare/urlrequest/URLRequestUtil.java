@@ -1,19 +1,25 @@
 package pers.clare.urlrequest;
 
+import pers.clare.urlrequest.body.RequestBody;
+import pers.clare.urlrequest.exception.ResponseBodyTooLargeException;
 import pers.clare.urlrequest.exception.URLRequestException;
 import pers.clare.urlrequest.exception.URLResponseException;
 import pers.clare.urlrequest.handler.ResponseHandler;
+import pers.clare.urlrequest.proxy.ProxyRoutes;
+import pers.clare.urlrequest.trace.Span;
+import pers.clare.urlrequest.trace.Tracer;
 
+import javax.net.ssl.HttpsURLConnection;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.*;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class URLRequestUtil {
     public static final int CONNECTION_TIMEOUT = 60000;
@@ -22,6 +28,8 @@ public class URLRequestUtil {
 
     public static final int OTHER_READ_TIMEOUT = 3600000;
 
+    public static final int CHUNK_SIZE = 8192;
+
     public static final byte[] NULL = "null".getBytes();
 
     public static final byte[] EQUAL = "=".getBytes();
@@ -30,17 +38,50 @@ public class URLRequestUtil {
 
     public static final ResponseHandler<String> toStringHandler = URLRequestUtil::streamToString;
 
-    private static final Set<String> singleHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    /**
+     * Drain and drop the body so the connection can be reused.
+     */
+    public static final ResponseHandler<Void> discardHandler = URLRequestUtil::discard;
 
-    private static final Pattern contentTypePattern = Pattern.compile("^content-type$", Pattern.CASE_INSENSITIVE);
+    /**
+     * Handler of {@link URLRequest#status(String)}, known by identity: an error status returns a response
+     * without body instead of reading the error body into a {@link URLResponseException}.
+     */
+    static final ResponseHandler<Void> statusHandler = new ResponseHandler<>() {
+        @Override
+        public Void apply(InputStream in, Charset charset) throws IOException {
+            return discard(in, charset);
+        }
+    };
 
-    private static final Pattern charsetPattern = Pattern.compile("charset=(\\S+)", Pattern.CASE_INSENSITIVE);
+    /**
+     * Shared by every thread, the content is never read.
+     */
+    private static final byte[] DISCARD_BUFFER = new byte[CHUNK_SIZE];
+
+    /**
+     * Bytes of an unread redirect body drained to keep its connection, longer ones are disconnected.
+     */
+    private static final int MAX_DRAIN = 64 * 1024;
+
+    /**
+     * Bytes allocated up front from the Content-Length of a body without limit, a larger body grows as it arrives.
+     */
+    private static final int MAX_PREALLOCATE = 1024 * 1024;
+
+    public static final ResponseHandler<byte[]> toBytesHandler = (in, charset) -> streamToBytes(in);
+
+    public static final URLConnectionFactory DEFAULT_CONNECTION_FACTORY = (url, proxy) ->
+            (HttpURLConnection) (proxy == null ? url.openConnection() : url.openConnection(proxy));
+
+    private static final Set<String> singleHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
 
     static {
         singleHeaders.add(HeaderNames.CONTENT_TYPE);
         singleHeaders.add(HeaderNames.HOST);
         singleHeaders.add(HeaderNames.USER_AGENT);
         singleHeaders.add(HeaderNames.CONNECTION);
+        singleHeaders.add(HeaderNames.AUTHORIZATION);
     }
 
     public static boolean isSingleHeader(String name) {
@@ -59,7 +100,37 @@ public class URLRequestUtil {
             String method
             , URLRequest<T> request
     ) throws URLResponseException {
-        return doExecute(method, null, request);
+        Interceptors interceptors = request.getInterceptors();
+        if (interceptors == null) return dispatch(method, request);
+        return interceptors.execute(method, request);
+    }
+
+    /**
+     * Execute after the interceptors.
+     */
+    static <T> URLResponse<T> dispatch(
+            String method
+            , URLRequest<T> request
+    ) throws URLResponseException {
+        if (request.getSingleFlight() != null && URLRequestMethod.GET.equalsIgnoreCase(method)) {
+            return request.getSingleFlight().execute(method, request);
+        }
+        if (request.getUploadDictionary() != null && request.bodyBytes != null
+            && !URLRequestMethod.GET.equalsIgnoreCase(method)
+            && !URLRequestMethod.HEAD.equalsIgnoreCase(method)) {
+            return request.getUploadDictionary().execute(method, request);
+        }
+        return doExecute(method, null, request, null);
+    }
+
+    /**
+     * Execute without coalescing.
+     */
+    static <T> URLResponse<T> doExecute(
+            String method
+            , URLRequest<T> request
+    ) throws URLResponseException {
+        return doExecute(method, null, request, null);
     }
 
     /**
@@ -75,24 +146,47 @@ public class URLRequestUtil {
             String method
             , Set<String> redirectLocations
             , URLRequest<T> request
+            , Span previous
+    ) throws URLResponseException {
+        Tracer tracer = request.getTracer();
+        if (tracer == null) return doExecute(method, redirectLocations, request, null, null);
+        Span span = tracer.start(method, request.getUrl(), request.getHeaders(), previous);
+        try {
+            URLResponse<T> response = doExecute(method, redirectLocations, request, tracer, span);
+            tracer.end(span, null);
+            return response;
+        } catch (RuntimeException e) {
+            tracer.end(span, e);
+            throw e;
+        }
+    }
+
+    private static <T> URLResponse<T> doExecute(
+            String method
+            , Set<String> redirectLocations
+            , URLRequest<T> request
+            , Tracer tracer
+            , Span span
     ) throws URLResponseException {
         HttpURLConnection connection;
         int status;
         String message;
-        Map<String, List<String>> headers;
+        boolean responded = false;
         try {
-            connection = setConnection(method, request);
+            connection = setConnection(method, request, span);
             status = connection.getResponseCode();
+            responded = true;
+            if (span != null) span.status(status);
             message = connection.getResponseMessage();
-            headers = connection.getHeaderFields();
 
-            Charset charset = findCharset(headers);
+            // single header lookups, the header map is only built when needed
+            Charset charset = findCharset(connection.getContentType());
             if (charset == null) {
                 charset = request.getCharset();
             }
 
             if (request.getCookieManager() != null) {
-                request.getCookieManager().put(request.getUrl().toURI(), headers);
+                request.getCookieManager().put(request.getUrl().toURI(), connection.getHeaderFields());
             }
             if (status > 300) {
                 // 重新定向
@@ -101,63 +195,80 @@ public class URLRequestUtil {
                     if (redirectLocations == null) {
                         redirectLocations = new HashSet<>();
                     }
-                    return redirectCrossProtocol(connection, request, redirectLocations);
+                    return redirectCrossProtocol(method, connection, request, redirectLocations, tracer, span);
+                } else if (request.getHandler() == statusHandler) {
+                    release(connection, true);
+                    return URLResponse.build(request.getHandler())
+                            .url(connection.getURL())
+                            .status(status)
+                            .headers(connection)
+                            .message(message);
                 } else {
-                    String body;
-                    if (connection.getErrorStream() == null) {
-                        body = streamToString(connection.getInputStream(), charset);
-                    } else {
-                        body = streamToString(connection.getErrorStream(), charset);
-                    }
+                    String body = errorStreamToString(connection, request, charset);
                     throw new URLResponseException(connection.getURL().toString()
                             , URLResponse.build(toStringHandler)
                             .url(connection.getURL())
                             .status(status)
-                            .headers(headers)
+                            .headers(connection.getHeaderFields())
                             .message(message)
                             .body(body)
                     );
                 }
             }
+            T body;
+            // the raw stream is its own resource, the limit may reject the body before wrapping it
+            try (InputStream raw = connection.getInputStream();
+                 InputStream in = LimitedInputStream.of(raw, connection.getContentLengthLong(), request.getMaxBodySize(), request.getBodyLimitPolicy())) {
+                body = request.getHandler().apply(in, charset);
+            }
             return URLResponse.build(request.getHandler())
                     .url(connection.getURL())
                     .status(status)
-                    .headers(headers)
+                    .headers(connection)
                     .message(message)
-                    .body(request.getHandler().apply(connection.getInputStream(), charset))
+                    .body(body)
                     ;
-        } catch (URLResponseException e) {
+        } catch (URLResponseException | URLRequestException e) {
+            // failures of a redirect keep whether a response arrived
             throw e;
+        } catch (ResponseBodyTooLargeException e) {
+            throw new URLRequestException(request.getUrl().toString(), e.getMessage(), request, e, true);
         } catch (UnknownHostException e) {
             throw new URLRequestException(request.getUrl().toString(), "unknown host " + e.getMessage(), request, e.getCause());
         } catch (Exception e) {
-            e.printStackTrace();
-            throw new URLRequestException(request.getUrl().toString(), e.getMessage(), request, e.getCause());
+            // no stack trace on stderr, every call prints one while a backend is down, see RequestLogger
+            throw new URLRequestException(request.getUrl().toString(), e.getMessage(), request, e.getCause() == null ? e : e.getCause(), responded);
         }
     }
 
     /**
      * 重新定向.
      *
+     * @param method            the method of the request
      * @param connection        the connection
      * @param request           the request
      * @param redirectLocations the redirect locations
      * @return the URL response
      * @throws Exception the exception
      */
-    private static <T> URLResponse<T> redirectCrossProtocol(HttpURLConnection connection, URLRequest<T> request, Set<String> redirectLocations) throws Exception {
-        String location = getLocation(connection);
+    private static <T> URLResponse<T> redirectCrossProtocol(
+            String method
+            , HttpURLConnection connection
+            , URLRequest<T> request
+            , Set<String> redirectLocations
+            , Tracer tracer
+            , Span span
+    ) throws Exception {
+        String location = connection.getHeaderField(HeaderNames.LOCATION);
         int status = connection.getResponseCode();
-        Map<String, List<String>> headers = connection.getHeaderFields();
-        if (request.getCookieManager() != null) {
-            request.getCookieManager().put(request.getUrl().toURI(), headers);
-        }
+        // the hop holds a keep-alive connection or an HTTP/2 stream permit until its body is consumed
+        release(connection, false);
         if (location == null) {
             throw new URLResponseException(connection.getURL().toString()
                     , URLResponse.build(toStringHandler)
                     .url(connection.getURL())
                     .status(status)
-                    .headers(headers)
+                    .headers(connection.getHeaderFields())
                     .message("Has Redirect, but header not location")
                     .body("")
             );
@@ -166,44 +277,52 @@ public class URLRequestUtil {
                     , URLResponse.build(toStringHandler)
                     .url(connection.getURL())
                     .status(status)
-                    .headers(headers)
+                    .headers(connection.getHeaderFields())
                     .message("Infinity redirects")
                     .body("")
             );
         }
         redirectLocations.add(location);
-        return doExecute(request.getMethod(), redirectLocations, URLRequest.build(location, request));
+        // the next hop is a sibling span, not a child of this one
+        if (span != null) tracer.end(span, null);
+        return doExecute(method, redirectLocations, URLRequest.build(location, request), span);
     }
 
     /**
-     * Gets the location.
-     *
-     * @param connection the connection
-     * @return the location
+     * Drain and close a body which is not read, a long one is cut by disconnecting instead.
      */
-    private static String getLocation(HttpURLConnection connection) {
-        for (Entry<String, List<String>> entry : connection.getHeaderFields().entrySet()) {
-            if (!HeaderNames.LOCATION.equalsIgnoreCase(entry.getKey())) continue;
-            return String.join(",", entry.getValue());
+    private static void release(HttpURLConnection connection, boolean error) {
+        try (InputStream in = error ? connection.getErrorStream() : connection.getInputStream()) {
+            if (in == null) return;
+            long remaining = MAX_DRAIN;
+            int n;
+            while (remaining > 0 && (n = in.read(DISCARD_BUFFER)) != -1) {
+                remaining -= n;
+            }
+            if (remaining <= 0) connection.disconnect();
+        } catch (IOException e) {
+            connection.disconnect();
         }
-        return null;
     }
 
     /**
      * Sets the connection.
      */
-    private static <T> HttpURLConnection setConnection(String method, URLRequest<T> request) throws IOException, URISyntaxException {
+    private static <T> HttpURLConnection setConnection(String method, URLRequest<T> request, Span span) throws IOException, URISyntaxException {
         Charset charset = findCharset(request.getHeaders());
         if (charset == null) {
             charset = request.getCharset();
         }
-        boolean get = URLRequestMethod.GET.equalsIgnoreCase(method);
+        // HEAD has no body either
+        boolean get = URLRequestMethod.GET.equalsIgnoreCase(method)
+                      || URLRequestMethod.HEAD.equalsIgnoreCase(method);
         URL url;
         if (get) {
             url = getEncodeURL(request.getUrl(), request.getParams(), request.getUriCharset());
         } else {
             if (request.bodyString == null
                     && request.bodyBytes == null
+                    && request.requestBody == null
             ) {
                 url = request.getUrl();
             }else {
@@ -211,11 +330,39 @@ public class URLRequestUtil {
             }
         }
         HttpURLConnection connection;
-        Proxy proxy = request.getProxy();
-        if (proxy == null) {
-            connection = (HttpURLConnection) url.openConnection();
+        if (request.getProxy() == null && request.getProxySelector() != null) {
+            connection = openSelected(method, url, get, request, request.getProxySelector(), span);
         } else {
-            connection = (HttpURLConnection) url.openConnection(proxy);
+            connection = openConnection(method, url, get, request, request.getProxy(), span);
+        }
+        if (!get) {
+            RequestBody body = request.requestBody;
+            OutputStream os = connection.getOutputStream();
+            if (body != null) {
+                body.writeTo(os, connection.getReadTimeout());
+            } else if (request.bodyBytes != null) {
+                write(os, request.bodyBytes);
+            } else if (request.bodyString != null) {
+                write(os, request.bodyString, charset);
+            } else {
+                write(os, request.getParams(), charset);
+            }
+            os.flush();
+        }
+        return connection;
+    }
+
+    private static <T> HttpURLConnection openConnection(
+            String method
+            , URL url
+            , boolean get
+            , URLRequest<T> request
+            , Proxy proxy
+            , Span span
+    ) throws IOException, URISyntaxException {
+        HttpURLConnection connection = request.getConnectionFactory().open(url, proxy);
+        if (request.getTls() != null && connection instanceof HttpsURLConnection) {
+            request.getTls().configure((HttpsURLConnection) connection);
         }
         connection.setDoOutput(true);
         connection.setRequestMethod(method.toUpperCase());
@@ -237,22 +384,69 @@ public class URLRequestUtil {
             connection.setReadTimeout(request.getReadTimeout());
         }
 
-        mergeCookie(request);
         writeHeaders(connection, request.getHeaders());
-        if (!get) {
-            OutputStream os = connection.getOutputStream();
-            if (request.bodyBytes != null) {
-                write(os, request.bodyBytes);
-            } else if (request.bodyString != null) {
-                write(os, request.bodyString, charset);
+        // before connect, a proxy selector connects the connection before the body is written
+        RequestBody body = request.requestBody;
+        if (!get && body != null) {
+            long length = body.contentLength();
+            if (length < 0) {
+                connection.setChunkedStreamingMode(CHUNK_SIZE);
             } else {
-                write(os, request.getParams(), charset);
+                connection.setFixedLengthStreamingMode(length);
+            }
+            if (body.contentType() != null) {
+                connection.setRequestProperty(HeaderNames.CONTENT_TYPE, body.contentType());
             }
-            os.flush();
         }
+        String cookie = mergeCookie(request);
+        if (cookie != null) connection.setRequestProperty(HeaderNames.COOKIE, cookie);
+        if (span != null) connection.setRequestProperty(HeaderNames.TRACEPARENT, span.traceparent());
         return connection;
     }
 
+    /**
+     * Connect through the selected proxies in order, reporting failures back to the selector.
+     */
+    private static <T> HttpURLConnection openSelected(
+            String method
+            , URL url
+            , boolean get
+            , URLRequest<T> request
+            , ProxySelector selector
+            , Span span
+    ) throws IOException, URISyntaxException {
+        URI uri = url.toURI();
+        List<Proxy> proxies = selector.select(uri);
+        if (proxies == null || proxies.isEmpty()) proxies = Collections.singletonList(Proxy.NO_PROXY);
+        ProxyRoutes routes = selector instanceof ProxyRoutes ? (ProxyRoutes) selector : null;
+        IOException failure = null;
+        for (Proxy proxy : proxies) {
+            HttpURLConnection connection = openConnection(method, url, get, request, proxy, span);
+            if (routes != null && proxy.type() != Proxy.Type.DIRECT) {
+                connection.setAuthenticator(routes.getAuthenticator());
+                // plain http through the proxy can skip the 407 round trip
+                String authorization = routes.getAuthorization(proxy);
+                if (authorization != null && "http".equalsIgnoreCase(url.getProtocol())) {
+                    connection.setRequestProperty(HeaderNames.PROXY_AUTHORIZATION, authorization);
+                }
+            }
+            try {
+                connection.connect();
+            } catch (IOException e) {
+                if (proxy.address() != null) selector.connectFailed(uri, proxy.address(), e);
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+                continue;
+            }
+            if (routes != null) routes.connected(proxy);
+            return connection;
+        }
+        throw failure;
+    }
+
     /**
      * 根據參數產生GET URI.
      */
@@ -261,10 +455,14 @@ public class URLRequestUtil {
         return new URL(url, encodeUrlFile(url, params, charset));
     }
 
-    private static <T> void mergeCookie(URLRequest<T> request) throws URISyntaxException {
-        if (request.getCookieManager() == null) return;
+    /**
+     * Cookie header of the stored cookies overridden by the request ones, the request is left untouched
+     * so a shared request stays safe.
+     */
+    private static <T> String mergeCookie(URLRequest<T> request) throws URISyntaxException {
+        if (request.getCookieManager() == null) return null;
         List<HttpCookie> cookies = request.getCookieManager().getCookieStore().get(request.getUrl().toURI());
-        if (cookies.size() == 0) return;
+        if (cookies.size() == 0) return null;
         Map<String, String> cookieMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
         for (HttpCookie cookie : cookies) {
             cookieMap.put(cookie.getName(), cookie.getValue());
@@ -276,11 +474,12 @@ public class URLRequestUtil {
                 if (split.length > 1) cookieMap.put(split[0], split[1]);
             }
         }
-        List<String> newCookies = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
         for (Entry<String, String> entry : cookieMap.entrySet()) {
-            newCookies.add(entry.getKey() + "=" + entry.getValue());
+            if (sb.length() > 0) sb.append("; ");
+            sb.append(entry.getKey()).append('=').append(entry.getValue());
         }
-        request.getHeaders().put("cookie", newCookies);
+        return sb.toString();
     }
 
     /**
@@ -294,20 +493,34 @@ public class URLRequestUtil {
     }
 
     private static Charset findCharset(Map<String, List<String>> headers) {
-        try {
-            for (Entry<String, List<String>> entry : headers.entrySet()) {
-                if (!hasLength(entry.getKey())) continue;
-                if (contentTypePattern.matcher(entry.getKey()).find()) {
-                    for (String value : entry.getValue()) {
-                        Matcher matcher = charsetPattern.matcher(value);
-                        if (matcher.find()) {
-                            return Charset.forName(matcher.group(1));
-                        }
-                    }
-                }
+        List<String> values = headers.get(HeaderNames.CONTENT_TYPE);
+        if (values == null) return null;
+        for (String value : values) {
+            Charset charset = findCharset(value);
+            if (charset != null) return charset;
+        }
+        return null;
+    }
+
+    /**
+     * Charset parameter of a Content-Type value, scanned without regex.
+     */
+    static Charset findCharset(String contentType) {
+        if (contentType == null) return null;
+        int length = contentType.length();
+        for (int i = contentType.indexOf(';'); i >= 0 && i < length; i = contentType.indexOf(';', i + 1)) {
+            int start = i + 1;
+            while (start < length && contentType.charAt(start) == ' ') start++;
+            if (!contentType.regionMatches(true, start, "charset=", 0, 8)) continue;
+            start += 8;
+            int end = contentType.indexOf(';', start);
+            if (end < 0) end = length;
+            while (end > start && contentType.charAt(end - 1) == ' ') end--;
+            if (end - start >= 2 && contentType.charAt(start) == '"' && contentType.charAt(end - 1) == '"') {
+                start++;
+                end--;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            return Charsets.forName(contentType.substring(start, end), null);
         }
         return null;
     }
@@ -382,13 +595,120 @@ public class URLRequestUtil {
      */
     private static String streamToString(InputStream in, Charset charset) throws IOException {
         if (in == null) return "";
-        ByteArrayOutputStream result = new ByteArrayOutputStream();
-        byte[] buffer = new byte[1024];
-        int length;
-        while ((length = in.read(buffer)) != -1) {
+        int size = initialSize(in);
+        if (size < 0) {
+            byte[] buffer = new byte[1024];
+            int length = fill(in, buffer, 0);
+            // the whole body fits the read buffer
+            if (length < buffer.length) return Charsets.decode(buffer, 0, length, charset);
+            DecodableOutputStream result = new DecodableOutputStream();
             result.write(buffer, 0, length);
+            while ((length = in.read(buffer)) != -1) {
+                result.write(buffer, 0, length);
+            }
+            return result.decode(charset);
+        }
+        // Content-Length is known, read into one exact sized buffer.
+        byte[] buffer = new byte[size];
+        int length = fill(in, buffer, 0);
+        if (length < buffer.length || isComplete(in, size)) return Charsets.decode(buffer, 0, length, charset);
+        DecodableOutputStream result = new DecodableOutputStream(size);
+        result.write(buffer, 0, length);
+        in.transferTo(result);
+        return result.decode(charset);
+    }
+
+    /**
+     * Initial buffer of a body with Content-Length, which is trusted up to the body limit
+     * or {@link #MAX_PREALLOCATE} without one, -1 if unknown.
+     */
+    private static int initialSize(InputStream in) {
+        if (!(in instanceof LimitedInputStream)) return -1;
+        LimitedInputStream limited = (LimitedInputStream) in;
+        if (limited.getContentLength() < 0) return -1;
+        long maxSize = limited.getMaxSize() == Long.MAX_VALUE ? MAX_PREALLOCATE : Math.min(limited.getMaxSize(), Integer.MAX_VALUE - 8);
+        return (int) Math.min(limited.getContentLength(), maxSize);
+    }
+
+    /**
+     * The initial buffer holds all the stream may return, otherwise the rest grows as data arrives.
+     */
+    private static boolean isComplete(InputStream in, int size) {
+        LimitedInputStream limited = (LimitedInputStream) in;
+        return size == Math.min(limited.getContentLength(), limited.getMaxSize());
+    }
+
+    /**
+     * Decodes the written bytes in place, without the copy of {@link #toByteArray()}.
+     */
+    private static class DecodableOutputStream extends ByteArrayOutputStream {
+        private DecodableOutputStream() {
+        }
+
+        private DecodableOutputStream(int size) {
+            super(size);
+        }
+
+        private String decode(Charset charset) {
+            return Charsets.decode(buf, 0, count, charset);
+        }
+    }
+
+    /**
+     * Keep reading until the buffer is full or the stream ends.
+     */
+    private static int fill(InputStream in, byte[] buffer, int length) throws IOException {
+        int n;
+        while (length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += n;
+        }
+        return length;
+    }
+
+    /**
+     * Read to the end so the connection can be reused.
+     */
+    private static Void discard(InputStream in, Charset charset) throws IOException {
+        while (in.read(DISCARD_BUFFER) != -1) {
+            // drop
+        }
+        return null;
+    }
+
+    /**
+     * Stream to bytes, one exact sized allocation when Content-Length is known.
+     */
+    static byte[] streamToBytes(InputStream in) throws IOException {
+        if (in == null) return new byte[0];
+        int size = initialSize(in);
+        if (size < 0) {
+            return in.readAllBytes();
+        }
+        byte[] buffer = new byte[size];
+        int length = fill(in, buffer, 0);
+        if (length < buffer.length) return Arrays.copyOf(buffer, length);
+        if (isComplete(in, size)) return buffer;
+        ByteArrayOutputStream result = new ByteArrayOutputStream(size);
+        result.write(buffer, 0, length);
+        in.transferTo(result);
+        return result.toByteArray();
+    }
+
+    /**
+     * Read the error body within the error body size limit, always truncated so the status is not lost.
+     */
+    private static String errorStreamToString(HttpURLConnection connection, URLRequest<?> request, Charset charset) throws IOException {
+        InputStream in = connection.getErrorStream();
+        if (in == null) {
+            // no error body, e.g. HEAD, and getInputStream throws for error status
+            if (connection.getResponseCode() >= 400) return "";
+            in = connection.getInputStream();
+        }
+        if (in == null) return "";
+        try (InputStream raw = in;
+             InputStream limited = LimitedInputStream.of(raw, connection.getContentLengthLong(), request.getMaxErrorBodySize(), BodyLimitPolicy.TRUNCATE)) {
+            return streamToString(limited, charset);
         }
-        return result.toString(charset);
     }
 
     private static void write(
@@ -453,47 +773,44 @@ public class URLRequestUtil {
 
 
     /**
-     * Creates the request.
+     * Run the encode, header and body paths so the JIT compiles them before traffic.
+     */
+    static void primeCodePaths(int iterations) throws IOException {
+        URL url = new URL("http://localhost/prime?query=value");
+        Map<String, List<Object>> params = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        params.put("name", Arrays.asList("value", 1));
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put(HeaderNames.CONTENT_TYPE, Collections.singletonList(HeaderValues.JSON + "; charset=UTF-8"));
+        byte[] body = "{\"name\":\"value\"}".getBytes(StandardCharsets.UTF_8);
+        OutputStream os = OutputStream.nullOutputStream();
+        for (int i = 0; i < iterations; i++) {
+            getEncodeURL(url, params, StandardCharsets.UTF_8);
+            write(os, params, StandardCharsets.UTF_8);
+            findCharset(headers);
+            streamToString(LimitedInputStream.of(new ByteArrayInputStream(body), body.length, null, BodyLimitPolicy.FAIL), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Resolve, connect and prime the code paths ahead of traffic.
+     *
+     * @return failures by url, empty if every host is ready
+     */
+    public static Map<String, Throwable> warmUp(Collection<String> urls, int connectionsPerHost) {
+        return new URLRequestWarmUp(urls)
+                .connectionsPerHost(connectionsPerHost)
+                .run();
+    }
+
+    /**
+     * Creates the request, the definition is parsed once and cached.
      */
     @SuppressWarnings("unused")
     public static <T> URLRequest<T> createRequest(
             HttpRequest bean
             , ResponseHandler<T> handler
     ) {
-        URLRequest<T> request = URLRequest.build(bean.getUrl(), handler)
-                .method(bean.getMethod())
-                .timeout(bean.getConnectionTimeout())
-                .readTimeout(bean.getReadTimeout())
-                .redirectAny(true);
-
-        int index;
-        if (hasLength(bean.getBody()) && hasLength(bean.getParams())) {
-            String[] params = bean.getParams().split("\n");
-            for (String param : params) {
-                if (!hasLength(param)) continue;
-                index = param.indexOf(':');
-                if (index > -1) {
-                    request.param(param.substring(0, index).trim(), param.substring(index + 1).trim());
-                } else {
-                    request.param("", param);
-                }
-            }
-        } else {
-            request.body(bean.getBody());
-        }
-        if (hasLength(bean.getHeaders())) {
-            String[] headers = bean.getHeaders().split("\n");
-            for (String header : headers) {
-                if (!hasLength(header)) continue;
-                index = header.indexOf(':');
-                if (index > -1) {
-                    request.header(header.substring(0, index).trim(), header.substring(index + 1).trim());
-                } else {
-                    request.header("", header);
-                }
-            }
-        }
-        return request;
+        return HttpRequestTemplate.of(bean).toRequest(handler);
     }
 
     private static boolean hasLength(String str) {
@@ -0,0 +1,199 @@
+package pers.clare.urlrequest;
+
+import pers.clare.urlrequest.exception.URLResponseException;
+import pers.clare.urlrequest.handler.ResponseHandler;
+import pers.clare.urlrequest.tls.TLSConfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Startup priming, resolves hosts, opens keep-alive connections with cheap probes and lets the JIT
+ * compile the request paths, so the first real calls do not pay for it.
+ * HttpURLConnection keeps at most http.maxConnections (default 5) idle connections per host.
+ */
+@SuppressWarnings("unused")
+public class URLRequestWarmUp {
+    public static final int DEFAULT_ITERATIONS = 10000;
+
+    public static final int DEFAULT_TIMEOUT = 10000;
+
+    private final List<String> urls;
+    private int connectionsPerHost = 1;
+    private boolean probe = true;
+    private String probeMethod = URLRequestMethod.HEAD;
+    private int iterations = DEFAULT_ITERATIONS;
+    private int timeout = DEFAULT_TIMEOUT;
+    private URLRequest<?> template;
+    private ResponseHandler<?> handler;
+    private byte[] sample;
+
+    public URLRequestWarmUp(Collection<String> urls) {
+        this.urls = new ArrayList<>(urls);
+    }
+
+    public static URLRequestWarmUp of(String... urls) {
+        return new URLRequestWarmUp(Arrays.asList(urls));
+    }
+
+    public URLRequestWarmUp connectionsPerHost(int connectionsPerHost) {
+        this.connectionsPerHost = connectionsPerHost;
+        return this;
+    }
+
+    /**
+     * Send probe requests, false only resolves hosts and handshakes TLS.
+     */
+    public URLRequestWarmUp probe(boolean probe) {
+        this.probe = probe;
+        return this;
+    }
+
+    public URLRequestWarmUp probeMethod(String probeMethod) {
+        this.probeMethod = probeMethod;
+        return this;
+    }
+
+    /**
+     * Code path iterations, 0 to skip.
+     */
+    public URLRequestWarmUp iterations(int iterations) {
+        this.iterations = iterations;
+        return this;
+    }
+
+    public URLRequestWarmUp timeout(int timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * Probes copy the settings of the request, e.g. tls, connection factory, proxy and headers.
+     */
+    public URLRequestWarmUp template(URLRequest<?> template) {
+        this.template = template;
+        return this;
+    }
+
+    /**
+     * Prime a response handler with a sample body.
+     */
+    public URLRequestWarmUp handler(ResponseHandler<?> handler, byte[] sample) {
+        this.handler = handler;
+        this.sample = sample;
+        return this;
+    }
+
+    /**
+     * @return failures by url, empty if every host is ready
+     */
+    public Map<String, Throwable> run() {
+        Map<String, Throwable> failures = new ConcurrentHashMap<>();
+        try {
+            primeCode();
+        } catch (Exception e) {
+            failures.put("", e);
+        }
+        if (urls.isEmpty()) return failures;
+        int connections = Math.max(1, connectionsPerHost);
+        ExecutorService executor = Executors.newCachedThreadPool((runnable) -> {
+            Thread thread = new Thread(runnable, "url-request-warm-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String url : urls) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        warmUp(url, connections, executor);
+                    } catch (Throwable e) {
+                        failures.put(url, e instanceof ExecutionException ? e.getCause() : e);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(timeout * 2L, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            failures.putIfAbsent("", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return failures;
+    }
+
+    private void primeCode() throws IOException {
+        if (iterations <= 0) return;
+        URLRequestUtil.primeCodePaths(iterations);
+        if (handler == null || sample == null) return;
+        for (int i = 0; i < iterations; i++) {
+            handler.apply(new ByteArrayInputStream(sample), StandardCharsets.UTF_8);
+        }
+    }
+
+    private void warmUp(String url, int connections, ExecutorService executor) throws Exception {
+        URL target = new URL(url);
+        InetAddress.getAllByName(target.getHost());
+        TLSConfig tls = template == null ? null : template.getTls();
+        if (tls != null && "https".equalsIgnoreCase(target.getProtocol())) {
+            tls.warmUp(target.getHost(), target.getPort() == -1 ? TLSConfig.DEFAULT_PORT : target.getPort(), timeout);
+        }
+        if (!probe) return;
+        // hold every response until all are in flight, so each probe opens its own connection
+        CountDownLatch arrived = new CountDownLatch(connections);
+        ResponseHandler<Void> handler = (in, charset) -> {
+            arrived.countDown();
+            try {
+                arrived.await(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            drain(in);
+            return null;
+        };
+        List<Callable<Void>> probes = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            probes.add(() -> {
+                try {
+                    createRequest(url, handler).go(probeMethod);
+                } catch (URLResponseException e) {
+                    // any response means the connection is open
+                    arrived.countDown();
+                }
+                return null;
+            });
+        }
+        if (connections == 1) {
+            probes.get(0).call();
+            return;
+        }
+        for (Future<Void> future : executor.invokeAll(probes, timeout * 2L, TimeUnit.MILLISECONDS)) {
+            future.get();
+        }
+    }
+
+    private URLRequest<Void> createRequest(String url, ResponseHandler<Void> handler) {
+        URLRequest<Void> request = template == null
+                ? URLRequest.build(url, handler)
+                : URLRequest.build(URLRequest.build(url, template), handler);
+        return request
+                .timeout(timeout)
+                .readTimeout(timeout);
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) != -1) {
+            // discard
+        }
+    }
+}
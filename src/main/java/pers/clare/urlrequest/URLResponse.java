@@ -2,6 +2,7 @@ package pers.clare.urlrequest;
 
 import pers.clare.urlrequest.handler.ResponseHandler;
 
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
@@ -10,7 +11,11 @@ import java.util.Map;
 public class URLResponse<T> {
     private URL url;
     private int status;
-    private Map<String, List<String>> headers;
+    private volatile Map<String, List<String>> headers;
+    /**
+     * Source of the lazy headers, cleared after {@link #headers} is set so a null read publishes them.
+     */
+    private volatile HttpURLConnection connection;
     private String message;
     private T body;
 
@@ -20,6 +25,18 @@ public class URLResponse<T> {
         return new URLResponse<>();
     }
 
+    /**
+     * Response created outside a connection, e.g. by an {@link Interceptor}.
+     */
+    public static <T> URLResponse<T> of(URL url, int status, String message, Map<String, List<String>> headers, T body) {
+        return new URLResponse<T>()
+                .url(url)
+                .status(status)
+                .message(message)
+                .headers(headers)
+                .body(body);
+    }
+
     URLResponse<T> url(URL url) {
         this.url = url;
         return this;
@@ -35,6 +52,14 @@ public class URLResponse<T> {
         return this;
     }
 
+    /**
+     * Headers are read from the connection when first asked.
+     */
+    URLResponse<T> headers(HttpURLConnection connection) {
+        this.connection = connection;
+        return this;
+    }
+
     URLResponse<T> message(String message) {
         this.message = message;
         return this;
@@ -54,9 +79,38 @@ public class URLResponse<T> {
     }
 
     public Map<String, List<String>> getHeaders() {
+        if (connection != null) {
+            synchronized (this) {
+                HttpURLConnection connection = this.connection;
+                if (connection != null) {
+                    headers = connection.getHeaderFields();
+                    this.connection = null;
+                }
+            }
+        }
         return headers;
     }
 
+    /**
+     * Last value of the header, case-insensitive, without building the header map.
+     */
+    public String getHeader(String name) {
+        if (connection != null) {
+            synchronized (this) {
+                HttpURLConnection connection = this.connection;
+                if (connection != null) return connection.getHeaderField(name);
+            }
+        }
+        Map<String, List<String>> headers = this.headers;
+        if (headers == null) return null;
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (!name.equalsIgnoreCase(entry.getKey())) continue;
+            List<String> values = entry.getValue();
+            return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+        }
+        return null;
+    }
+
     public String getMessage() {
         return message;
     }
@@ -70,7 +124,7 @@ public class URLResponse<T> {
         return "URLResponse{" +
                 "url=" + url +
                 ", status=" + status +
-                ", headers=" + headers +
+                ", headers=" + getHeaders() +
                 ", message='" + message + '\'' +
                 ", body='" + body + '\'' +
                 '}';
@@ -0,0 +1,195 @@
+package pers.clare.urlrequest;
+
+import pers.clare.urlrequest.exception.URLRequestException;
+import pers.clare.urlrequest.exception.URLResponseException;
+
+import java.io.ByteArrayOutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+
+/**
+ * Deflate byte array uploads with the previous body of the same endpoint as preset dictionary,
+ * so repeated payloads cost little bandwidth.
+ * <p>
+ * A private protocol, the server must implement it. It is not a standard content coding, so the body is sent
+ * with the {@link #CODING} token and {@code X-} headers which no other server or proxy interprets.
+ * All ids are {@link #id(byte[])} of the last {@link #DICTIONARY_SIZE} bytes of a raw body:
+ * <ul>
+ * <li>Until the server accepted a dictionary, uploads are sent unencoded and only propose themselves with
+ * {@value #USE_AS_DICTIONARY}: id, so a server without support receives a plain body and ignores the header.</li>
+ * <li>A supporting server stores the proposed dictionary and echoes {@value #USE_AS_DICTIONARY}: id.</li>
+ * <li>Once echoed, the next upload is deflated with that dictionary, sent with Content-Encoding: {@value #CODING}
+ * and {@value #AVAILABLE_DICTIONARY}: id, and proposes itself again.</li>
+ * <li>A server which no longer has the dictionary answers 412, then the upload is resent unencoded.</li>
+ * </ul>
+ */
+@SuppressWarnings("unused")
+public class UploadDictionary {
+    public static final String USE_AS_DICTIONARY = "X-Use-As-Dictionary";
+
+    public static final String AVAILABLE_DICTIONARY = "X-Available-Dictionary";
+
+    /**
+     * Zlib deflate, with the preset dictionary of {@link #AVAILABLE_DICTIONARY} if sent.
+     */
+    public static final String CODING = "x-deflate-dictionary";
+
+    /**
+     * Deflate only looks back 32K.
+     */
+    public static final int DICTIONARY_SIZE = 32768;
+
+    private final Map<String, Dictionary> dictionaries = new ConcurrentHashMap<>();
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private int minSize = 1024;
+
+    public UploadDictionary level(int level) {
+        this.level = level;
+        return this;
+    }
+
+    /**
+     * Smaller bodies are sent as is.
+     */
+    public UploadDictionary minSize(int minSize) {
+        this.minSize = minSize;
+        return this;
+    }
+
+    /**
+     * Endpoints with an accepted dictionary.
+     */
+    public int size() {
+        return dictionaries.size();
+    }
+
+    public void clear() {
+        dictionaries.clear();
+    }
+
+    <T> URLResponse<T> execute(String method, URLRequest<T> request) {
+        byte[] body = request.bodyBytes;
+        if (body.length < minSize) return URLRequestUtil.doExecute(method, request);
+        String key = key(method, request);
+        Dictionary dictionary = dictionaries.get(key);
+        try {
+            return upload(method, request, key, body, dictionary);
+        } catch (URLResponseException e) {
+            if (dictionary == null || e.getResponse().getStatus() != HttpURLConnection.HTTP_PRECON_FAILED) throw e;
+            // the server lost the dictionary
+            dictionaries.remove(key, dictionary);
+            return upload(method, request, key, body, null);
+        }
+    }
+
+    private <T> URLResponse<T> upload(
+            String method
+            , URLRequest<T> request
+            , String key
+            , byte[] body
+            , Dictionary dictionary
+    ) {
+        Dictionary next = Dictionary.of(body);
+        URLRequest<T> copy = URLRequest.build(request, request.getHandler());
+        set(copy, USE_AS_DICTIONARY, next.id);
+        if (dictionary == null) {
+            // the server has not shown it can decode the coding yet
+            copy.writableHeaders().remove(AVAILABLE_DICTIONARY);
+        } else {
+            copy = copy.body(deflate(body, dictionary.bytes));
+            set(copy, HeaderNames.CONTENT_ENCODING, CODING);
+            set(copy, AVAILABLE_DICTIONARY, dictionary.id);
+        }
+        URLResponse<T> response = URLRequestUtil.doExecute(method, copy);
+        if (next.id.equals(header(response.getHeaders(), USE_AS_DICTIONARY))) {
+            dictionaries.put(key, next);
+        }
+        return response;
+    }
+
+    private byte[] deflate(byte[] body, byte[] dictionary) {
+        Deflater deflater = new Deflater(level);
+        try {
+            if (dictionary != null) deflater.setDictionary(dictionary);
+            deflater.setInput(body);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+            byte[] buffer = new byte[URLRequestUtil.CHUNK_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String key(String method, URLRequest<?> request) {
+        try {
+            return method.toUpperCase() + ' ' + URLRequestUtil.getEncodeURL(request.getUrl(), request.getParams(), request.getUriCharset());
+        } catch (MalformedURLException e) {
+            throw new URLRequestException(request.getUrl().toString(), e.getMessage(), request, e);
+        }
+    }
+
+    private static void set(URLRequest<?> request, String name, String value) {
+        List<String> values = new ArrayList<>(1);
+        values.add(value);
+        request.writableHeaders().put(name, values);
+    }
+
+    private static String header(Map<String, List<String>> headers, String name) {
+        if (headers == null) return null;
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (!name.equalsIgnoreCase(entry.getKey())) continue;
+            List<String> values = entry.getValue();
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+        return null;
+    }
+
+    /**
+     * The last {@link #DICTIONARY_SIZE} bytes of the body.
+     */
+    public static byte[] tail(byte[] body) {
+        if (body.length <= DICTIONARY_SIZE) return body;
+        return Arrays.copyOfRange(body, body.length - DICTIONARY_SIZE, body.length);
+    }
+
+    /**
+     * Dictionary id, SHA-256 as a structured field byte sequence.
+     */
+    public static String id(byte[] dictionary) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(dictionary);
+            return ':' + Base64.getEncoder().encodeToString(digest) + ':';
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Dictionary {
+        private final byte[] bytes;
+        private final String id;
+
+        private Dictionary(byte[] bytes, String id) {
+            this.bytes = bytes;
+            this.id = id;
+        }
+
+        private static Dictionary of(byte[] body) {
+            byte[] bytes = tail(body);
+            if (bytes == body) bytes = body.clone();
+            return new Dictionary(bytes, id(bytes));
+        }
+    }
+}
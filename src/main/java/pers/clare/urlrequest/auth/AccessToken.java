@@ -0,0 +1,49 @@
+package pers.clare.urlrequest.auth;
+
+/**
+ * Immutable credential with its Authorization header value.
+ */
+@SuppressWarnings("unused")
+public class AccessToken {
+    private final String value;
+    private final String authorization;
+    private final long expiresAt;
+
+    /**
+     * @param type      e.g. Bearer
+     * @param expiresAt epoch millis, 0 if it never expires
+     */
+    public AccessToken(String type, String value, long expiresAt) {
+        this.value = value;
+        this.authorization = type + ' ' + value;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @param expiresIn millis from now, e.g. expires_in * 1000 of an OAuth2 token response
+     */
+    public static AccessToken bearer(String value, long expiresIn) {
+        return new AccessToken("Bearer", value, System.currentTimeMillis() + expiresIn);
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public String getAuthorization() {
+        return authorization;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public boolean isExpired() {
+        return expiresAt > 0 && System.currentTimeMillis() >= expiresAt;
+    }
+
+    @Override
+    public String toString() {
+        return "AccessToken{expiresAt=" + expiresAt + '}';
+    }
+}
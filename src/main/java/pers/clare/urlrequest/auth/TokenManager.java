@@ -0,0 +1,181 @@
+package pers.clare.urlrequest.auth;
+
+import pers.clare.urlrequest.HeaderNames;
+import pers.clare.urlrequest.Interceptor;
+import pers.clare.urlrequest.URLRequest;
+import pers.clare.urlrequest.URLResponse;
+import pers.clare.urlrequest.exception.URLResponseException;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Interceptor attaching a cached token as Authorization header.
+ * <ul>
+ * <li>Tokens are refreshed in background before they expire.</li>
+ * <li>Concurrent renewals share one {@link TokenSource#fetch()}.</li>
+ * <li>A 401 renews the token and replays the request once, the already serialized body is sent again.
+ * Streaming bodies which are not {@link pers.clare.urlrequest.body.RequestBody#isRepeatable()} are not replayed.</li>
+ * </ul>
+ */
+@SuppressWarnings("unused")
+public class TokenManager implements Interceptor {
+    private static volatile ScheduledExecutorService defaultScheduler;
+
+    private final TokenSource source;
+    private final AtomicReference<CompletableFuture<AccessToken>> renewing = new AtomicReference<>();
+    private volatile AccessToken token;
+    private long refreshBefore = 60000;
+    private long minRefreshDelay = 1000;
+    private boolean backgroundRefresh = true;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> refresh;
+
+    public TokenManager(TokenSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Millis before expiry to refresh in background.
+     */
+    public TokenManager refreshBefore(long refreshBefore) {
+        this.refreshBefore = refreshBefore;
+        return this;
+    }
+
+    /**
+     * Min millis between background refreshes, default 1000. A token living less than {@link #refreshBefore(long)}
+     * is refreshed after half its lifetime instead, so it never refreshes in a loop.
+     */
+    public TokenManager minRefreshDelay(long minRefreshDelay) {
+        this.minRefreshDelay = minRefreshDelay;
+        return this;
+    }
+
+    public TokenManager backgroundRefresh(boolean backgroundRefresh) {
+        this.backgroundRefresh = backgroundRefresh;
+        return this;
+    }
+
+    /**
+     * Scheduler of background refresh, default a shared daemon thread.
+     */
+    public TokenManager scheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    @Override
+    public URLResponse<?> intercept(Chain chain) {
+        URLRequest<?> request = chain.request();
+        AccessToken token = token();
+        try {
+            return chain.proceed(authorize(request, token));
+        } catch (URLResponseException e) {
+            if (e.getResponse().getStatus() != HttpURLConnection.HTTP_UNAUTHORIZED || !request.isRepeatable()) throw e;
+            return chain.proceed(authorize(request, renew(token)));
+        }
+    }
+
+    /**
+     * The cached token, renewed if missing or expired.
+     */
+    public AccessToken token() {
+        AccessToken token = this.token;
+        if (token != null && !token.isExpired()) return token;
+        return renew(token);
+    }
+
+    /**
+     * Renew unless another thread already replaced the stale token.
+     *
+     * @param stale the rejected token, null to renew anyway
+     */
+    public AccessToken renew(AccessToken stale) {
+        AccessToken current = this.token;
+        if (current != null && current != stale && !current.isExpired()) return current;
+        CompletableFuture<AccessToken> future = new CompletableFuture<>();
+        CompletableFuture<AccessToken> running = renewing.compareAndExchange(null, future);
+        if (running != null) return join(running);
+        try {
+            // may have been renewed between the check and the exchange
+            current = this.token;
+            if (current != null && current != stale && !current.isExpired()) {
+                future.complete(current);
+                return current;
+            }
+            AccessToken token = source.fetch();
+            this.token = token;
+            future.complete(token);
+            schedule(token);
+            return token;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw failure(e);
+        } finally {
+            renewing.set(null);
+        }
+    }
+
+    /**
+     * Drop the cached token and the scheduled refresh.
+     */
+    public synchronized void clear() {
+        token = null;
+        if (refresh != null) refresh.cancel(false);
+        refresh = null;
+    }
+
+    private synchronized void schedule(AccessToken token) {
+        if (!backgroundRefresh || token.getExpiresAt() <= 0) return;
+        if (refresh != null) refresh.cancel(false);
+        long lifetime = token.getExpiresAt() - System.currentTimeMillis();
+        long delay = Math.max(Math.max(lifetime - refreshBefore, lifetime / 2), minRefreshDelay);
+        refresh = scheduler().schedule(() -> {
+            try {
+                renew(token);
+            } catch (RuntimeException ignored) {
+                // the next request renews it
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private ScheduledExecutorService scheduler() {
+        if (scheduler != null) return scheduler;
+        if (defaultScheduler == null) {
+            synchronized (TokenManager.class) {
+                if (defaultScheduler == null) {
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, (runnable) -> {
+                        Thread thread = new Thread(runnable, "token-refresh");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.setRemoveOnCancelPolicy(true);
+                    defaultScheduler = executor;
+                }
+            }
+        }
+        return defaultScheduler;
+    }
+
+    private static URLRequest<?> authorize(URLRequest<?> request, AccessToken token) {
+        return request.copy().header(HeaderNames.AUTHORIZATION, token.getAuthorization());
+    }
+
+    private static AccessToken join(CompletableFuture<AccessToken> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("token renewal interrupted", e);
+        } catch (ExecutionException e) {
+            throw failure(e.getCause());
+        }
+    }
+
+    private static RuntimeException failure(Throwable e) {
+        if (e instanceof RuntimeException) return (RuntimeException) e;
+        return new IllegalStateException("token renewal failed: " + e.getMessage(), e);
+    }
+}
@@ -0,0 +1,10 @@
+package pers.clare.urlrequest.auth;
+
+/**
+ * Fetches a new token, e.g. from an OAuth2 token endpoint.
+ */
+@FunctionalInterface
+public interface TokenSource {
+
+    AccessToken fetch() throws Exception;
+}
@@ -0,0 +1,193 @@
+package pers.clare.urlrequest.body;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * multipart/form-data body, parts are streamed and never buffered in memory.
+ */
+@SuppressWarnings("unused")
+public class MultipartBody implements RequestBody {
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DASH = "--".getBytes(StandardCharsets.US_ASCII);
+    private static final String OCTET_STREAM = "application/octet-stream";
+    private static final char[] BOUNDARY_CHARS = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String boundary;
+    private final byte[] boundaryBytes;
+    private final List<Part> parts = new ArrayList<>();
+    private boolean repeatable = true;
+
+    public MultipartBody() {
+        this(generateBoundary());
+    }
+
+    public MultipartBody(String boundary) {
+        this.boundary = boundary;
+        this.boundaryBytes = boundary.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public MultipartBody part(String name, String value) {
+        return part(name, value, StandardCharsets.UTF_8);
+    }
+
+    public MultipartBody part(String name, String value, Charset charset) {
+        byte[] bytes = value.getBytes(charset);
+        parts.add(new Part(header(name, null, null), bytes.length, (os) -> os.write(bytes)));
+        return this;
+    }
+
+    public MultipartBody part(String name, byte[] bytes, String filename, String contentType) {
+        parts.add(new Part(header(name, filename, contentType), bytes.length, (os) -> os.write(bytes)));
+        return this;
+    }
+
+    /**
+     * Stream part with unknown length, forces chunked mode. The stream is read once and closed.
+     */
+    public MultipartBody part(String name, InputStream in, String filename, String contentType) {
+        return part(name, in, -1, filename, contentType);
+    }
+
+    /**
+     * Stream part, the stream is read once and closed.
+     *
+     * @param length -1 if unknown
+     */
+    public MultipartBody part(String name, InputStream in, long length, String filename, String contentType) {
+        repeatable = false;
+        parts.add(new Part(header(name, filename, contentType), length, (os) -> {
+            try (InputStream is = in) {
+                transfer(is, os);
+            }
+        }));
+        return this;
+    }
+
+    public MultipartBody part(String name, File file) {
+        return part(name, file, null);
+    }
+
+    public MultipartBody part(String name, File file, String contentType) {
+        parts.add(new Part(header(name, file.getName(), contentType), file.length(), (os) -> {
+            try (InputStream is = new FileInputStream(file)) {
+                transfer(is, os);
+            }
+        }));
+        return this;
+    }
+
+    public String getBoundary() {
+        return boundary;
+    }
+
+    @Override
+    public long contentLength() {
+        long length = 0;
+        for (Part part : parts) {
+            if (part.length < 0) return -1;
+            length += DASH.length + boundaryBytes.length + CRLF.length
+                      + part.header.length + part.length + CRLF.length;
+        }
+        return length + DASH.length + boundaryBytes.length + DASH.length + CRLF.length;
+    }
+
+    @Override
+    public String contentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    /**
+     * False once a stream part is added.
+     */
+    @Override
+    public boolean isRepeatable() {
+        return repeatable;
+    }
+
+    @Override
+    public void writeTo(OutputStream os) throws IOException {
+        for (Part part : parts) {
+            os.write(DASH);
+            os.write(boundaryBytes);
+            os.write(CRLF);
+            os.write(part.header);
+            part.writer.write(os);
+            os.write(CRLF);
+        }
+        os.write(DASH);
+        os.write(boundaryBytes);
+        os.write(DASH);
+        os.write(CRLF);
+    }
+
+    private static byte[] header(String name, String filename, String contentType) {
+        StringBuilder sb = new StringBuilder("Content-Disposition: form-data; name=\"")
+                .append(escape(name))
+                .append('"');
+        if (filename != null) {
+            sb.append("; filename=\"")
+                    .append(escape(filename))
+                    .append('"');
+            if (contentType == null) {
+                contentType = OCTET_STREAM;
+            }
+        }
+        sb.append("\r\n");
+        if (contentType != null) {
+            sb.append("Content-Type: ")
+                    .append(contentType)
+                    .append("\r\n");
+        }
+        sb.append("\r\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Escape quoted-string like browsers do.
+     */
+    private static String escape(String value) {
+        return value.replace("\"", "%22")
+                .replace("\r", "%0D")
+                .replace("\n", "%0A");
+    }
+
+    private static void transfer(InputStream in, OutputStream os) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            os.write(buffer, 0, length);
+        }
+    }
+
+    private static String generateBoundary() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] chars = new char[32];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = BOUNDARY_CHARS[random.nextInt(BOUNDARY_CHARS.length)];
+        }
+        return "----URLRequest" + new String(chars);
+    }
+
+    @FunctionalInterface
+    private interface PartWriter {
+        void write(OutputStream os) throws IOException;
+    }
+
+    private static class Part {
+        private final byte[] header;
+        private final long length;
+        private final PartWriter writer;
+
+        private Part(byte[] header, long length, PartWriter writer) {
+            this.header = header;
+            this.length = length;
+            this.writer = writer;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package pers.clare.urlrequest.body;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flow.Publisher backed body, buffers are requested only as fast as they are written.
+ * A publisher which stalls longer than the read timeout, or sends more than requested, fails the request.
+ */
+@SuppressWarnings("unused")
+public class PublisherBody implements RequestBody {
+    public static final int DEFAULT_PREFETCH = 4;
+
+    private static final Object COMPLETE = new Object();
+
+    private final Flow.Publisher<ByteBuffer> publisher;
+    private final long contentLength;
+    private final String contentType;
+    private final int prefetch;
+
+    /**
+     * @param contentLength -1 if unknown
+     */
+    public PublisherBody(Flow.Publisher<ByteBuffer> publisher, long contentLength) {
+        this(publisher, contentLength, null, DEFAULT_PREFETCH);
+    }
+
+    /**
+     * @param contentLength -1 if unknown
+     * @param prefetch      max buffers held in memory
+     */
+    public PublisherBody(Flow.Publisher<ByteBuffer> publisher, long contentLength, String contentType, int prefetch) {
+        this.publisher = publisher;
+        this.contentLength = contentLength;
+        this.contentType = contentType;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public String contentType() {
+        return contentType;
+    }
+
+    @Override
+    public void writeTo(OutputStream os) throws IOException {
+        writeTo(os, 0);
+    }
+
+    @Override
+    public void writeTo(OutputStream os, int timeout) throws IOException {
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(prefetch + 1);
+        WriteSubscriber subscriber = new WriteSubscriber(queue);
+        publisher.subscribe(subscriber);
+        byte[] copy = null;
+        try {
+            while (true) {
+                if (subscriber.failure != null) {
+                    throw new IOException("request body publisher failed", subscriber.failure);
+                }
+                Object item = timeout > 0 ? queue.poll(timeout, TimeUnit.MILLISECONDS) : queue.take();
+                if (item == null) throw new SocketTimeoutException("request body publisher stalled " + timeout + "ms");
+                if (item == COMPLETE) return;
+                if (item instanceof Throwable) {
+                    throw new IOException("request body publisher failed", (Throwable) item);
+                }
+                ByteBuffer buffer = (ByteBuffer) item;
+                if (buffer.hasArray()) {
+                    os.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                } else {
+                    if (copy == null) copy = new byte[8192];
+                    while (buffer.hasRemaining()) {
+                        int length = Math.min(copy.length, buffer.remaining());
+                        buffer.get(copy, 0, length);
+                        os.write(copy, 0, length);
+                    }
+                }
+                subscriber.request();
+            }
+        } catch (InterruptedException e) {
+            subscriber.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("request body write interrupted");
+        } catch (IOException | RuntimeException e) {
+            subscriber.cancel();
+            throw e;
+        }
+    }
+
+    private class WriteSubscriber implements Flow.Subscriber<ByteBuffer> {
+        private final BlockingQueue<Object> queue;
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable failure;
+
+        private WriteSubscriber(BlockingQueue<Object> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(prefetch);
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            // demand never exceeds the queue capacity, more is a broken publisher
+            if (!queue.offer(item) && failure == null) {
+                failure = new IllegalStateException("publisher sent more buffers than requested");
+                cancel();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            queue.offer(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            queue.offer(COMPLETE);
+        }
+
+        private void request() {
+            subscription.request(1);
+        }
+
+        private void cancel() {
+            Flow.Subscription s = subscription;
+            if (s != null) s.cancel();
+        }
+    }
+}
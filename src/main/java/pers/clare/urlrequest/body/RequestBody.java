@@ -0,0 +1,38 @@
+package pers.clare.urlrequest.body;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streaming request body.
+ */
+public interface RequestBody {
+
+    /**
+     * Body length in bytes, -1 if unknown and the body is sent in chunked mode.
+     */
+    long contentLength();
+
+    /**
+     * Content-Type header value, null to keep the request header.
+     */
+    String contentType();
+
+    void writeTo(OutputStream os) throws IOException;
+
+    /**
+     * Write with the read timeout of the connection, a body waiting on a producer must not wait longer for a chunk.
+     *
+     * @param timeout millis, 0 means no timeout
+     */
+    default void writeTo(OutputStream os, int timeout) throws IOException {
+        writeTo(os);
+    }
+
+    /**
+     * True if {@link #writeTo(OutputStream)} can be called again, e.g. to replay the request.
+     */
+    default boolean isRepeatable() {
+        return false;
+    }
+}
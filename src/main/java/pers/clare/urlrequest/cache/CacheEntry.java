@@ -0,0 +1,40 @@
+package pers.clare.urlrequest.cache;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stored response, the body may be a mapped region of the data file.
+ */
+class CacheEntry {
+    final String key;
+    final long expiresAt;
+    final int status;
+    final String message;
+    final String charset;
+    final Map<String, List<String>> headers;
+    final ByteBuffer body;
+
+    CacheEntry(
+            String key
+            , long expiresAt
+            , int status
+            , String message
+            , String charset
+            , Map<String, List<String>> headers
+            , ByteBuffer body
+    ) {
+        this.key = key;
+        this.expiresAt = expiresAt;
+        this.status = status;
+        this.message = message;
+        this.charset = charset;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    boolean isExpired(long now) {
+        return expiresAt <= now;
+    }
+}
@@ -0,0 +1,428 @@
+package pers.clare.urlrequest.cache;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only record file with a memory-mapped open addressing hash index.
+ * <p>
+ * Files of a directory: {@code index} names the live generation, {@code data.<generation>} holds the records.
+ * A record is forced to disk before its index slot is published, and every record carries a CRC32,
+ * so a crash loses at most the latest writes. Compaction copies the most recently used live records
+ * into the next generation and switches by atomically renaming the index.
+ * <p>
+ * A thread interrupted during channel IO closes the channel for every thread, it is reopened unless retired.
+ */
+class CacheStore implements Closeable {
+    private static final int INDEX_MAGIC = 0x55524349;
+    private static final int RECORD_MAGIC = 0x55524352;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 32;
+    private static final int RECORD_PREFIX = 16;
+    private static final double LOAD_FACTOR = 0.75;
+    private static final String INDEX = "index";
+    private static final String INDEX_TEMP = "index.tmp";
+    private static final String DATA = "data.";
+
+    private final Path dir;
+    private final long maxSize;
+    private final int mapThreshold;
+    private volatile Generation generation;
+
+    /**
+     * @param maxSize      max bytes of the data file, compacted to 3/4 when exceeded
+     * @param capacity     initial index slots
+     * @param mapThreshold bodies of at least this size are mapped instead of copied to heap
+     */
+    CacheStore(Path dir, long maxSize, int capacity, int mapThreshold) throws IOException {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.mapThreshold = mapThreshold;
+        Files.createDirectories(dir);
+        Generation generation = load();
+        if (generation == null) {
+            generation = create(0, capacity(capacity));
+            publish(generation);
+        }
+        this.generation = generation;
+        cleanup(generation.id);
+    }
+
+    /**
+     * Null if missing, expired or corrupted.
+     */
+    CacheEntry get(String key, long now) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(keyBytes);
+        Generation generation = this.generation;
+        int mask = generation.capacity - 1;
+        for (int i = 0; i < generation.capacity; i++) {
+            int base = HEADER_SIZE + (int) ((hash + i) & mask) * SLOT_SIZE;
+            long slotHash = generation.index.getLong(base);
+            if (slotHash == 0) return null;
+            if (slotHash != hash) continue;
+            CacheEntry entry;
+            try {
+                entry = read(generation, generation.index.getLong(base + 8), generation.index.getInt(base + 16), key);
+            } catch (IOException e) {
+                return null;
+            }
+            if (entry == null || entry.isExpired(now)) return null;
+            generation.index.putLong(base + 24, now);
+            return entry;
+        }
+        return null;
+    }
+
+    synchronized void put(
+            String key
+            , long expiresAt
+            , int status
+            , String message
+            , String charset
+            , Map<String, List<String>> headers
+            , byte[] body
+    ) throws IOException {
+        ByteArrayOutputStream fields = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(fields);
+        out.writeLong(expiresAt);
+        out.writeInt(status);
+        out.writeUTF(key);
+        out.writeUTF(message == null ? "" : message);
+        out.writeUTF(charset == null ? "" : charset);
+        int count = 0;
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null) count++;
+        }
+        out.writeInt(count);
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) continue;
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (String value : entry.getValue()) {
+                out.writeUTF(value);
+            }
+        }
+        out.flush();
+        int headerLength = RECORD_PREFIX + fields.size();
+        ByteBuffer header = ByteBuffer.allocate(headerLength)
+                .putInt(RECORD_MAGIC)
+                .putInt(headerLength)
+                .putLong(body.length)
+                .put(fields.toByteArray());
+        header.flip();
+        CRC32 crc = new CRC32();
+        crc.update(header.duplicate());
+        crc.update(body);
+        ByteBuffer checksum = ByteBuffer.allocate(4).putInt((int) crc.getValue());
+        checksum.flip();
+        long length = headerLength + (long) body.length + 4;
+        if (length > maxSize / 2) return;
+
+        Generation generation = this.generation;
+        if (generation.end + length > maxSize || generation.count + 1 > generation.capacity * LOAD_FACTOR) {
+            generation = compact(generation, length);
+        }
+        long offset = generation.end;
+        io(generation, (channel) -> {
+            write(channel, header.duplicate(), offset);
+            write(channel, ByteBuffer.wrap(body), offset + headerLength);
+            write(channel, checksum.duplicate(), offset + headerLength + body.length);
+            // the slot must never point to a record which is not on disk
+            channel.force(false);
+            return null;
+        });
+        generation.end = offset + length;
+        insert(generation, hash(key.getBytes(StandardCharsets.UTF_8)), offset, (int) length, System.currentTimeMillis());
+    }
+
+    /**
+     * Live slots.
+     */
+    int count() {
+        return generation.count;
+    }
+
+    /**
+     * Data file bytes, including replaced and expired records.
+     */
+    long size() {
+        return generation.end;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        Generation generation = this.generation;
+        generation.index.force();
+        retire(generation);
+    }
+
+    private CacheEntry read(Generation generation, long offset, int length, String key) throws IOException {
+        if (offset < 0 || length < RECORD_PREFIX + 4 || offset + length > generation.end) return null;
+        ByteBuffer prefix = io(generation, (channel) -> read(channel, ByteBuffer.allocate(RECORD_PREFIX), offset));
+        if (prefix.getInt(0) != RECORD_MAGIC) return null;
+        int headerLength = prefix.getInt(4);
+        long bodyLength = prefix.getLong(8);
+        if (headerLength < RECORD_PREFIX || headerLength + bodyLength + 4 != length) return null;
+        ByteBuffer header = io(generation, (channel) -> read(channel, ByteBuffer.allocate(headerLength), offset));
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(header.duplicate().position(RECORD_PREFIX)));
+        long expiresAt = in.readLong();
+        int status = in.readInt();
+        if (!key.equals(in.readUTF())) return null;
+        String message = in.readUTF();
+        String charset = in.readUTF();
+        int count = in.readInt();
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            int size = in.readInt();
+            List<String> values = new ArrayList<>(size);
+            for (int j = 0; j < size; j++) {
+                values.add(in.readUTF());
+            }
+            headers.put(name, Collections.unmodifiableList(values));
+        }
+        long bodyOffset = offset + headerLength;
+        ByteBuffer body = io(generation, (channel) -> bodyLength >= mapThreshold
+                ? channel.map(FileChannel.MapMode.READ_ONLY, bodyOffset, bodyLength)
+                : read(channel, ByteBuffer.allocate((int) bodyLength), bodyOffset));
+        ByteBuffer checksum = io(generation, (channel) -> read(channel, ByteBuffer.allocate(4), bodyOffset + bodyLength));
+        CRC32 crc = new CRC32();
+        crc.update(header.duplicate());
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != checksum.getInt(0)) return null;
+        return new CacheEntry(key, expiresAt, status, message, charset.isEmpty() ? null : charset
+                , Collections.unmodifiableMap(headers), body.asReadOnlyBuffer());
+    }
+
+    /**
+     * Keep the most recently used live records within 3/4 of the max size.
+     */
+    private Generation compact(Generation generation, long incoming) throws IOException {
+        long now = System.currentTimeMillis();
+        List<long[]> live = new ArrayList<>(generation.count);
+        for (int slot = 0; slot < generation.capacity; slot++) {
+            int base = HEADER_SIZE + slot * SLOT_SIZE;
+            long hash = generation.index.getLong(base);
+            if (hash == 0) continue;
+            long offset = generation.index.getLong(base + 8);
+            int length = generation.index.getInt(base + 16);
+            if (offset < 0 || offset + length > generation.end) continue;
+            long expiresAt = io(generation, (channel) -> read(channel, ByteBuffer.allocate(8), offset + RECORD_PREFIX).getLong(0));
+            if (expiresAt <= now) continue;
+            live.add(new long[]{hash, offset, length, generation.index.getLong(base + 24)});
+        }
+        live.sort((a, b) -> Long.compare(b[3], a[3]));
+        long target = Math.max(0, maxSize * 3 / 4 - incoming);
+        List<long[]> kept = new ArrayList<>(live.size());
+        long total = 0;
+        for (long[] entry : live) {
+            if (total + entry[2] > target) break;
+            total += entry[2];
+            kept.add(entry);
+        }
+        int capacity = generation.capacity;
+        while (kept.size() + 1 > capacity * LOAD_FACTOR) {
+            capacity <<= 1;
+        }
+        Generation next = create(generation.id + 1, capacity);
+        for (long[] entry : kept) {
+            long offset = next.end;
+            io(generation, (channel) -> {
+                for (long n = 0; n < entry[2]; ) {
+                    n += channel.transferTo(entry[1] + n, entry[2] - n, next.data);
+                }
+                return null;
+            });
+            next.end = offset + entry[2];
+            insert(next, entry[0], offset, (int) entry[2], entry[3]);
+        }
+        publish(next);
+        this.generation = next;
+        // readers still holding the old generation see a closed channel and miss
+        retire(generation);
+        Files.deleteIfExists(dir.resolve(DATA + generation.id));
+        return next;
+    }
+
+    private void insert(Generation generation, long hash, long offset, int length, long access) {
+        int mask = generation.capacity - 1;
+        for (int i = 0; i < generation.capacity; i++) {
+            int base = HEADER_SIZE + (int) ((hash + i) & mask) * SLOT_SIZE;
+            long slotHash = generation.index.getLong(base);
+            if (slotHash != 0 && slotHash != hash) continue;
+            generation.index.putLong(base + 8, offset);
+            generation.index.putInt(base + 16, length);
+            generation.index.putLong(base + 24, access);
+            if (slotHash == 0) {
+                // publish the hash last
+                generation.index.putLong(base, hash);
+                generation.count++;
+                generation.index.putInt(20, generation.count);
+            }
+            return;
+        }
+        throw new IllegalStateException("cache index is full");
+    }
+
+    private Generation load() throws IOException {
+        Path path = dir.resolve(INDEX);
+        if (!Files.exists(path) || Files.size(path) < HEADER_SIZE) return null;
+        FileChannel indexChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer header = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        int capacity = header.getInt(16);
+        long id = header.getLong(8);
+        Path data = dir.resolve(DATA + id);
+        if (header.getInt(0) != INDEX_MAGIC
+            || header.getInt(4) != VERSION
+            || capacity <= 0
+            || Integer.bitCount(capacity) != 1
+            || indexChannel.size() != HEADER_SIZE + (long) capacity * SLOT_SIZE
+            || !Files.exists(data)) {
+            indexChannel.close();
+            return null;
+        }
+        MappedByteBuffer index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+        FileChannel dataChannel = FileChannel.open(data, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Generation generation = new Generation(id, dataChannel, indexChannel, index, capacity);
+        // a torn tail after the last published record is never referenced
+        generation.end = dataChannel.size();
+        generation.count = index.getInt(20);
+        return generation;
+    }
+
+    /**
+     * Empty generation, its index is written to a temp file until published.
+     */
+    private Generation create(long id, int capacity) throws IOException {
+        FileChannel data = FileChannel.open(dir.resolve(DATA + id)
+                , StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel indexChannel = FileChannel.open(dir.resolve(INDEX_TEMP)
+                , StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        index.putInt(0, INDEX_MAGIC);
+        index.putInt(4, VERSION);
+        index.putLong(8, id);
+        index.putInt(16, capacity);
+        index.putInt(20, 0);
+        return new Generation(id, data, indexChannel, index, capacity);
+    }
+
+    private void publish(Generation generation) throws IOException {
+        generation.data.force(true);
+        generation.index.force();
+        Files.move(dir.resolve(INDEX_TEMP), dir.resolve(INDEX), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void cleanup(long id) throws IOException {
+        Files.deleteIfExists(dir.resolve(INDEX_TEMP));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, DATA + "*")) {
+            for (Path file : files) {
+                if (!file.getFileName().toString().equals(DATA + id)) Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Run the channel operation, again on a reopened channel if another thread's interrupt closed it.
+     * The operation must be repeatable.
+     */
+    private <R> R io(Generation generation, ChannelIO<R> io) throws IOException {
+        while (true) {
+            FileChannel channel = generation.data;
+            try {
+                return io.apply(channel);
+            } catch (ClosedChannelException e) {
+                reopen(generation, channel);
+                // the interrupted thread would close it again
+                if (Thread.currentThread().isInterrupted()) throw e;
+            }
+        }
+    }
+
+    private void reopen(Generation generation, FileChannel closed) throws IOException {
+        synchronized (generation) {
+            if (generation.retired) throw new ClosedChannelException();
+            if (generation.data == closed && !closed.isOpen()) {
+                generation.data = FileChannel.open(dir.resolve(DATA + generation.id), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+        }
+    }
+
+    private static void retire(Generation generation) throws IOException {
+        synchronized (generation) {
+            generation.retired = true;
+            generation.data.close();
+        }
+        generation.indexChannel.close();
+    }
+
+    private static ByteBuffer read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) throw new EOFException();
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static int capacity(int capacity) {
+        int n = 1024;
+        while (n < capacity) n <<= 1;
+        return n;
+    }
+
+    /**
+     * FNV-1a, never 0 which marks an empty slot.
+     */
+    private static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    @FunctionalInterface
+    private interface ChannelIO<R> {
+        R apply(FileChannel channel) throws IOException;
+    }
+
+    private static class Generation {
+        private final long id;
+        private volatile FileChannel data;
+        private volatile boolean retired;
+        private final FileChannel indexChannel;
+        private final MappedByteBuffer index;
+        private final int capacity;
+        private volatile long end;
+        private int count;
+
+        private Generation(long id, FileChannel data, FileChannel indexChannel, MappedByteBuffer index, int capacity) {
+            this.id = id;
+            this.data = data;
+            this.indexChannel = indexChannel;
+            this.index = index;
+            this.capacity = capacity;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package pers.clare.urlrequest.cache;
+
+import pers.clare.urlrequest.Charsets;
+import pers.clare.urlrequest.HeaderNames;
+import pers.clare.urlrequest.Interceptor;
+import pers.clare.urlrequest.URLRequest;
+import pers.clare.urlrequest.URLRequestMethod;
+import pers.clare.urlrequest.URLRequestUtil;
+import pers.clare.urlrequest.URLResponse;
+import pers.clare.urlrequest.exception.URLRequestException;
+import pers.clare.urlrequest.handler.ResponseHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Persistent cache of GET 200 responses, which survives restarts.
+ * <p>
+ * Freshness comes from Cache-Control max-age, otherwise {@link #ttl(long)}. Responses with no-store, private,
+ * no-cache or Vary: * are never cached, nor requests with credentials which are not key headers.
+ * Large cached bodies are handed to the response handler as a mapped region of the data file, not copied to heap.
+ */
+@SuppressWarnings("unused")
+public class DiskCache implements Interceptor, Closeable {
+    private static final ResponseHandler<Body> bodyHandler = (in, charset) -> new Body(URLRequestUtil.toBytesHandler.apply(in, charset), charset);
+
+    private final Set<String> keyHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private final CacheStore store;
+    private long ttl;
+    private int maxEntrySize = 16 * 1024 * 1024;
+
+    /**
+     * @param maxSize    max bytes on disk
+     * @param keyHeaders headers that make requests different, e.g. Authorization
+     */
+    public DiskCache(Path dir, long maxSize, String... keyHeaders) {
+        try {
+            this.store = new CacheStore(dir, maxSize, 1024, 16384);
+        } catch (IOException e) {
+            throw new IllegalStateException("open cache " + dir + " failed: " + e.getMessage(), e);
+        }
+        this.keyHeaders.addAll(List.of(keyHeaders));
+    }
+
+    /**
+     * Freshness of responses without max-age, default 0 caches only those with max-age.
+     */
+    public DiskCache ttl(long ttl) {
+        this.ttl = ttl;
+        return this;
+    }
+
+    public DiskCache maxEntrySize(int maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+        return this;
+    }
+
+    /**
+     * Cached responses, including expired ones not yet compacted.
+     */
+    public int count() {
+        return store.count();
+    }
+
+    /**
+     * Bytes on disk.
+     */
+    public long size() {
+        return store.size();
+    }
+
+    @Override
+    public URLResponse<?> intercept(Chain chain) {
+        URLRequest<?> request = chain.request();
+        if (!URLRequestMethod.GET.equalsIgnoreCase(chain.method())
+            || hasNoStore(request.getHeaders())
+            || hasCredentials(request)) {
+            return chain.proceed(request);
+        }
+        String key = key(request);
+        CacheEntry entry = store.get(key, System.currentTimeMillis());
+        if (entry != null) return hit(request, entry);
+        @SuppressWarnings("unchecked")
+        URLResponse<Body> response = (URLResponse<Body>) chain.proceed(URLRequest.build(request, bodyHandler));
+        Body body = response.getBody();
+        long expiresAt = expiresAt(response);
+        if (expiresAt > 0 && body.bytes.length <= maxEntrySize) {
+            try {
+                store.put(key, expiresAt, response.getStatus(), response.getMessage()
+                        , body.charset == null ? null : body.charset.name(), withoutCookies(response.getHeaders()), body.bytes);
+            } catch (IOException ignored) {
+                // caching is best effort
+            }
+        }
+        return apply(request, response.getUrl(), response.getStatus(), response.getMessage(), response.getHeaders()
+                , new ByteArrayInputStream(body.bytes), body.charset);
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+
+    private static <T> URLResponse<T> hit(URLRequest<T> request, CacheEntry entry) {
+        Charset charset = Charsets.forName(entry.charset, request.getCharset());
+        URL url;
+        try {
+            url = URLRequestUtil.getEncodeURL(request.getUrl(), request.getParams(), request.getUriCharset());
+        } catch (MalformedURLException e) {
+            url = request.getUrl();
+        }
+        return apply(request, url, entry.status, entry.message, entry.headers, new ByteBufferInputStream(entry.body), charset);
+    }
+
+    private static <T> URLResponse<T> apply(
+            URLRequest<T> request
+            , URL url
+            , int status
+            , String message
+            , Map<String, List<String>> headers
+            , InputStream in
+            , Charset charset
+    ) {
+        try {
+            return URLResponse.of(url, status, message, headers, request.getHandler().apply(in, charset));
+        } catch (IOException e) {
+            throw new URLRequestException(request.getUrl().toString(), e.getMessage(), request, e);
+        }
+    }
+
+    /**
+     * 0 if not cacheable.
+     */
+    private long expiresAt(URLResponse<?> response) {
+        if (response.getStatus() != HttpURLConnection.HTTP_OK) return 0;
+        List<String> vary = header(response.getHeaders(), HeaderNames.VARY);
+        if (vary != null) {
+            for (String value : vary) {
+                for (String name : value.split(",")) {
+                    name = name.trim();
+                    // only variants the key tells apart can be cached
+                    if (name.equals("*") || (!name.isEmpty() && !keyHeaders.contains(name))) return 0;
+                }
+            }
+        }
+        long ttl = this.ttl;
+        List<String> values = header(response.getHeaders(), HeaderNames.CACHE_CONTROL);
+        if (values != null) {
+            for (String value : values) {
+                for (String directive : value.split(",")) {
+                    directive = directive.trim().toLowerCase(Locale.ROOT);
+                    if (directive.equals("no-store")
+                        || directive.startsWith("private")
+                        || directive.startsWith("no-cache")) return 0;
+                    if (directive.startsWith("max-age=")) {
+                        try {
+                            ttl = Long.parseLong(directive.substring(8)) * 1000;
+                        } catch (NumberFormatException ignored) {
+                        }
+                    }
+                }
+            }
+        }
+        return ttl > 0 ? System.currentTimeMillis() + ttl : 0;
+    }
+
+    private static boolean hasNoStore(Map<String, List<String>> headers) {
+        List<String> values = headers.get(HeaderNames.CACHE_CONTROL);
+        if (values == null) return false;
+        for (String value : values) {
+            if (value.toLowerCase(Locale.ROOT).contains("no-store")) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Responses to credentials the key can not tell apart must not be served to another caller.
+     */
+    private boolean hasCredentials(URLRequest<?> request) {
+        Map<String, List<String>> headers = request.getHeaders();
+        if (headers.containsKey(HeaderNames.AUTHORIZATION) && !keyHeaders.contains(HeaderNames.AUTHORIZATION)) return true;
+        if (headers.containsKey(HeaderNames.COOKIE) && !keyHeaders.contains(HeaderNames.COOKIE)) return true;
+        // cookies of a cookie manager are added on the connection, never part of the key
+        return request.getCookieManager() != null;
+    }
+
+    private static Map<String, List<String>> withoutCookies(Map<String, List<String>> headers) {
+        Map<String, List<String>> copy = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (entry.getKey() == null
+                || HeaderNames.SET_COOKIE.equalsIgnoreCase(entry.getKey())
+                || HeaderNames.SET_COOKIE2.equalsIgnoreCase(entry.getKey())) continue;
+            copy.put(entry.getKey(), entry.getValue());
+        }
+        return copy;
+    }
+
+    private String key(URLRequest<?> request) {
+        StringBuilder sb = new StringBuilder("GET ");
+        try {
+            sb.append(URLRequestUtil.getEncodeURL(request.getUrl(), request.getParams(), request.getUriCharset()));
+        } catch (MalformedURLException e) {
+            throw new URLRequestException(request.getUrl().toString(), e.getMessage(), request, e);
+        }
+        for (String name : keyHeaders) {
+            List<String> values = request.getHeaders().get(name);
+            if (values == null) continue;
+            sb.append('\n').append(name.toLowerCase()).append(':').append(values);
+        }
+        return sb.toString();
+    }
+
+    private static List<String> header(Map<String, List<String>> headers, String name) {
+        if (headers == null) return null;
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey())) return entry.getValue();
+        }
+        return null;
+    }
+
+    private static class Body {
+        private final byte[] bytes;
+        private final Charset charset;
+
+        private Body(byte[] bytes, Charset charset) {
+            this.bytes = bytes;
+            this.charset = charset;
+        }
+    }
+}
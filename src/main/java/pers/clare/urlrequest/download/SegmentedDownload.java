@@ -0,0 +1,372 @@
+package pers.clare.urlrequest.download;
+
+import pers.clare.urlrequest.HeaderNames;
+import pers.clare.urlrequest.URLRequest;
+import pers.clare.urlrequest.URLRequestUtil;
+import pers.clare.urlrequest.URLResponse;
+import pers.clare.urlrequest.exception.URLRequestException;
+import pers.clare.urlrequest.exception.URLResponseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Download into a file over parallel range requests.
+ * <p>
+ * A HEAD request probes Accept-Ranges, Content-Length and the ETag or Last-Modified validator.
+ * Ranges are written with positional writes into a preallocated {@code <target>.part} file,
+ * progress is checkpointed to {@code <target>.part.checkpoint} so a failed download resumes
+ * when run again, as long as the validator is unchanged.
+ * Servers without range support are downloaded over one connection.
+ */
+@SuppressWarnings("unused")
+public class SegmentedDownload {
+    private static final int BUFFER_SIZE = 65536;
+
+    private final URLRequest<?> request;
+    private final Path target;
+    private final Path part;
+    private final Path checkpoint;
+    private int segments = 4;
+    private long minSegmentSize = 1024 * 1024;
+    private long checkpointInterval = 4 * 1024 * 1024;
+    private int retries = 2;
+    private ExecutorService executor;
+
+    private final AtomicLong unsaved = new AtomicLong();
+    private volatile boolean aborted;
+    private volatile boolean changed;
+
+    public SegmentedDownload(URLRequest<?> request, Path target) {
+        this.request = request.copy();
+        this.target = target;
+        this.part = target.resolveSibling(target.getFileName() + ".part");
+        this.checkpoint = target.resolveSibling(target.getFileName() + ".part.checkpoint");
+    }
+
+    /**
+     * Parallel connections.
+     */
+    public SegmentedDownload segments(int segments) {
+        this.segments = segments;
+        return this;
+    }
+
+    /**
+     * Smaller files use fewer segments.
+     */
+    public SegmentedDownload minSegmentSize(long minSegmentSize) {
+        this.minSegmentSize = minSegmentSize;
+        return this;
+    }
+
+    /**
+     * Bytes written between checkpoints.
+     */
+    public SegmentedDownload checkpointInterval(long checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+        return this;
+    }
+
+    /**
+     * Retries of a failed range, continuing where it stopped.
+     */
+    public SegmentedDownload retries(int retries) {
+        this.retries = retries;
+        return this;
+    }
+
+    /**
+     * Executor of range requests, default a pool of {@link #segments(int)} threads.
+     */
+    public SegmentedDownload executor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * @return the downloaded file
+     */
+    public Path run() {
+        aborted = false;
+        changed = false;
+        try {
+            Probe probe = probe();
+            if (!probe.ranges || probe.length <= 0) {
+                single();
+            } else {
+                segmented(probe);
+            }
+            move();
+            Files.deleteIfExists(checkpoint);
+            return target;
+        } catch (IOException e) {
+            throw new URLRequestException(request.getUrl().toString(), e.getMessage(), request, e);
+        }
+    }
+
+    private Probe probe() {
+        URLResponse<byte[]> response;
+        try {
+            response = URLRequest.build(request, URLRequestUtil.toBytesHandler).head();
+        } catch (URLResponseException e) {
+            // HEAD not allowed
+            return new Probe(-1, false, null);
+        }
+        Map<String, List<String>> headers = response.getHeaders();
+        String length = header(headers, HeaderNames.CONTENT_LENGTH);
+        String validator = header(headers, HeaderNames.ETAG);
+        // weak validators can not be used with If-Range
+        if (validator == null || validator.startsWith("W/")) validator = header(headers, HeaderNames.LAST_MODIFIED);
+        return new Probe(length == null ? -1 : Long.parseLong(length.trim())
+                , "bytes".equalsIgnoreCase(header(headers, HeaderNames.ACCEPT_RANGES))
+                , validator);
+    }
+
+    private void single() throws IOException {
+        Files.deleteIfExists(checkpoint);
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Segment segment = new Segment(0, Long.MAX_VALUE - 1, 0);
+            URLRequest.build(request, (in, charset) -> write(in, channel, segment, null, null)).get();
+            channel.force(true);
+        }
+    }
+
+    private void segmented(Probe probe) throws IOException {
+        List<Segment> list = resume(probe);
+        if (list == null) {
+            list = split(probe.length);
+            Files.deleteIfExists(part);
+        }
+        List<Segment> segments = list;
+        Throwable failure = null;
+        try (RandomAccessFile file = new RandomAccessFile(part.toFile(), "rw")) {
+            file.setLength(probe.length);
+            FileChannel channel = file.getChannel();
+            save(channel, probe, segments);
+            ExecutorService pool = executor == null ? newExecutor(segments.size()) : executor;
+            List<Future<?>> futures = new ArrayList<>(segments.size());
+            for (Segment segment : segments) {
+                if (segment.isDone()) continue;
+                futures.add(pool.submit(() -> {
+                    fetch(channel, probe, segments, segment);
+                    return null;
+                }));
+            }
+            try {
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        if (failure == null) failure = e.getCause();
+                    }
+                }
+            } catch (InterruptedException e) {
+                aborted = true;
+                Thread.currentThread().interrupt();
+                failure = e;
+            } finally {
+                if (executor == null) pool.shutdownNow();
+            }
+            if (!changed) save(channel, probe, segments);
+        }
+        if (changed) {
+            // deleted once closed
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(checkpoint);
+        }
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure != null) throw new IOException(failure.getMessage(), failure);
+    }
+
+    private void fetch(FileChannel channel, Probe probe, List<Segment> segments, Segment segment) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                URLRequest<Long> range = URLRequest.build(request, (in, charset) -> write(in, channel, segment, probe, segments))
+                        .header(HeaderNames.RANGE, "bytes=" + segment.position + "-" + segment.end);
+                if (probe.validator != null) range.header(HeaderNames.IF_RANGE, probe.validator);
+                URLResponse<Long> response = range.get();
+                if (response.getStatus() != HttpURLConnection.HTTP_PARTIAL) {
+                    // a full body was written over the range, the part file is useless
+                    changed = true;
+                    aborted = true;
+                    throw new ResourceChangedException(request.getUrl() + " changed or ignores ranges, status " + response.getStatus());
+                }
+                if (!segment.isDone()) throw new IOException("range ended at " + segment.position + " of " + segment.end);
+                checkpoint(channel, probe, segments);
+                return;
+            } catch (ResourceChangedException e) {
+                throw e;
+            } catch (RuntimeException | IOException e) {
+                if (aborted || attempt >= retries) throw e;
+            }
+        }
+    }
+
+    /**
+     * Write the range at the segment position, checkpointing every {@link #checkpointInterval(long)}
+     * so a failure inside a long segment resumes near where it stopped. Without segments nothing is saved.
+     */
+    private long write(InputStream in, FileChannel channel, Segment segment, Probe probe, List<Segment> segments) throws IOException {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long total = 0;
+        int n;
+        while (segment.remaining() > 0
+               && (n = in.read(bytes, 0, (int) Math.min(bytes.length, segment.remaining()))) != -1) {
+            if (aborted) throw new IOException("download aborted");
+            buffer.clear().limit(n);
+            long position = segment.position;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            segment.position = position;
+            total += n;
+            if (segments != null && unsaved.addAndGet(n) >= checkpointInterval) {
+                checkpoint(channel, probe, segments);
+            }
+        }
+        return total;
+    }
+
+    private void checkpoint(FileChannel channel, Probe probe, List<Segment> segments) throws IOException {
+        if (unsaved.get() < checkpointInterval) return;
+        synchronized (this) {
+            // another segment may have saved meanwhile
+            if (unsaved.get() < checkpointInterval) return;
+            save(channel, probe, segments);
+        }
+    }
+
+    /**
+     * Checkpoint format: length, validator, then one "start end position" line per segment.
+     */
+    private synchronized void save(FileChannel channel, Probe probe, List<Segment> segments) throws IOException {
+        unsaved.set(0);
+        // positions advance after their bytes are written, so a snapshot taken before the force is all on disk
+        long[] positions = new long[segments.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = segments.get(i).position;
+        }
+        // the checkpoint must never claim bytes which are not on disk
+        channel.force(false);
+        StringBuilder sb = new StringBuilder()
+                .append(probe.length).append('\n')
+                .append(probe.validator).append('\n');
+        for (int i = 0; i < positions.length; i++) {
+            Segment segment = segments.get(i);
+            sb.append(segment.start).append(' ').append(segment.end).append(' ').append(positions[i]).append('\n');
+        }
+        Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.write(temp, sb.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private List<Segment> resume(Probe probe) throws IOException {
+        if (probe.validator == null || !Files.exists(checkpoint) || !Files.exists(part)) return null;
+        List<String> lines = Files.readAllLines(checkpoint, StandardCharsets.UTF_8);
+        if (lines.size() < 3
+            || !String.valueOf(probe.length).equals(lines.get(0))
+            || !probe.validator.equals(lines.get(1))
+            || Files.size(part) != probe.length) return null;
+        List<Segment> segments = new ArrayList<>(lines.size() - 2);
+        for (int i = 2; i < lines.size(); i++) {
+            String[] values = lines.get(i).split(" ");
+            if (values.length != 3) return null;
+            segments.add(new Segment(Long.parseLong(values[0]), Long.parseLong(values[1]), Long.parseLong(values[2])));
+        }
+        return segments;
+    }
+
+    private List<Segment> split(long length) {
+        int count = (int) Math.max(1, Math.min(segments, length / Math.max(1, minSegmentSize)));
+        long size = (length + count - 1) / count;
+        List<Segment> list = new ArrayList<>(count);
+        for (long start = 0; start < length; start += size) {
+            list.add(new Segment(start, Math.min(length, start + size) - 1, start));
+        }
+        return list;
+    }
+
+    private void move() throws IOException {
+        try {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        return Executors.newFixedThreadPool(threads, (runnable) -> {
+            Thread thread = new Thread(runnable, "segmented-download");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static String header(Map<String, List<String>> headers, String name) {
+        if (headers == null) return null;
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (!name.equalsIgnoreCase(entry.getKey())) continue;
+            List<String> values = entry.getValue();
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+        return null;
+    }
+
+    private static class Probe {
+        private final long length;
+        private final boolean ranges;
+        private final String validator;
+
+        private Probe(long length, boolean ranges, String validator) {
+            this.length = length;
+            this.ranges = ranges;
+            this.validator = validator;
+        }
+    }
+
+    private static class Segment {
+        private final long start;
+        /**
+         * Inclusive.
+         */
+        private final long end;
+        private volatile long position;
+
+        private Segment(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+
+        private long remaining() {
+            return end + 1 - position;
+        }
+
+        private boolean isDone() {
+            return position > end;
+        }
+    }
+
+    private static class ResourceChangedException extends IOException {
+        private ResourceChangedException(String message) {
+            super(message);
+        }
+    }
+}
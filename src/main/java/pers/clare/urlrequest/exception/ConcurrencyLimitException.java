@@ -0,0 +1,21 @@
+package pers.clare.urlrequest.exception;
+
+
+import pers.clare.urlrequest.URLRequest;
+
+/**
+ * Rejected without being sent, the host is at its concurrency limit.
+ */
+@SuppressWarnings("unused")
+public class ConcurrencyLimitException extends URLRequestException {
+    private final int limit;
+
+    public ConcurrencyLimitException(String url, int limit, URLRequest<?> request) {
+        super(url, "concurrency limit " + limit + " exceeded", request, null);
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,17 @@
+package pers.clare.urlrequest.exception;
+
+import java.io.IOException;
+
+@SuppressWarnings("unused")
+public class ResponseBodyTooLargeException extends IOException {
+    private final long maxSize;
+
+    public ResponseBodyTooLargeException(long maxSize) {
+        super("response body exceeds max size " + maxSize);
+        this.maxSize = maxSize;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+}
@@ -6,13 +6,27 @@ import pers.clare.urlrequest.URLRequest;
 @SuppressWarnings("unused")
 public class URLRequestException extends RuntimeException {
     private final URLRequest<?> request;
+    private final boolean responded;
 
     public URLRequestException(String url, String message, URLRequest<?> request, Throwable cause) {
+        this(url, message, request, cause, false);
+    }
+
+    public URLRequestException(String url, String message, URLRequest<?> request, Throwable cause, boolean responded) {
         super(url + " " + message, cause);
         this.request = request;
+        this.responded = responded;
     }
 
     public URLRequest<?> getRequest() {
         return request;
     }
+
+    /**
+     * The failure came after the status line, e.g. while the handler read the body, so the server
+     * processed the request and the handler may have seen part of the response.
+     */
+    public boolean isResponded() {
+        return responded;
+    }
 }
@@ -0,0 +1,132 @@
+package pers.clare.urlrequest.http2;
+
+import pers.clare.urlrequest.URLConnectionFactory;
+import pers.clare.urlrequest.URLRequestUtil;
+import pers.clare.urlrequest.tls.TLSConfig;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP/2 connections, many requests are multiplexed over a few shared connections per host.
+ * h2 is negotiated with ALPN, plaintext uses the h2c upgrade, and both fall back to HTTP/1.1
+ * when the server does not support HTTP/2.
+ * Request bodies are buffered before they are sent.
+ * The read timeout of a request bounds the wait for the response headers, reads of the body are not timed.
+ */
+@SuppressWarnings("unused")
+public class Http2ConnectionFactory implements URLConnectionFactory {
+    public static final int DEFAULT_MAX_CONCURRENT_STREAMS = 100;
+
+    public static final int DEFAULT_CONNECTIONS = 1;
+
+    private final Map<String, Semaphore> streams = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private int maxConcurrentStreams = DEFAULT_MAX_CONCURRENT_STREAMS;
+    private int connections = DEFAULT_CONNECTIONS;
+    private int connectTimeout = URLRequestUtil.CONNECTION_TIMEOUT;
+    private HttpClient.Version version = HttpClient.Version.HTTP_2;
+    private Executor executor;
+    private SSLContext sslContext;
+    private volatile HttpClient[] clients;
+
+    /**
+     * Max in-flight streams per connection, excess requests wait up to the connect timeout.
+     */
+    public Http2ConnectionFactory maxConcurrentStreams(int maxConcurrentStreams) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        return this;
+    }
+
+    /**
+     * Connections per host.
+     */
+    public Http2ConnectionFactory connections(int connections) {
+        this.connections = connections;
+        return this;
+    }
+
+    public Http2ConnectionFactory connectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * Use {@link HttpClient.Version#HTTP_1_1} to disable HTTP/2.
+     */
+    public Http2ConnectionFactory version(HttpClient.Version version) {
+        this.version = version;
+        return this;
+    }
+
+    public Http2ConnectionFactory executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public Http2ConnectionFactory sslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+        return this;
+    }
+
+    /**
+     * Use the shared context of the TLS config, per host trust material and
+     * {@link TLSConfig#applicationProtocols(String...)} do not apply, ALPN follows {@link #version(HttpClient.Version)}.
+     */
+    public Http2ConnectionFactory tls(TLSConfig tls) {
+        return sslContext(tls.getSSLContext());
+    }
+
+    @Override
+    public HttpURLConnection open(URL url, Proxy proxy) throws IOException {
+        if (proxy != null && proxy.type() != Proxy.Type.DIRECT) {
+            return URLRequestUtil.DEFAULT_CONNECTION_FACTORY.open(url, proxy);
+        }
+        return new Http2URLConnection(url, this);
+    }
+
+    /**
+     * Pick one of the shared clients round robin.
+     */
+    HttpClient client() {
+        HttpClient[] clients = this.clients;
+        if (clients == null) {
+            synchronized (this) {
+                clients = this.clients;
+                if (clients == null) {
+                    clients = new HttpClient[Math.max(1, connections)];
+                    for (int i = 0; i < clients.length; i++) {
+                        HttpClient.Builder builder = HttpClient.newBuilder()
+                                .version(version)
+                                .followRedirects(HttpClient.Redirect.NEVER)
+                                .connectTimeout(Duration.ofMillis(connectTimeout));
+                        if (executor != null) builder.executor(executor);
+                        if (sslContext != null) builder.sslContext(sslContext);
+                        clients[i] = builder.build();
+                    }
+                    this.clients = clients;
+                }
+            }
+        }
+        return clients[Math.floorMod(next.getAndIncrement(), clients.length)];
+    }
+
+    Semaphore streams(URL url) {
+        return streams.computeIfAbsent(url.getProtocol() + "://" + url.getAuthority()
+                , (key) -> new Semaphore(Math.max(1, maxConcurrentStreams) * Math.max(1, connections)));
+    }
+
+    int getConnectTimeout() {
+        return connectTimeout;
+    }
+}
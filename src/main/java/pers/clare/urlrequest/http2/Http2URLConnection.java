@@ -0,0 +1,166 @@
+package pers.clare.urlrequest.http2;
+
+import pers.clare.urlrequest.AdapterURLConnection;
+import pers.clare.urlrequest.HeaderNames;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HttpURLConnection view of one java.net.http exchange.
+ */
+class Http2URLConnection extends AdapterURLConnection<HttpResponse<InputStream>> {
+    /**
+     * Headers java.net.http sets itself and rejects.
+     */
+    private static final Set<String> restrictedHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        restrictedHeaders.add(HeaderNames.CONNECTION);
+        restrictedHeaders.add(HeaderNames.CONTENT_LENGTH);
+        restrictedHeaders.add(HeaderNames.DATE);
+        restrictedHeaders.add(HeaderNames.EXPECT);
+        restrictedHeaders.add(HeaderNames.FROM);
+        restrictedHeaders.add(HeaderNames.HOST);
+        restrictedHeaders.add(HeaderNames.UPGRADE);
+        restrictedHeaders.add(HeaderNames.VIA);
+        restrictedHeaders.add(HeaderNames.WARNING);
+    }
+
+    private final Http2ConnectionFactory factory;
+    private Semaphore streams;
+
+    Http2URLConnection(URL url, Http2ConnectionFactory factory) {
+        super(url);
+        this.factory = factory;
+    }
+
+    @Override
+    public void disconnect() {
+        InputStream body = body();
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    protected void exchange() throws IOException {
+        streams = factory.streams(url);
+        try {
+            if (!streams.tryAcquire(factory.getConnectTimeout(), TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException("no available stream " + url.getAuthority());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+        boolean released = false;
+        try {
+            HttpResponse<InputStream> response = sendFollowingRedirects();
+            this.url = response.uri().toURL();
+            respond(response.statusCode(), "", response.headers().map(), new StreamInputStream(response.body()));
+            released = true;
+        } finally {
+            if (!released) streams.release();
+        }
+    }
+
+    @Override
+    protected HttpResponse<InputStream> send(URL url, String method, byte[] bytes) throws IOException {
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(toURI(url))
+                    .method(method, bytes == null || bytes.length == 0
+                            ? HttpRequest.BodyPublishers.noBody()
+                            : HttpRequest.BodyPublishers.ofByteArray(bytes));
+            if (getReadTimeout() > 0) {
+                // bounds the wait for the response headers only, body reads are not timed
+                builder.timeout(Duration.ofMillis(getReadTimeout()));
+            }
+            for (Map.Entry<String, List<String>> entry : requestHeaders.entrySet()) {
+                if (entry.getKey() == null || restrictedHeaders.contains(entry.getKey())) continue;
+                for (String value : entry.getValue()) {
+                    // throws for a name or value java.net.http rejects
+                    builder.header(entry.getKey(), value);
+                }
+            }
+            return factory.client().send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected int status(HttpResponse<InputStream> response) {
+        return response.statusCode();
+    }
+
+    @Override
+    protected String location(HttpResponse<InputStream> response) {
+        return response.headers().firstValue(HeaderNames.LOCATION).orElse(null);
+    }
+
+    @Override
+    protected void discard(HttpResponse<InputStream> response) throws IOException {
+        response.body().close();
+    }
+
+    private static URI toURI(URL url) throws IOException {
+        try {
+            return url.toURI();
+        } catch (URISyntaxException e) {
+            throw new MalformedURLException(e.getMessage());
+        }
+    }
+
+    /**
+     * Releases the stream permit once the body is consumed or closed.
+     */
+    private class StreamInputStream extends FilterInputStream {
+        private boolean released;
+
+        private StreamInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) release();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1) release();
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                release();
+            }
+        }
+
+        private synchronized void release() {
+            if (released) return;
+            released = true;
+            streams.release();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package pers.clare.urlrequest.keepalive;
+
+import pers.clare.urlrequest.Interceptor;
+import pers.clare.urlrequest.URLRequest;
+import pers.clare.urlrequest.URLRequestMethod;
+import pers.clare.urlrequest.URLRequestUtil;
+import pers.clare.urlrequest.URLResponse;
+import pers.clare.urlrequest.exception.URLRequestException;
+import pers.clare.urlrequest.exception.URLResponseException;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.net.ConnectException;
+import java.net.MalformedURLException;
+import java.net.NoRouteToHostException;
+import java.net.PortUnreachableException;
+import java.net.SocketException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Interceptor hiding failures of keep-alive connections the server closed while they were idle.
+ * <ul>
+ * <li>An idempotent request which fails with a connection reset, broken pipe or early end of stream on a host
+ * with pooled connections is replayed, each failed attempt discards one stale connection. Only failures before
+ * the status line are, see {@link URLRequestException#isResponded()}.</li>
+ * <li>A non-idempotent request after {@link #maxIdle(long)} of quiet first sends a cheap probe with the same
+ * replay budget, so it only reuses a connection that was just proven alive.</li>
+ * <li>{@link #validateIdle(long)} probes idle hosts in background, which also keeps their connections alive.</li>
+ * </ul>
+ * HttpURLConnection gives no access to its keep-alive cache, the probes go through it like any request.
+ * Streaming bodies which are not {@link pers.clare.urlrequest.body.RequestBody#isRepeatable()} are not replayed.
+ */
+@SuppressWarnings("unused")
+public class KeepAliveGuard implements Interceptor, Closeable {
+    private static volatile ScheduledExecutorService defaultScheduler;
+
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+    private final LongAdder replays = new LongAdder();
+    private final LongAdder probes = new LongAdder();
+    private int maxReplays = 3;
+    private long maxIdle = 4000;
+    private long keepAlive = 300000;
+    private String probeMethod = URLRequestMethod.HEAD;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> validator;
+
+    /**
+     * Replays of one request, default 3, at least the idle connections a host may have to clear them all.
+     */
+    public KeepAliveGuard maxReplays(int maxReplays) {
+        this.maxReplays = maxReplays;
+        return this;
+    }
+
+    /**
+     * Millis of quiet after which pooled connections are suspected stale, set it below the server
+     * keep-alive timeout, 0 disables probing before non-idempotent requests.
+     */
+    public KeepAliveGuard maxIdle(long maxIdle) {
+        this.maxIdle = maxIdle;
+        return this;
+    }
+
+    /**
+     * Millis since the last request after which a host is no longer validated and forgotten.
+     */
+    public KeepAliveGuard keepAlive(long keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    /**
+     * Method of probe requests sent to the bare request URL, default HEAD.
+     */
+    public KeepAliveGuard probeMethod(String probeMethod) {
+        this.probeMethod = probeMethod;
+        return this;
+    }
+
+    /**
+     * Scheduler of background validation, default a shared daemon thread.
+     */
+    public KeepAliveGuard scheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    /**
+     * Probe every host idle for the period, until it has no request for {@link #keepAlive(long)}.
+     */
+    public synchronized KeepAliveGuard validateIdle(long period) {
+        if (validator != null) validator.cancel(false);
+        validator = scheduler().scheduleWithFixedDelay(() -> validate(period), period, period, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * Stop background validation.
+     */
+    @Override
+    public synchronized void close() {
+        if (validator != null) validator.cancel(false);
+        validator = null;
+    }
+
+    public long getReplays() {
+        return replays.sum();
+    }
+
+    public long getProbes() {
+        return probes.sum();
+    }
+
+    @Override
+    public URLResponse<?> intercept(Chain chain) {
+        URLRequest<?> request = chain.request();
+        String method = chain.method() == null ? URLRequestMethod.GET : chain.method();
+        Host host = hosts.computeIfAbsent(key(request.getUrl()), (key) -> new Host(probeOf(request)));
+        long now = System.currentTimeMillis();
+        host.lastRequest = now;
+        boolean idempotent = isIdempotent(method);
+        if (!idempotent && maxIdle > 0 && host.lastActivity > 0 && now - host.lastActivity >= maxIdle) {
+            probe(host);
+        }
+        boolean replayable = idempotent && request.isRepeatable();
+        for (int attempt = 0; ; attempt++) {
+            // only a host used before can have pooled connections
+            boolean pooled = host.lastActivity > 0;
+            try {
+                URLResponse<?> response = chain.proceed(request);
+                host.lastActivity = System.currentTimeMillis();
+                return response;
+            } catch (URLResponseException e) {
+                // a response arrived, the connection was alive
+                host.lastActivity = System.currentTimeMillis();
+                throw e;
+            } catch (URLRequestException e) {
+                // a failure after the status line was processed, the handler may have consumed part of the body
+                if (e.isResponded() || !replayable || !pooled || attempt >= maxReplays || !isStale(e)) throw e;
+                replays.increment();
+            }
+        }
+    }
+
+    /**
+     * Send probes until one gets a response, failures on stale connections discard them.
+     */
+    private void probe(Host host) {
+        URLRequest<?> probe = host.probe;
+        for (int attempt = 0; attempt <= maxReplays; attempt++) {
+            probes.increment();
+            try {
+                probe.go(probeMethod);
+            } catch (URLResponseException e) {
+                // any status proves the connection
+            } catch (URLRequestException e) {
+                if (isStale(e)) continue;
+                return;
+            }
+            host.lastActivity = System.currentTimeMillis();
+            return;
+        }
+    }
+
+    private void validate(long period) {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Host>> iterator = hosts.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Host host = iterator.next().getValue();
+            if (now - host.lastRequest > keepAlive) {
+                iterator.remove();
+            } else if (host.lastActivity > 0 && now - host.lastActivity >= period) {
+                try {
+                    probe(host);
+                } catch (RuntimeException ignored) {
+                    // validation is best effort
+                }
+            }
+        }
+    }
+
+    /**
+     * Bare URL of the request without query, params, headers or body, only the settings choosing the connection.
+     * Without interceptors, the probe must not be logged, limited or guarded again.
+     */
+    private static URLRequest<Void> probeOf(URLRequest<?> request) {
+        URL url = request.getUrl();
+        URL bare;
+        try {
+            bare = new URL(url.getProtocol(), url.getHost(), url.getPort(), url.getPath().isEmpty() ? "/" : url.getPath());
+        } catch (MalformedURLException e) {
+            bare = url;
+        }
+        return URLRequest.build(bare, URLRequestUtil.discardHandler)
+                .timeout(request.getTimeout())
+                .readTimeout(request.getReadTimeout())
+                .proxy(request.getProxy())
+                .proxySelector(request.getProxySelector())
+                .connectionFactory(request.getConnectionFactory())
+                .tls(request.getTls())
+                .freeze();
+    }
+
+    private ScheduledExecutorService scheduler() {
+        if (scheduler != null) return scheduler;
+        if (defaultScheduler == null) {
+            synchronized (KeepAliveGuard.class) {
+                if (defaultScheduler == null) {
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, (runnable) -> {
+                        Thread thread = new Thread(runnable, "keep-alive-validator");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.setRemoveOnCancelPolicy(true);
+                    defaultScheduler = executor;
+                }
+            }
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * Failures of an established connection closed by the peer, connect failures and timeouts are not.
+     */
+    static boolean isStale(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException
+                || cause instanceof NoRouteToHostException
+                || cause instanceof PortUnreachableException
+                || cause instanceof UnknownHostException) return false;
+            if (cause instanceof SocketException || cause instanceof EOFException) return true;
+            String message = cause.getMessage();
+            if (message != null
+                && (message.contains("Unexpected end of file")
+                    || message.contains("Connection reset")
+                    || message.contains("Broken pipe"))) return true;
+        }
+        return false;
+    }
+
+    private static boolean isIdempotent(String method) {
+        switch (method.toUpperCase()) {
+            case URLRequestMethod.GET:
+            case URLRequestMethod.HEAD:
+            case URLRequestMethod.PUT:
+            case URLRequestMethod.DELETE:
+            case URLRequestMethod.OPTIONS:
+            case "TRACE":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static String key(URL url) {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return url.getHost().toLowerCase() + ':' + port;
+    }
+
+    private static class Host {
+        /**
+         * Probe of the first request URL, sharing its connections.
+         */
+        private final URLRequest<Void> probe;
+        /**
+         * Millis of the last exchange which got a response, probes included.
+         */
+        private volatile long lastActivity;
+        private volatile long lastRequest;
+
+        private Host(URLRequest<Void> probe) {
+            this.probe = probe;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package pers.clare.urlrequest.limit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Additive increase, multiplicative decrease.
+ * The limit grows by one per success while it is being used, and shrinks by {@link #backoffRatio(double)} on a drop
+ * or a request slower than {@link #timeout(long)}.
+ */
+@SuppressWarnings("unused")
+public class AimdLimit implements Limit {
+    private volatile int limit = 20;
+    private int minLimit = 1;
+    private int maxLimit = 200;
+    private double backoffRatio = 0.9;
+    private long timeoutNanos = TimeUnit.SECONDS.toNanos(5);
+
+    public AimdLimit initialLimit(int initialLimit) {
+        this.limit = initialLimit;
+        return this;
+    }
+
+    public AimdLimit minLimit(int minLimit) {
+        this.minLimit = minLimit;
+        return this;
+    }
+
+    public AimdLimit maxLimit(int maxLimit) {
+        this.maxLimit = maxLimit;
+        return this;
+    }
+
+    public AimdLimit backoffRatio(double backoffRatio) {
+        this.backoffRatio = backoffRatio;
+        return this;
+    }
+
+    /**
+     * Millis after which a successful request still counts as a drop.
+     */
+    public AimdLimit timeout(long timeout) {
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        return this;
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public void onSample(long rttNanos, int inflight, boolean dropped) {
+        int limit = this.limit;
+        if (dropped || rttNanos > timeoutNanos) {
+            limit = (int) (limit * backoffRatio);
+        } else if (inflight * 2 >= limit) {
+            // only grow a limit which is actually reached
+            limit++;
+        }
+        this.limit = Math.min(maxLimit, Math.max(minLimit, limit));
+    }
+}
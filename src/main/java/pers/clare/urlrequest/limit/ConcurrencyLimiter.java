@@ -0,0 +1,168 @@
+package pers.clare.urlrequest.limit;
+
+import pers.clare.urlrequest.Interceptor;
+import pers.clare.urlrequest.URLRequest;
+import pers.clare.urlrequest.URLResponse;
+import pers.clare.urlrequest.exception.ConcurrencyLimitException;
+import pers.clare.urlrequest.exception.ResponseBodyTooLargeException;
+import pers.clare.urlrequest.exception.URLRequestException;
+import pers.clare.urlrequest.exception.URLResponseException;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.net.http.HttpTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Interceptor limiting requests in flight per host, the limit follows the measured RTT and errors.
+ * Requests over the limit wait in a bounded queue, or are rejected at once with {@link ConcurrencyLimitException}
+ * so callers can shed load instead of piling up on a slow backend.
+ * <p>
+ * Timeouts, connection failures, 429 and 503 count as drops, other error statuses are normal samples.
+ * Failures which say nothing about the backend, e.g. a handler or interceptor bug, are not sampled.
+ */
+@SuppressWarnings("unused")
+public class ConcurrencyLimiter implements Interceptor {
+    private final Map<String, HostLimit> hosts = new ConcurrentHashMap<>();
+    private final Supplier<Limit> limitFactory;
+    private int maxQueue = 0;
+    private long maxWait = 1000;
+
+    public ConcurrencyLimiter() {
+        this(GradientLimit::new);
+    }
+
+    /**
+     * @param limitFactory creates the limit of each host
+     */
+    public ConcurrencyLimiter(Supplier<Limit> limitFactory) {
+        this.limitFactory = limitFactory;
+    }
+
+    /**
+     * Requests allowed to wait per host when the limit is reached, default 0 rejects at once.
+     */
+    public ConcurrencyLimiter maxQueue(int maxQueue) {
+        this.maxQueue = maxQueue;
+        return this;
+    }
+
+    /**
+     * Millis a queued request waits before it is rejected.
+     */
+    public ConcurrencyLimiter maxWait(long maxWait) {
+        this.maxWait = maxWait;
+        return this;
+    }
+
+    public int getLimit(URL url) {
+        HostLimit host = hosts.get(key(url));
+        return host == null ? limitFactory.get().getLimit() : host.limit.getLimit();
+    }
+
+    public int getInflight(URL url) {
+        HostLimit host = hosts.get(key(url));
+        return host == null ? 0 : host.inflight;
+    }
+
+    @Override
+    public URLResponse<?> intercept(Chain chain) {
+        URLRequest<?> request = chain.request();
+        HostLimit host = hosts.computeIfAbsent(key(request.getUrl()), (key) -> new HostLimit(limitFactory.get()));
+        int inflight;
+        try {
+            inflight = host.acquire(maxQueue, maxWait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new URLRequestException(request.getUrl().toString(), "interrupted while queued", request, e);
+        }
+        if (inflight < 0) {
+            throw new ConcurrencyLimitException(request.getUrl().toString(), host.limit.getLimit(), request);
+        }
+        long start = System.nanoTime();
+        boolean sampled = true;
+        boolean dropped = false;
+        try {
+            URLResponse<?> response = chain.proceed(request);
+            // URLRequest.status() returns error statuses instead of throwing
+            dropped = isOverload(response.getStatus());
+            return response;
+        } catch (URLResponseException e) {
+            dropped = isOverload(e.getResponse().getStatus());
+            throw e;
+        } catch (URLRequestException e) {
+            dropped = isDrop(e);
+            // a response arrived, the RTT is still valid
+            sampled = dropped || e.isResponded();
+            throw e;
+        } catch (RuntimeException | Error e) {
+            sampled = false;
+            throw e;
+        } finally {
+            host.release(System.nanoTime() - start, inflight, sampled, dropped);
+        }
+    }
+
+    private static boolean isOverload(int status) {
+        return status == 429 || status == 503;
+    }
+
+    /**
+     * Timeouts, and IO failures before the response such as a refused or reset connection.
+     */
+    private static boolean isDrop(URLRequestException e) {
+        if (e instanceof ConcurrencyLimitException) return false;
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException || cause instanceof HttpTimeoutException) return true;
+            if (cause instanceof UnknownHostException || cause instanceof ResponseBodyTooLargeException) return false;
+            if (cause instanceof IOException) return !e.isResponded();
+        }
+        return false;
+    }
+
+    private static String key(URL url) {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return url.getHost().toLowerCase() + ':' + port;
+    }
+
+    private static class HostLimit {
+        private final Limit limit;
+        private volatile int inflight;
+        private int waiting;
+
+        private HostLimit(Limit limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * @return in flight count including this request, -1 if rejected
+         */
+        private synchronized int acquire(int maxQueue, long maxWait) throws InterruptedException {
+            if (inflight < limit.getLimit()) return ++inflight;
+            if (waiting >= maxQueue || maxWait <= 0) return -1;
+            waiting++;
+            try {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+                while (inflight >= limit.getLimit()) {
+                    long remain = deadline - System.nanoTime();
+                    if (remain <= 0) return -1;
+                    TimeUnit.NANOSECONDS.timedWait(this, remain);
+                }
+                return ++inflight;
+            } finally {
+                waiting--;
+            }
+        }
+
+        private synchronized void release(long rttNanos, int inflight, boolean sampled, boolean dropped) {
+            this.inflight--;
+            if (sampled) limit.onSample(rttNanos, inflight, dropped);
+            if (waiting > 0) notifyAll();
+        }
+    }
+}
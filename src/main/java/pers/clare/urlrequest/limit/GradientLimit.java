@@ -0,0 +1,114 @@
+package pers.clare.urlrequest.limit;
+
+/**
+ * Latency gradient, compares each RTT with a long term average RTT.
+ * <ul>
+ * <li>RTT near the average, the limit grows by {@link #queueSize(int)} per sample.</li>
+ * <li>RTT above the average times {@link #tolerance(double)}, queueing has started and the limit shrinks
+ * proportionally, down to half per sample.</li>
+ * <li>Drops shrink the limit by {@link #backoffRatio(double)}.</li>
+ * </ul>
+ * RTT changes are smoothed, so a single slow request barely moves the limit.
+ */
+@SuppressWarnings("unused")
+public class GradientLimit implements Limit {
+    private static final int WARM_UP = 10;
+
+    private volatile int limit;
+    private double estimated = 20;
+    private int minLimit = 1;
+    private int maxLimit = 200;
+    private int queueSize = 4;
+    private double tolerance = 1.5;
+    private double smoothing = 0.2;
+    private double backoffRatio = 0.9;
+    private int window = 600;
+    private double longRtt;
+    private int samples;
+
+    public GradientLimit() {
+        this.limit = (int) estimated;
+    }
+
+    public GradientLimit initialLimit(int initialLimit) {
+        this.estimated = initialLimit;
+        this.limit = initialLimit;
+        return this;
+    }
+
+    public GradientLimit minLimit(int minLimit) {
+        this.minLimit = minLimit;
+        return this;
+    }
+
+    public GradientLimit maxLimit(int maxLimit) {
+        this.maxLimit = maxLimit;
+        return this;
+    }
+
+    /**
+     * Growth per sample when there is no queueing.
+     */
+    public GradientLimit queueSize(int queueSize) {
+        this.queueSize = queueSize;
+        return this;
+    }
+
+    /**
+     * RTT ratio over the average tolerated before shrinking.
+     */
+    public GradientLimit tolerance(double tolerance) {
+        this.tolerance = tolerance;
+        return this;
+    }
+
+    /**
+     * Weight of a new estimate, between 0 and 1.
+     */
+    public GradientLimit smoothing(double smoothing) {
+        this.smoothing = smoothing;
+        return this;
+    }
+
+    public GradientLimit backoffRatio(double backoffRatio) {
+        this.backoffRatio = backoffRatio;
+        return this;
+    }
+
+    /**
+     * Samples covered by the long term average RTT.
+     */
+    public GradientLimit window(int window) {
+        this.window = window;
+        return this;
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public void onSample(long rttNanos, int inflight, boolean dropped) {
+        double rtt = Math.max(1, rttNanos);
+        if (samples < WARM_UP) {
+            samples++;
+            longRtt += (rtt - longRtt) / samples;
+        } else {
+            longRtt += (rtt - longRtt) * 2 / (window + 1);
+        }
+        // recover quickly once the backend is fast again
+        if (longRtt / rtt > 2) longRtt *= 0.95;
+        double next;
+        if (dropped) {
+            next = estimated * backoffRatio;
+        } else {
+            // far below the limit, the RTT says nothing about it
+            if (inflight < estimated / 2) return;
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / rtt));
+            next = estimated * (1 - smoothing) + (estimated * gradient + queueSize) * smoothing;
+        }
+        estimated = Math.min(maxLimit, Math.max(minLimit, next));
+        limit = (int) estimated;
+    }
+}
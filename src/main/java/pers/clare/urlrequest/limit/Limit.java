@@ -0,0 +1,17 @@
+package pers.clare.urlrequest.limit;
+
+/**
+ * Concurrency limit of one host, adjusted from every completed request.
+ * Implementations are called under the host lock, no extra synchronization is needed.
+ */
+public interface Limit {
+
+    int getLimit();
+
+    /**
+     * @param rttNanos time from sending the request to the handled response
+     * @param inflight requests in flight when this one started, itself included
+     * @param dropped  the request failed in a way that signals overload, e.g. timeout, 429 or 503
+     */
+    void onSample(long rttNanos, int inflight, boolean dropped);
+}
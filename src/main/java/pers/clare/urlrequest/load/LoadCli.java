@@ -0,0 +1,99 @@
+package pers.clare.urlrequest.load;
+
+import pers.clare.urlrequest.HttpRequestLoader;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Command line of {@link LoadGenerator}.
+ * <pre>
+ * java -cp url-request.jar pers.clare.urlrequest.load.LoadCli --rate 500 --duration 60s --warm-up 10s requests.http
+ * java -cp url-request.jar pers.clare.urlrequest.load.LoadCli --users 20 --duration 60s requests.jsonl
+ * </pre>
+ * Requests are read by {@link HttpRequestLoader}, .http / .rest files or JSON lines.
+ */
+public class LoadCli {
+    private static final String USAGE = "usage: LoadCli (--rate <per second> | --users <count> [--rate <per second>])"
+                                        + " [--duration <time>] [--warm-up <time>] [--threads <count>] [--drain <time>] <file>\n"
+                                        + "time: 500ms, 30s or 2m";
+
+    private LoadCli() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator;
+        try {
+            generator = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        System.out.print(generator.run());
+    }
+
+    static LoadGenerator parse(String[] args) throws Exception {
+        Path file = null;
+        Double rate = null;
+        Integer users = null;
+        Integer threads = null;
+        Long duration = null;
+        Long warmUp = null;
+        Long drain = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                if (file != null) throw new IllegalArgumentException("more than one file");
+                file = Paths.get(arg);
+                continue;
+            }
+            if (i + 1 == args.length) throw new IllegalArgumentException("missing value of " + arg);
+            String value = args[++i];
+            switch (arg) {
+                case "--rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "--users":
+                    users = Integer.parseInt(value);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--duration":
+                    duration = toMillis(value);
+                    break;
+                case "--warm-up":
+                    warmUp = toMillis(value);
+                    break;
+                case "--drain":
+                    drain = toMillis(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + arg);
+            }
+        }
+        if (file == null) throw new IllegalArgumentException("missing file");
+        if (rate == null && users == null) throw new IllegalArgumentException("--rate or --users is required");
+        LoadGenerator generator = LoadGenerator.of(HttpRequestLoader.compile(file));
+        if (rate != null) generator.rate(rate);
+        if (users != null) generator.users(users);
+        if (threads != null) generator.threads(threads);
+        if (duration != null) generator.duration(duration);
+        if (warmUp != null) generator.warmUp(warmUp);
+        if (drain != null) generator.drain(drain);
+        return generator;
+    }
+
+    static long toMillis(String value) {
+        try {
+            if (value.endsWith("ms")) return Long.parseLong(value.substring(0, value.length() - 2));
+            if (value.endsWith("s")) return Long.parseLong(value.substring(0, value.length() - 1)) * 1000;
+            if (value.endsWith("m")) return Long.parseLong(value.substring(0, value.length() - 1)) * 60000;
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad time " + value);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package pers.clare.urlrequest.load;
+
+import pers.clare.urlrequest.HttpRequestTemplate;
+import pers.clare.urlrequest.URLRequest;
+import pers.clare.urlrequest.URLRequestUtil;
+import pers.clare.urlrequest.exception.URLResponseException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives requests in turn, open-loop at a fixed arrival rate or closed-loop with virtual users.
+ * <p>
+ * Every request has an intended send time from the schedule, latency is measured from it rather than from
+ * the actual send, so a stall delays later requests without hiding their waiting time (coordinated omission).
+ * Closed-loop users without a rate have no schedule, their response time equals the service time.
+ */
+@SuppressWarnings("unused")
+public class LoadGenerator {
+    public static final String DRAIN_TIMEOUT = "DrainTimeout";
+
+    private final List<URLRequest<?>> requests;
+    private double rate;
+    private int users;
+    private int threads = 64;
+    private long duration = 10000;
+    private long warmUp;
+    private long drain = 30000;
+
+    /**
+     * @param requests sent in turn with their own method, frozen so that concurrent sends never copy them
+     */
+    public LoadGenerator(List<? extends URLRequest<?>> requests) {
+        if (requests.isEmpty()) throw new IllegalArgumentException("no requests");
+        this.requests = new ArrayList<>(requests.size());
+        for (URLRequest<?> request : requests) {
+            this.requests.add(request.freeze());
+        }
+    }
+
+    /**
+     * Requests from the templates, response bodies are drained and dropped.
+     */
+    public static LoadGenerator of(List<HttpRequestTemplate> templates) {
+        List<URLRequest<?>> requests = new ArrayList<>(templates.size());
+        for (HttpRequestTemplate template : templates) {
+            requests.add(template.toRequest(URLRequestUtil.discardHandler));
+        }
+        return new LoadGenerator(requests);
+    }
+
+    /**
+     * Requests per second, in total for open-loop, shared between the users for closed-loop.
+     */
+    public LoadGenerator rate(double rate) {
+        this.rate = rate;
+        return this;
+    }
+
+    /**
+     * Virtual users of a closed loop, each sends its next request after the previous response.
+     */
+    public LoadGenerator users(int users) {
+        this.users = users;
+        return this;
+    }
+
+    /**
+     * Max requests in flight of the open loop, scheduled requests beyond it wait and their wait is measured.
+     */
+    public LoadGenerator threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Millis of the measured run.
+     */
+    public LoadGenerator duration(long duration) {
+        this.duration = duration;
+        return this;
+    }
+
+    /**
+     * Millis sent before the measured run and not recorded.
+     */
+    public LoadGenerator warmUp(long warmUp) {
+        this.warmUp = warmUp;
+        return this;
+    }
+
+    /**
+     * Millis to wait for requests in flight at the end, those still queued or in flight then count as
+     * {@link #DRAIN_TIMEOUT} errors.
+     */
+    public LoadGenerator drain(long drain) {
+        this.drain = drain;
+        return this;
+    }
+
+    public LoadReport run() throws InterruptedException {
+        if (users > 0) return runClosed();
+        if (rate <= 0) throw new IllegalStateException("rate or users is required");
+        return runOpen();
+    }
+
+    private LoadReport runOpen() throws InterruptedException {
+        Recorder recorder = new Recorder();
+        long interval = Math.max(1, (long) (1e9 / rate));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, LoadGenerator::daemon);
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.MILLISECONDS.toNanos(warmUp);
+        long end = measureStart + TimeUnit.MILLISECONDS.toNanos(duration);
+        try {
+            for (long i = 0; ; i++) {
+                long intended = start + i * interval;
+                if (intended >= end) break;
+                sleepUntil(intended);
+                URLRequest<?> request = requests.get((int) (i % requests.size()));
+                boolean measured = intended >= measureStart;
+                executor.execute(recorder.send(request, intended, measured));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        executor.awaitTermination(drain, TimeUnit.MILLISECONDS);
+        // never sent, the schedule fell behind for longer than the drain
+        recorder.timeout(executor.shutdownNow());
+        return recorder.report(String.format("open-loop %.1f/s", rate), System.nanoTime() - measureStart);
+    }
+
+    private LoadReport runClosed() throws InterruptedException {
+        Recorder recorder = new Recorder();
+        long interval = rate > 0 ? Math.max(1, (long) (1e9 * users / rate)) : 0;
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.MILLISECONDS.toNanos(warmUp);
+        long end = measureStart + TimeUnit.MILLISECONDS.toNanos(duration);
+        AtomicLong next = new AtomicLong();
+        List<Thread> threads = new ArrayList<>(users);
+        for (int user = 0; user < users; user++) {
+            // spread the users over one interval
+            long offset = interval * user / users;
+            Thread thread = daemon(() -> {
+                for (long i = 0; ; i++) {
+                    long now = System.nanoTime();
+                    long intended = interval == 0 ? now : start + offset + i * interval;
+                    if (intended >= end) break;
+                    sleepUntil(intended);
+                    URLRequest<?> request = requests.get((int) (next.getAndIncrement() % requests.size()));
+                    recorder.send(request, intended, intended >= measureStart).run();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        long deadline = end + TimeUnit.MILLISECONDS.toNanos(drain);
+        for (Thread thread : threads) {
+            TimeUnit.NANOSECONDS.timedJoin(thread, Math.max(1, deadline - System.nanoTime()));
+        }
+        recorder.timeout(Collections.emptyList());
+        String mode = interval == 0 ? users + " users" : String.format("%d users %.1f/s", users, rate);
+        return recorder.report(mode, System.nanoTime() - measureStart);
+    }
+
+    private static void sleepUntil(long nanoTime) {
+        long remain;
+        while ((remain = nanoTime - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remain);
+        }
+    }
+
+    private static Thread daemon(Runnable runnable) {
+        Thread thread = new Thread(runnable, "load-generator");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static class Recorder {
+        private final LatencyHistogram responseTime = new LatencyHistogram();
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+        private final Set<Send> inFlight = ConcurrentHashMap.newKeySet();
+
+        private Send send(URLRequest<?> request, long intended, boolean measured) {
+            return new Send(request, intended, measured);
+        }
+
+        /**
+         * Record the queued sends and those still in flight as timed out, their late responses are ignored.
+         */
+        private void timeout(List<Runnable> queued) {
+            for (Runnable runnable : queued) {
+                if (runnable instanceof Send) ((Send) runnable).finish(DRAIN_TIMEOUT);
+            }
+            for (Send send : inFlight) {
+                send.finish(DRAIN_TIMEOUT);
+            }
+        }
+
+        private LoadReport report(String mode, long elapsedNanos) {
+            Map<String, Long> counts = new ConcurrentHashMap<>();
+            errors.forEach((key, value) -> counts.put(key, value.sum()));
+            return new LoadReport(mode, elapsedNanos, responseTime, serviceTime, counts);
+        }
+
+        private class Send implements Runnable {
+            private final URLRequest<?> request;
+            private final long intended;
+            private final boolean measured;
+            private final AtomicBoolean done = new AtomicBoolean();
+            private volatile long start;
+            private volatile boolean started;
+
+            private Send(URLRequest<?> request, long intended, boolean measured) {
+                this.request = request;
+                this.intended = intended;
+                this.measured = measured;
+            }
+
+            @Override
+            public void run() {
+                start = System.nanoTime();
+                started = true;
+                inFlight.add(this);
+                String error = null;
+                try {
+                    request.go();
+                } catch (URLResponseException e) {
+                    error = "HTTP " + e.getResponse().getStatus();
+                } catch (RuntimeException e) {
+                    Throwable cause = e.getCause() == null ? e : e.getCause();
+                    error = cause.getClass().getSimpleName();
+                } finally {
+                    inFlight.remove(this);
+                }
+                finish(error);
+            }
+
+            /**
+             * Only the first outcome counts, a send which timed out is not recorded again.
+             */
+            private void finish(String error) {
+                if (!done.compareAndSet(false, true) || !measured) return;
+                long end = System.nanoTime();
+                responseTime.record(end - intended);
+                if (started) serviceTime.record(end - start);
+                if (error != null) errors.computeIfAbsent(error, (key) -> new LongAdder()).increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package pers.clare.urlrequest.load;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Result of a {@link LoadGenerator} run, warm-up requests excluded.
+ * <p>
+ * Response time is measured from the time a request was scheduled to be sent, so time spent waiting
+ * behind a slow request counts. Service time is measured from the time it was actually sent.
+ */
+@SuppressWarnings("unused")
+public class LoadReport {
+    public static final double[] PERCENTILES = {50, 75, 90, 95, 99, 99.9, 99.99};
+
+    private final String mode;
+    private final long elapsedNanos;
+    private final LatencyHistogram responseTime;
+    private final LatencyHistogram serviceTime;
+    private final Map<String, Long> errors;
+
+    LoadReport(String mode, long elapsedNanos, LatencyHistogram responseTime, LatencyHistogram serviceTime, Map<String, Long> errors) {
+        this.mode = mode;
+        this.elapsedNanos = elapsedNanos;
+        this.responseTime = responseTime;
+        this.serviceTime = serviceTime;
+        this.errors = Collections.unmodifiableMap(new TreeMap<>(errors));
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public long getCount() {
+        return responseTime.getCount();
+    }
+
+    public long getErrorCount() {
+        long count = 0;
+        for (Long value : errors.values()) {
+            count += value;
+        }
+        return count;
+    }
+
+    /**
+     * Error counts by status or exception.
+     */
+    public Map<String, Long> getErrors() {
+        return errors;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Completed requests per second.
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : getCount() * 1e9 / elapsedNanos;
+    }
+
+    public LatencyHistogram getResponseTime() {
+        return responseTime;
+    }
+
+    public LatencyHistogram getServiceTime() {
+        return serviceTime;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("mode: %s, requests: %d, errors: %d, elapsed(ms): %.1f, throughput: %.1f/s%n"
+                , mode, getCount(), getErrorCount(), elapsedNanos / 1e6, getThroughput()));
+        sb.append(String.format("%-10s %14s %14s%n", "(ms)", "response", "service"));
+        for (double percentile : PERCENTILES) {
+            sb.append(String.format("%-10s %14.3f %14.3f%n", "p" + format(percentile)
+                    , responseTime.getValueAtPercentile(percentile) / 1e6
+                    , serviceTime.getValueAtPercentile(percentile) / 1e6));
+        }
+        sb.append(String.format("%-10s %14.3f %14.3f%n", "max", responseTime.getMax() / 1e6, serviceTime.getMax() / 1e6));
+        sb.append(String.format("%-10s %14.3f %14.3f%n", "mean", responseTime.getMean() / 1e6, serviceTime.getMean() / 1e6));
+        for (Map.Entry<String, Long> entry : errors.entrySet()) {
+            sb.append(String.format("error %s: %d%n", entry.getKey(), entry.getValue()));
+        }
+        return sb.toString();
+    }
+
+    private static String format(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+}
@@ -0,0 +1,136 @@
+package pers.clare.urlrequest.log;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free ring buffer drained by one daemon thread, a full buffer drops the entry instead of blocking.
+ */
+@SuppressWarnings("unused")
+public class AsyncLogSink implements LogSink, Closeable {
+    private final LogEntry[] entries;
+    /**
+     * Slot sequence, equal to the write position when free and position + 1 when published.
+     */
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Consumer<String> output;
+    private final Thread thread;
+    private long head;
+    private volatile boolean parked;
+    private volatile boolean closed;
+
+    /**
+     * @param capacity entries buffered, rounded up to a power of two
+     * @param output   receives one JSON line per entry on the sink thread, e.g. System.err::println
+     */
+    public AsyncLogSink(int capacity, Consumer<String> output) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1) << 1);
+        this.entries = new LogEntry[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.output = output;
+        this.thread = new Thread(this::drain, "url-request-log");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public static AsyncLogSink stderr() {
+        return new AsyncLogSink(8192, System.err::println);
+    }
+
+    @Override
+    public void write(LogEntry entry) {
+        if (closed || !offer(entry)) {
+            dropped.increment();
+            return;
+        }
+        if (parked) LockSupport.unpark(thread);
+    }
+
+    /**
+     * Entries lost because the buffer was full or the sink closed.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Write the buffered entries and stop.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean offer(LogEntry entry) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    entries[index] = entry;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+        }
+    }
+
+    private boolean ready() {
+        return sequences.get((int) head & mask) == head + 1;
+    }
+
+    private LogEntry poll() {
+        if (!ready()) return null;
+        int index = (int) head & mask;
+        LogEntry entry = entries[index];
+        entries[index] = null;
+        sequences.set(index, head + entries.length);
+        head++;
+        return entry;
+    }
+
+    private void drain() {
+        while (true) {
+            LogEntry entry = poll();
+            if (entry == null) {
+                if (closed) {
+                    // a writer may still be publishing a claimed slot
+                    if (tail.get() == head) return;
+                    Thread.onSpinWait();
+                    continue;
+                }
+                parked = true;
+                // recheck after publishing the flag, a writer may have missed it
+                if (!ready()) LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                parked = false;
+                continue;
+            }
+            try {
+                output.accept(entry.toJson());
+            } catch (RuntimeException ignored) {
+                // the output must not stop the sink
+            }
+        }
+    }
+}
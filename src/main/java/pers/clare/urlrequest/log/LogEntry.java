@@ -0,0 +1,187 @@
+package pers.clare.urlrequest.log;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One logged exchange, captured on the calling thread and formatted on the sink thread.
+ */
+@SuppressWarnings("unused")
+public class LogEntry {
+    private final long timestamp;
+    private final String method;
+    private final String url;
+    private final int status;
+    private final long durationNanos;
+    private final long requestSize;
+    private final long responseSize;
+    private final Map<String, List<String>> requestHeaders;
+    private final String requestBody;
+    private final String responseBody;
+    private final String error;
+
+    LogEntry(
+            long timestamp
+            , String method
+            , String url
+            , int status
+            , long durationNanos
+            , long requestSize
+            , long responseSize
+            , Map<String, List<String>> requestHeaders
+            , String requestBody
+            , String responseBody
+            , String error
+    ) {
+        this.timestamp = timestamp;
+        this.method = method;
+        this.url = url;
+        this.status = status;
+        this.durationNanos = durationNanos;
+        this.requestSize = requestSize;
+        this.responseSize = responseSize;
+        this.requestHeaders = requestHeaders;
+        this.requestBody = requestBody;
+        this.responseBody = responseBody;
+        this.error = error;
+    }
+
+    /**
+     * Epoch millis of the request start.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * 0 if no response was received.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Bytes, or chars of a string body, -1 if unknown.
+     */
+    public long getRequestSize() {
+        return requestSize;
+    }
+
+    /**
+     * Bytes, or chars of a string body, -1 if unknown.
+     */
+    public long getResponseSize() {
+        return responseSize;
+    }
+
+    /**
+     * Redacted, null unless headers are logged.
+     */
+    public Map<String, List<String>> getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    public String getRequestBody() {
+        return requestBody;
+    }
+
+    public String getResponseBody() {
+        return responseBody;
+    }
+
+    /**
+     * Exception class and message, null on success.
+     */
+    public String getError() {
+        return error;
+    }
+
+    public boolean isError() {
+        return error != null;
+    }
+
+    /**
+     * One line JSON object, absent values are omitted.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"time\":\"").append(Instant.ofEpochMilli(timestamp)).append('"');
+        field(sb, "method", method);
+        field(sb, "url", url);
+        if (status > 0) sb.append(",\"status\":").append(status);
+        sb.append(",\"durationMs\":").append(durationNanos / 1000 / 1000.0);
+        if (requestSize >= 0) sb.append(",\"requestSize\":").append(requestSize);
+        if (responseSize >= 0) sb.append(",\"responseSize\":").append(responseSize);
+        if (requestHeaders != null) {
+            sb.append(",\"requestHeaders\":{");
+            boolean first = true;
+            for (Map.Entry<String, List<String>> entry : requestHeaders.entrySet()) {
+                if (!first) sb.append(',');
+                first = false;
+                quote(sb, entry.getKey());
+                sb.append(':');
+                quote(sb, String.join("; ", entry.getValue()));
+            }
+            sb.append('}');
+        }
+        field(sb, "requestBody", requestBody);
+        field(sb, "responseBody", responseBody);
+        field(sb, "error", error);
+        return sb.append('}').toString();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    private static void field(StringBuilder sb, String name, String value) {
+        if (value == null) return;
+        sb.append(",\"").append(name).append("\":");
+        quote(sb, value);
+    }
+
+    private static void quote(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
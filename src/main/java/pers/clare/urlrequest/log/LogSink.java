@@ -0,0 +1,11 @@
+package pers.clare.urlrequest.log;
+
+/**
+ * Destination of {@link RequestLogger} entries, called on the request thread so it must not block.
+ * Use {@link AsyncLogSink} to move formatting and output off the caller.
+ */
+@FunctionalInterface
+public interface LogSink {
+
+    void write(LogEntry entry);
+}
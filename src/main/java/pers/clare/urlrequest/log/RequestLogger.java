@@ -0,0 +1,193 @@
+package pers.clare.urlrequest.log;
+
+import pers.clare.urlrequest.HeaderNames;
+import pers.clare.urlrequest.Interceptor;
+import pers.clare.urlrequest.URLRequest;
+import pers.clare.urlrequest.URLResponse;
+import pers.clare.urlrequest.exception.URLResponseException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Interceptor writing one structured entry per exchange to a {@link LogSink}.
+ * <p>
+ * Successes are sampled by {@link #sampleRate(double)}, errors are always taken. Both share the
+ * {@link #maxPerSecond(int)} budget, so a failing backend cannot flood the sink. Headers and bodies are
+ * captured only when enabled, sensitive headers are redacted.
+ */
+@SuppressWarnings("unused")
+public class RequestLogger implements Interceptor {
+    public static final String REDACTED = "***";
+
+    private final LogSink sink;
+    private final Set<String> redactedHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private double sampleRate = 1;
+    private int maxPerSecond = 100;
+    private boolean headers;
+    private int maxBodyLength;
+    private final AtomicLong window = new AtomicLong();
+    private final AtomicInteger windowCount = new AtomicInteger();
+    private final LongAdder suppressed = new LongAdder();
+
+    public RequestLogger(LogSink sink) {
+        this.sink = sink;
+        redactedHeaders.add(HeaderNames.AUTHORIZATION);
+        redactedHeaders.add(HeaderNames.PROXY_AUTHORIZATION);
+        redactedHeaders.add(HeaderNames.COOKIE);
+    }
+
+    /**
+     * Fraction of successful exchanges logged, default 1.
+     */
+    public RequestLogger sampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
+    /**
+     * Max entries per second, default 100, 0 for unlimited.
+     */
+    public RequestLogger maxPerSecond(int maxPerSecond) {
+        this.maxPerSecond = maxPerSecond;
+        return this;
+    }
+
+    /**
+     * Log the request headers, redacted ones are replaced with {@link #REDACTED}.
+     */
+    public RequestLogger headers(boolean headers) {
+        this.headers = headers;
+        return this;
+    }
+
+    /**
+     * Log request and response bodies truncated to the length, default 0 logs none.
+     */
+    public RequestLogger bodies(int maxBodyLength) {
+        this.maxBodyLength = maxBodyLength;
+        return this;
+    }
+
+    /**
+     * Additional headers to redact, Authorization, Proxy-Authorization and Cookie always are.
+     */
+    public RequestLogger redact(String... names) {
+        Collections.addAll(redactedHeaders, names);
+        return this;
+    }
+
+    /**
+     * Exchanges sampled but dropped by the rate limit.
+     */
+    public long getSuppressed() {
+        return suppressed.sum();
+    }
+
+    @Override
+    public URLResponse<?> intercept(Chain chain) {
+        URLRequest<?> request = chain.request();
+        long timestamp = System.currentTimeMillis();
+        long start = System.nanoTime();
+        URLResponse<?> response;
+        try {
+            response = chain.proceed(request);
+        } catch (URLResponseException e) {
+            URLResponse<?> error = e.getResponse();
+            if (acquire()) {
+                log(chain.method(), request, timestamp, System.nanoTime() - start, error.getStatus(), error.getBody(), e);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            if (acquire()) {
+                log(chain.method(), request, timestamp, System.nanoTime() - start, 0, null, e);
+            }
+            throw e;
+        }
+        if ((sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate) && acquire()) {
+            log(chain.method(), request, timestamp, System.nanoTime() - start, response.getStatus(), response.getBody(), null);
+        }
+        return response;
+    }
+
+    /**
+     * Fixed one second window shared by every thread.
+     */
+    private boolean acquire() {
+        if (maxPerSecond <= 0) return true;
+        long now = System.nanoTime() / 1_000_000_000L;
+        long current = window.get();
+        if (now != current && window.compareAndSet(current, now)) {
+            windowCount.set(0);
+        }
+        if (windowCount.incrementAndGet() <= maxPerSecond) return true;
+        suppressed.increment();
+        return false;
+    }
+
+    private void log(String method, URLRequest<?> request, long timestamp, long duration, int status, Object body, RuntimeException error) {
+        String requestBody = null;
+        long requestSize = -1;
+        if (request.getRequestBody() != null) {
+            requestSize = request.getRequestBody().contentLength();
+        } else {
+            requestSize = request.getBodyLength();
+            // decode only when it is logged
+            if (maxBodyLength > 0) requestBody = request.getBody();
+        }
+        String responseBody = null;
+        long responseSize = -1;
+        if (body instanceof byte[]) {
+            responseSize = ((byte[]) body).length;
+        } else if (body instanceof String) {
+            responseSize = ((String) body).length();
+            if (maxBodyLength > 0) responseBody = (String) body;
+        }
+        String message = null;
+        if (error != null) {
+            message = error.getClass().getSimpleName();
+            if (error.getMessage() != null) message += ": " + error.getMessage();
+        }
+        try {
+            sink.write(new LogEntry(
+                    timestamp
+                    , method
+                    , request.getUrl().toString()
+                    , status
+                    , duration
+                    , requestSize
+                    , responseSize
+                    , headers ? redact(request.getHeaders()) : null
+                    , truncate(requestBody)
+                    , truncate(responseBody)
+                    , message
+            ));
+        } catch (RuntimeException ignored) {
+            // logging must not fail the request
+        }
+    }
+
+    private Map<String, List<String>> redact(Map<String, List<String>> headers) {
+        Map<String, List<String>> copy = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            copy.put(entry.getKey(), redactedHeaders.contains(entry.getKey())
+                    ? Collections.singletonList(REDACTED)
+                    : new ArrayList<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private String truncate(String body) {
+        if (body == null || maxBodyLength <= 0) return null;
+        return body.length() <= maxBodyLength ? body : body.substring(0, maxBodyLength) + "...";
+    }
+}
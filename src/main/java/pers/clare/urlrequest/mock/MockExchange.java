@@ -0,0 +1,42 @@
+package pers.clare.urlrequest.mock;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Request received by a {@link MockRoute}.
+ */
+@SuppressWarnings("unused")
+public class MockExchange {
+    private final String method;
+    private final URL url;
+    private final Map<String, List<String>> headers;
+    private final byte[] body;
+
+    MockExchange(String method, URL url, Map<String, List<String>> headers, byte[] body) {
+        this.method = method;
+        this.url = url;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Null if nothing was written.
+     */
+    public byte[] getBody() {
+        return body;
+    }
+}
@@ -0,0 +1,64 @@
+package pers.clare.urlrequest.mock;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Scripted response of a {@link MockRoute}.
+ */
+@SuppressWarnings("unused")
+public class MockResponse {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int status;
+    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private String message = "";
+    private byte[] body = EMPTY;
+
+    private MockResponse(int status) {
+        this.status = status;
+    }
+
+    public static MockResponse of(int status) {
+        return new MockResponse(status);
+    }
+
+    public static MockResponse ok(String body) {
+        return of(200).body(body);
+    }
+
+    public MockResponse header(String name, String value) {
+        headers.computeIfAbsent(name, (key) -> new ArrayList<>()).add(value);
+        return this;
+    }
+
+    public MockResponse message(String message) {
+        this.message = message;
+        return this;
+    }
+
+    public MockResponse body(String body) {
+        return body(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public MockResponse body(byte[] body) {
+        this.body = body;
+        return this;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+}
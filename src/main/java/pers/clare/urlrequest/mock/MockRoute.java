@@ -0,0 +1,156 @@
+package pers.clare.urlrequest.mock;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Scripted behavior of the requests matching a path.
+ * Responses are served in order, then the last one repeats unless {@link #cycle()} is set.
+ * Failed requests do not consume a response.
+ */
+@SuppressWarnings("unused")
+public class MockRoute {
+    private final String method;
+    private final String path;
+    private volatile List<MockResponse> responses = Collections.singletonList(MockResponse.of(200));
+    private volatile boolean cycle;
+    private volatile long minLatency;
+    private volatile long maxLatency;
+    private volatile double errorRate;
+    private volatile Supplier<? extends IOException> error = () -> new ConnectException("Connection refused (mock)");
+    private volatile long bandwidth;
+    private volatile boolean record;
+    private volatile MockExchange last;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong served = new AtomicLong();
+
+    MockRoute(String method, String path) {
+        this.method = method;
+        this.path = path;
+    }
+
+    /**
+     * Responses in order.
+     */
+    public MockRoute respond(MockResponse... responses) {
+        if (responses.length == 0) throw new IllegalArgumentException("responses is empty");
+        this.responses = List.of(responses);
+        return this;
+    }
+
+    /**
+     * Restart the responses after the last one.
+     */
+    public MockRoute cycle() {
+        this.cycle = true;
+        return this;
+    }
+
+    public MockRoute latency(long millis) {
+        return latency(millis, millis);
+    }
+
+    /**
+     * Uniform latency before the response is available.
+     */
+    public MockRoute latency(long minMillis, long maxMillis) {
+        this.minLatency = minMillis;
+        this.maxLatency = maxMillis;
+        return this;
+    }
+
+    /**
+     * Fraction of requests failing to connect.
+     */
+    public MockRoute errorRate(double rate) {
+        this.errorRate = rate;
+        return this;
+    }
+
+    public MockRoute errorRate(double rate, Supplier<? extends IOException> error) {
+        this.error = error;
+        return errorRate(rate);
+    }
+
+    /**
+     * Response body bytes per second, 0 means unlimited.
+     */
+    public MockRoute bandwidth(long bytesPerSecond) {
+        this.bandwidth = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Keep the last request, see {@link #last()}.
+     */
+    public MockRoute record() {
+        this.record = true;
+        return this;
+    }
+
+    /**
+     * Requests received, including failed ones.
+     */
+    public long count() {
+        return count.get();
+    }
+
+    public MockExchange last() {
+        return last;
+    }
+
+    public MockRoute reset() {
+        count.set(0);
+        served.set(0);
+        last = null;
+        return this;
+    }
+
+    boolean matches(String method, String path) {
+        if (this.method != null && !this.method.equalsIgnoreCase(method)) return false;
+        if (this.path.endsWith("*")) return path.startsWith(this.path.substring(0, this.path.length() - 1));
+        return this.path.equals(path);
+    }
+
+    boolean recording() {
+        return record;
+    }
+
+    void last(MockExchange exchange) {
+        this.last = exchange;
+    }
+
+    /**
+     * Count the request, return the failure to throw or null.
+     */
+    IOException attempt() {
+        count.incrementAndGet();
+        double rate = errorRate;
+        if (rate <= 0 || ThreadLocalRandom.current().nextDouble() >= rate) return null;
+        return error.get();
+    }
+
+    MockResponse next() {
+        long n = served.getAndIncrement();
+        List<MockResponse> responses = this.responses;
+        if (n < responses.size()) return responses.get((int) n);
+        return cycle ? responses.get((int) (n % responses.size())) : responses.get(responses.size() - 1);
+    }
+
+    long latency() {
+        long min = minLatency;
+        long max = maxLatency;
+        if (max <= min) return min;
+        return ThreadLocalRandom.current().nextLong(min, max + 1);
+    }
+
+    long bandwidth() {
+        return bandwidth;
+    }
+}
@@ -0,0 +1,55 @@
+package pers.clare.urlrequest.mock;
+
+import pers.clare.urlrequest.URLConnectionFactory;
+
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory transport serving scripted responses without sockets.
+ * Routes match by path, the first added route wins, unmatched requests get 404.
+ */
+@SuppressWarnings("unused")
+public class MockTransport implements URLConnectionFactory {
+    private final List<MockRoute> routes = new CopyOnWriteArrayList<>();
+    private final MockRoute notFound = new MockRoute(null, "*").respond(MockResponse.of(404).message("Not Found"));
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * @param path exact path, or prefix ending with *
+     */
+    public MockRoute route(String path) {
+        return route(null, path);
+    }
+
+    public MockRoute route(String method, String path) {
+        MockRoute route = new MockRoute(method, path);
+        routes.add(route);
+        return route;
+    }
+
+    /**
+     * All requests, matched or not.
+     */
+    public long count() {
+        return count.get();
+    }
+
+    @Override
+    public HttpURLConnection open(URL url, Proxy proxy) {
+        return new MockURLConnection(url, this);
+    }
+
+    MockRoute find(String method, URL url) {
+        count.incrementAndGet();
+        String path = url.getPath().isEmpty() ? "/" : url.getPath();
+        for (MockRoute route : routes) {
+            if (route.matches(method, path)) return route;
+        }
+        return notFound;
+    }
+}
@@ -0,0 +1,135 @@
+package pers.clare.urlrequest.mock;
+
+import pers.clare.urlrequest.AdapterURLConnection;
+import pers.clare.urlrequest.HeaderNames;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * HttpURLConnection answered by a {@link MockTransport}.
+ */
+class MockURLConnection extends AdapterURLConnection<MockResponse> {
+    private final MockTransport transport;
+    /**
+     * Route of the current hop, found by {@link #open()} for the first one.
+     */
+    private MockRoute route;
+    private boolean opened;
+
+    MockURLConnection(URL url, MockTransport transport) {
+        super(url);
+        this.transport = transport;
+    }
+
+    @Override
+    protected void open() throws IOException {
+        route = transport.find(method, url);
+        IOException e = route.attempt();
+        if (e != null) throw e;
+        opened = true;
+    }
+
+    @Override
+    protected void exchange() throws IOException {
+        MockResponse response = sendFollowingRedirects();
+        Map<String, List<String>> headers = new LinkedHashMap<>(response.getHeaders());
+        if (headers.keySet().stream().noneMatch(HeaderNames.CONTENT_LENGTH::equalsIgnoreCase)) {
+            headers.put(HeaderNames.CONTENT_LENGTH, Collections.singletonList(String.valueOf(response.getBody().length)));
+        }
+        InputStream body = new ByteArrayInputStream(response.getBody());
+        long bandwidth = route.bandwidth();
+        respond(response.getStatus(), response.getMessage(), headers, bandwidth > 0 ? new ThrottledInputStream(body, bandwidth) : body);
+    }
+
+    @Override
+    protected MockResponse send(URL url, String method, byte[] bytes) throws IOException {
+        if (opened) {
+            // the first hop was attempted when connected
+            opened = false;
+        } else {
+            route = transport.find(method, url);
+            IOException e = route.attempt();
+            if (e != null) throw e;
+        }
+        return answer(route, method, bytes);
+    }
+
+    @Override
+    protected int status(MockResponse response) {
+        return response.getStatus();
+    }
+
+    @Override
+    protected String location(MockResponse response) {
+        List<String> locations = response.getHeaders().get(HeaderNames.LOCATION);
+        return locations == null || locations.isEmpty() ? null : locations.get(0);
+    }
+
+    private MockResponse answer(MockRoute route, String method, byte[] bytes) throws IOException {
+        if (route.recording()) {
+            route.last(new MockExchange(method, url, requestHeaders, bytes));
+        }
+        long latency = route.latency();
+        if (latency > 0) {
+            int readTimeout = getReadTimeout();
+            if (readTimeout > 0 && latency > readTimeout) {
+                sleep(TimeUnit.MILLISECONDS.toNanos(readTimeout));
+                throw new SocketTimeoutException("Read timed out");
+            }
+            sleep(TimeUnit.MILLISECONDS.toNanos(latency));
+        }
+        return route.next();
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        long deadline = System.nanoTime() + nanos;
+        for (long remaining = nanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted");
+            }
+        }
+    }
+
+    /**
+     * Delivers the body no faster than the route bandwidth, in 10ms slices.
+     */
+    private static class ThrottledInputStream extends FilterInputStream {
+        private final long bandwidth;
+        private final int slice;
+        private final long start = System.nanoTime();
+        private long total;
+
+        private ThrottledInputStream(InputStream in, long bandwidth) {
+            super(in);
+            this.bandwidth = bandwidth;
+            this.slice = (int) Math.max(1, Math.min(Integer.MAX_VALUE, bandwidth / 100));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) pace(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, Math.min(len, slice));
+            if (n > 0) pace(n);
+            return n;
+        }
+
+        private void pace(int n) throws InterruptedIOException {
+            total += n;
+            long due = start + total * TimeUnit.SECONDS.toNanos(1) / bandwidth;
+            long wait = due - System.nanoTime();
+            if (wait > 0) sleep(wait);
+        }
+    }
+}
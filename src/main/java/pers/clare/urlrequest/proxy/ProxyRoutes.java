@@ -0,0 +1,185 @@
+package pers.clare.urlrequest.proxy;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes destinations to forward proxies with health tracking and failover.
+ * Unhealthy proxies are skipped until their cool down ends, or used last when every proxy is down.
+ * The same Proxy instances are always returned, so the JDK keep-alive cache reuses connections
+ * and CONNECT tunnels per proxy.
+ */
+@SuppressWarnings("unused")
+public class ProxyRoutes extends ProxySelector {
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+
+    public static final long DEFAULT_COOL_DOWN = 30000;
+
+    private static final List<Proxy> NO_PROXY = Collections.singletonList(Proxy.NO_PROXY);
+
+    private final List<Route> routes = new CopyOnWriteArrayList<>();
+    private final Map<SocketAddress, Health> healths = new ConcurrentHashMap<>();
+    private final Map<SocketAddress, PasswordAuthentication> credentials = new ConcurrentHashMap<>();
+    private final Map<SocketAddress, String> authorizations = new ConcurrentHashMap<>();
+    private final Authenticator authenticator = new ProxyAuthenticator();
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private long coolDown = DEFAULT_COOL_DOWN;
+
+    /**
+     * Route matching hosts through the proxies in preference order.
+     *
+     * @param hostPattern host, *.domain or *
+     */
+    public ProxyRoutes route(String hostPattern, Proxy... proxies) {
+        routes.add(new Route(hostPattern, Arrays.asList(proxies)));
+        return this;
+    }
+
+    public ProxyRoutes route(String hostPattern, String proxyHost, int proxyPort) {
+        return route(hostPattern, new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost, proxyPort)));
+    }
+
+    /**
+     * Connect matching hosts directly.
+     */
+    public ProxyRoutes direct(String hostPattern) {
+        routes.add(new Route(hostPattern, NO_PROXY));
+        return this;
+    }
+
+    /**
+     * Proxy credentials, cached and answered without prompting.
+     */
+    public ProxyRoutes credentials(Proxy proxy, String username, String password) {
+        credentials.put(proxy.address(), new PasswordAuthentication(username, password.toCharArray()));
+        authorizations.put(proxy.address(), "Basic " + Base64.getEncoder()
+                .encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8)));
+        return this;
+    }
+
+    /**
+     * Consecutive connect failures that mark a proxy down.
+     */
+    public ProxyRoutes failureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+        return this;
+    }
+
+    public ProxyRoutes coolDown(long coolDown) {
+        this.coolDown = coolDown;
+        return this;
+    }
+
+    @Override
+    public List<Proxy> select(URI uri) {
+        if (uri == null) throw new IllegalArgumentException("uri is null");
+        String host = uri.getHost();
+        if (host == null) return NO_PROXY;
+        for (Route route : routes) {
+            if (!route.matches(host)) continue;
+            if (route.proxies.size() == 1) return route.proxies;
+            long now = System.currentTimeMillis();
+            List<Proxy> healthy = new ArrayList<>(route.proxies.size());
+            List<Proxy> down = new ArrayList<>(0);
+            for (Proxy proxy : route.proxies) {
+                if (isDown(proxy, now)) {
+                    down.add(proxy);
+                } else {
+                    healthy.add(proxy);
+                }
+            }
+            healthy.addAll(down);
+            return healthy;
+        }
+        return NO_PROXY;
+    }
+
+    @Override
+    public void connectFailed(URI uri, SocketAddress address, IOException e) {
+        if (address == null) return;
+        Health health = healths.computeIfAbsent(address, (key) -> new Health());
+        if (health.failures.incrementAndGet() >= failureThreshold) {
+            health.downUntil = System.currentTimeMillis() + coolDown;
+        }
+    }
+
+    /**
+     * Reset the failures of the proxy.
+     */
+    public void connected(Proxy proxy) {
+        if (proxy.address() == null) return;
+        Health health = healths.get(proxy.address());
+        if (health == null) return;
+        health.failures.set(0);
+        health.downUntil = 0;
+    }
+
+    public boolean isDown(Proxy proxy) {
+        return isDown(proxy, System.currentTimeMillis());
+    }
+
+    /**
+     * Shared authenticator, one instance keeps keep-alive connections reusable.
+     */
+    public Authenticator getAuthenticator() {
+        return authenticator;
+    }
+
+    /**
+     * Pre-computed Proxy-Authorization value, null if the proxy has no credentials.
+     */
+    public String getAuthorization(Proxy proxy) {
+        return proxy.address() == null ? null : authorizations.get(proxy.address());
+    }
+
+    private boolean isDown(Proxy proxy, long now) {
+        if (proxy.address() == null) return false;
+        Health health = healths.get(proxy.address());
+        return health != null && health.downUntil > now;
+    }
+
+    private static class Route {
+        private final String pattern;
+        private final List<Proxy> proxies;
+
+        private Route(String pattern, List<Proxy> proxies) {
+            this.pattern = pattern.toLowerCase();
+            this.proxies = Collections.unmodifiableList(new ArrayList<>(proxies));
+        }
+
+        private boolean matches(String host) {
+            if ("*".equals(pattern)) return true;
+            host = host.toLowerCase();
+            if (pattern.startsWith("*.")) {
+                return host.endsWith(pattern.substring(1)) || host.equals(pattern.substring(2));
+            }
+            return host.equals(pattern);
+        }
+    }
+
+    private static class Health {
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile long downUntil;
+    }
+
+    private class ProxyAuthenticator extends Authenticator {
+        @Override
+        protected PasswordAuthentication getPasswordAuthentication() {
+            if (getRequestorType() != RequestorType.PROXY) return null;
+            for (Map.Entry<SocketAddress, PasswordAuthentication> entry : credentials.entrySet()) {
+                if (!(entry.getKey() instanceof InetSocketAddress)) continue;
+                InetSocketAddress address = (InetSocketAddress) entry.getKey();
+                if (address.getPort() == getRequestingPort()
+                    && address.getHostString().equalsIgnoreCase(getRequestingHost())) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+    }
+}
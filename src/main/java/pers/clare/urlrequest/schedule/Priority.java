@@ -0,0 +1,10 @@
+package pers.clare.urlrequest.schedule;
+
+/**
+ * Priority classes of {@link RequestScheduler}, a higher class is always dispatched first.
+ */
+public enum Priority {
+    HIGH,
+    NORMAL,
+    LOW
+}
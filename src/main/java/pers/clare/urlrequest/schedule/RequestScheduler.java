@@ -0,0 +1,351 @@
+package pers.clare.urlrequest.schedule;
+
+import pers.clare.urlrequest.Interceptor;
+import pers.clare.urlrequest.URLRequest;
+import pers.clare.urlrequest.URLResponse;
+import pers.clare.urlrequest.exception.ConcurrencyLimitException;
+import pers.clare.urlrequest.exception.URLRequestException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Interceptor sharing a fixed number of concurrent requests between priority classes and tenants.
+ * <p>
+ * A higher {@link Priority} class is always dispatched first, each class can be capped below the total.
+ * Within a class tenants are served by weighted fair queuing, a tenant with weight 2 gets twice the share
+ * of a tenant with weight 1 while both have requests waiting, so one bulk job cannot starve the others.
+ * <p>
+ * Requests run at once without locking while nobody waits. Waiting requests are kept in queues striped
+ * by tenant, a full queue or an expired wait rejects with {@link ConcurrencyLimitException}.
+ */
+@SuppressWarnings("unused")
+public class RequestScheduler implements Interceptor {
+    private static final Priority[] PRIORITIES = Priority.values();
+    /**
+     * Virtual time cost of one request at weight 1.
+     */
+    private static final long COST = 1 << 16;
+
+    private final int maxConcurrency;
+    private final int[] caps = new int[PRIORITIES.length];
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicIntegerArray classInflight = new AtomicIntegerArray(PRIORITIES.length);
+    private final AtomicInteger queuedTotal = new AtomicInteger();
+    private final AtomicIntegerArray queued = new AtomicIntegerArray(PRIORITIES.length);
+    private final AtomicLongArray virtualTime = new AtomicLongArray(PRIORITIES.length);
+    private final AtomicLong sequence = new AtomicLong();
+    private final Stripe[] stripes;
+    private final Map<String, Integer> weights = new ConcurrentHashMap<>();
+    private Function<URLRequest<?>, String> tenant = (request) -> "";
+    private Function<URLRequest<?>, Priority> priority = (request) -> Priority.NORMAL;
+    private int maxQueue = Integer.MAX_VALUE;
+    private long maxWait = 1000;
+
+    public RequestScheduler(int maxConcurrency) {
+        this(maxConcurrency, 16);
+    }
+
+    /**
+     * @param stripes number of queue stripes, rounded up to a power of two
+     */
+    public RequestScheduler(int maxConcurrency, int stripes) {
+        this.maxConcurrency = maxConcurrency;
+        Arrays.fill(caps, maxConcurrency);
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1) << 1);
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Cap the requests in flight of one class, default the total.
+     */
+    public RequestScheduler maxConcurrency(Priority priority, int maxConcurrency) {
+        caps[priority.ordinal()] = Math.min(maxConcurrency, this.maxConcurrency);
+        return this;
+    }
+
+    /**
+     * Tenant key of a request, default every request belongs to one tenant.
+     */
+    public RequestScheduler tenant(Function<URLRequest<?>, String> tenant) {
+        this.tenant = tenant;
+        return this;
+    }
+
+    /**
+     * Priority class of a request, default {@link Priority#NORMAL}.
+     */
+    public RequestScheduler priority(Function<URLRequest<?>, Priority> priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * Share of the tenant relative to others in the same class, default 1.
+     */
+    public RequestScheduler weight(String tenant, int weight) {
+        weights.put(tenant, Math.max(1, Math.min(weight, (int) COST)));
+        return this;
+    }
+
+    /**
+     * Requests allowed to wait per class.
+     */
+    public RequestScheduler maxQueue(int maxQueue) {
+        this.maxQueue = maxQueue;
+        return this;
+    }
+
+    /**
+     * Millis a queued request waits before it is rejected.
+     */
+    public RequestScheduler maxWait(long maxWait) {
+        this.maxWait = maxWait;
+        return this;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    public int getInflight(Priority priority) {
+        return classInflight.get(priority.ordinal());
+    }
+
+    public int getQueued() {
+        return queuedTotal.get();
+    }
+
+    public int getQueued(Priority priority) {
+        return queued.get(priority.ordinal());
+    }
+
+    public int getQueued(String tenant) {
+        Stripe stripe = stripe(tenant);
+        synchronized (stripe) {
+            TenantState state = stripe.tenants.get(tenant);
+            return state == null ? 0 : state.queued;
+        }
+    }
+
+    @Override
+    public URLResponse<?> intercept(Chain chain) {
+        URLRequest<?> request = chain.request();
+        Priority priority = this.priority.apply(request);
+        if (priority == null) priority = Priority.NORMAL;
+        int index = priority.ordinal();
+        if (queuedTotal.get() > 0 || !reserve(index)) {
+            String tenant = this.tenant.apply(request);
+            await(enqueue(tenant == null ? "" : tenant, index, request), request);
+        }
+        try {
+            return chain.proceed(request);
+        } finally {
+            release(index);
+        }
+    }
+
+    private Waiter enqueue(String tenant, int index, URLRequest<?> request) {
+        if (queued.get(index) >= maxQueue || maxWait <= 0) {
+            throw new ConcurrencyLimitException(request.getUrl().toString(), caps[index], request);
+        }
+        Stripe stripe = stripe(tenant);
+        Waiter waiter;
+        synchronized (stripe) {
+            TenantState state = stripe.tenants.computeIfAbsent(tenant, (key) -> new TenantState());
+            long start = Math.max(virtualTime.get(index), state.finish[index]);
+            long finish = start + COST / weights.getOrDefault(tenant, 1);
+            state.finish[index] = finish;
+            state.queued++;
+            waiter = new Waiter(tenant, index, start, finish, sequence.incrementAndGet(), stripe, Thread.currentThread());
+            stripe.queues.get(index).add(waiter);
+            queued.incrementAndGet(index);
+            queuedTotal.incrementAndGet();
+        }
+        // a permit may have been released before the waiter was visible
+        dispatch();
+        return waiter;
+    }
+
+    private void await(Waiter waiter, URLRequest<?> request) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+        boolean interrupted = false;
+        while (waiter.state == Waiter.WAITING) {
+            long remain = deadline - System.nanoTime();
+            if (remain <= 0) break;
+            LockSupport.parkNanos(this, remain);
+            if (Thread.interrupted()) {
+                interrupted = true;
+                break;
+            }
+        }
+        if (waiter.state == Waiter.WAITING) cancel(waiter);
+        if (waiter.state == Waiter.GRANTED) {
+            if (!interrupted) return;
+            release(waiter.index);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            throw new URLRequestException(request.getUrl().toString(), "interrupted while queued", request, null);
+        }
+        throw new ConcurrencyLimitException(request.getUrl().toString(), caps[waiter.index], request);
+    }
+
+    private void cancel(Waiter waiter) {
+        Stripe stripe = waiter.stripe;
+        synchronized (stripe) {
+            if (waiter.state != Waiter.WAITING) return;
+            waiter.state = Waiter.CANCELLED;
+            stripe.queues.get(waiter.index).remove(waiter);
+            dequeued(stripe, waiter);
+        }
+    }
+
+    private void release(int index) {
+        classInflight.decrementAndGet(index);
+        inflight.decrementAndGet();
+        dispatch();
+    }
+
+    /**
+     * Hand free permits to the waiters with the highest class and the earliest finish tag.
+     */
+    private void dispatch() {
+        while (queuedTotal.get() > 0) {
+            Waiter next = null;
+            for (int index = 0; index < PRIORITIES.length && next == null; index++) {
+                if (queued.get(index) == 0 || classInflight.get(index) >= caps[index]) continue;
+                for (Stripe stripe : stripes) {
+                    Waiter head;
+                    synchronized (stripe) {
+                        head = stripe.queues.get(index).peek();
+                    }
+                    if (head != null && (next == null || ORDER.compare(head, next) < 0)) next = head;
+                }
+            }
+            if (next == null || !reserve(next.index)) return;
+            Stripe stripe = next.stripe;
+            boolean granted = false;
+            synchronized (stripe) {
+                if (next.state == Waiter.WAITING && stripe.queues.get(next.index).peek() == next) {
+                    stripe.queues.get(next.index).poll();
+                    next.state = Waiter.GRANTED;
+                    dequeued(stripe, next);
+                    granted = true;
+                }
+            }
+            if (granted) {
+                advance(next.index, next.start);
+                LockSupport.unpark(next.thread);
+            } else {
+                classInflight.decrementAndGet(next.index);
+                inflight.decrementAndGet();
+            }
+        }
+    }
+
+    private boolean reserve(int index) {
+        int current;
+        do {
+            current = inflight.get();
+            if (current >= maxConcurrency) return false;
+        } while (!inflight.compareAndSet(current, current + 1));
+        int cap = caps[index];
+        do {
+            current = classInflight.get(index);
+            if (current >= cap) {
+                inflight.decrementAndGet();
+                return false;
+            }
+        } while (!classInflight.compareAndSet(index, current, current + 1));
+        return true;
+    }
+
+    private void advance(int index, long start) {
+        long current;
+        do {
+            current = virtualTime.get(index);
+            if (current >= start) return;
+        } while (!virtualTime.compareAndSet(index, current, start));
+    }
+
+    /**
+     * Called under the stripe lock.
+     */
+    private void dequeued(Stripe stripe, Waiter waiter) {
+        queued.decrementAndGet(waiter.index);
+        queuedTotal.decrementAndGet();
+        TenantState state = stripe.tenants.get(waiter.tenant);
+        // an idle tenant starts again from the virtual time, it keeps no credit
+        if (--state.queued == 0) stripe.tenants.remove(waiter.tenant);
+    }
+
+    private Stripe stripe(String tenant) {
+        int h = tenant.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static final Comparator<Waiter> ORDER = Comparator
+            .comparingLong((Waiter waiter) -> waiter.finish)
+            .thenComparingLong((waiter) -> waiter.sequence);
+
+    private static class Stripe {
+        private final List<PriorityQueue<Waiter>> queues = new ArrayList<>(PRIORITIES.length);
+        private final Map<String, TenantState> tenants = new HashMap<>();
+
+        private Stripe() {
+            for (int i = 0; i < PRIORITIES.length; i++) {
+                queues.add(new PriorityQueue<>(ORDER));
+            }
+        }
+    }
+
+    private static class TenantState {
+        private final long[] finish = new long[PRIORITIES.length];
+        private int queued;
+    }
+
+    private static class Waiter {
+        private static final int WAITING = 0;
+        private static final int GRANTED = 1;
+        private static final int CANCELLED = 2;
+
+        private final String tenant;
+        private final int index;
+        private final long start;
+        private final long finish;
+        private final long sequence;
+        private final Stripe stripe;
+        private final Thread thread;
+        /**
+         * Changed under the stripe lock only.
+         */
+        private volatile int state = WAITING;
+
+        private Waiter(String tenant, int index, long start, long finish, long sequence, Stripe stripe, Thread thread) {
+            this.tenant = tenant;
+            this.index = index;
+            this.start = start;
+            this.finish = finish;
+            this.sequence = sequence;
+            this.stripe = stripe;
+            this.thread = thread;
+        }
+    }
+}
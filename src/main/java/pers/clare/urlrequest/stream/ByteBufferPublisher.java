@@ -0,0 +1,42 @@
+package pers.clare.urlrequest.stream;
+
+import pers.clare.urlrequest.URLRequest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Response body publisher, at most one chunk is read per requested item so memory stays bounded.
+ */
+@SuppressWarnings("unused")
+public class ByteBufferPublisher extends StreamPublisher<ByteBuffer> {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    public ByteBufferPublisher(URLRequest<?> request) {
+        super(request, null);
+        if (request.getReadTimeout() != null) {
+            idleTimeout(request.getReadTimeout());
+        }
+    }
+
+    public ByteBufferPublisher bufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    @Override
+    protected StreamDecoder<ByteBuffer> newDecoder() {
+        int size = bufferSize;
+        return (in, emitter) -> {
+            byte[] buffer = new byte[size];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                if (length == 0) continue;
+                // subscribers may keep the buffer, never reuse it
+                if (!emitter.test(ByteBuffer.wrap(buffer, 0, length))) return;
+                buffer = new byte[size];
+            }
+        };
+    }
+}
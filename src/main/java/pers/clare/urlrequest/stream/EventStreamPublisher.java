@@ -0,0 +1,109 @@
+package pers.clare.urlrequest.stream;
+
+import pers.clare.urlrequest.HeaderValues;
+import pers.clare.urlrequest.URLRequest;
+import pers.clare.urlrequest.URLResponse;
+
+import java.net.HttpURLConnection;
+import java.util.function.Predicate;
+
+/**
+ * text/event-stream publisher, reconnects with Last-Event-ID when the stream ends or stalls.
+ * A 204 No Content response completes the subscriber instead.
+ */
+public class EventStreamPublisher extends StreamPublisher<ServerSentEvent> {
+    public static final String LAST_EVENT_ID = "Last-Event-ID";
+
+    public EventStreamPublisher(URLRequest<?> request) {
+        super(request, HeaderValues.EVENT_STREAM);
+        reconnect(true);
+    }
+
+    @Override
+    protected LineDecoder<ServerSentEvent> newDecoder() {
+        return new Decoder();
+    }
+
+    private static class Decoder implements LineDecoder<ServerSentEvent> {
+        private final StringBuilder data = new StringBuilder();
+        private String event;
+        private String id;
+        private String lastEventId;
+        private long retry = -1;
+
+        @Override
+        public void prepare(URLRequest<?> request) {
+            clear();
+            if (lastEventId != null && lastEventId.length() > 0) {
+                request.header(LAST_EVENT_ID, lastEventId);
+            }
+        }
+
+        @Override
+        public boolean decode(String line, Predicate<ServerSentEvent> emitter) {
+            if (line.isEmpty()) return dispatch(emitter);
+            // comment, usually a heartbeat
+            if (line.charAt(0) == ':') return true;
+            int index = line.indexOf(':');
+            String field;
+            String value;
+            if (index == -1) {
+                field = line;
+                value = "";
+            } else {
+                field = line.substring(0, index);
+                int start = index + 1;
+                if (start < line.length() && line.charAt(start) == ' ') start++;
+                value = line.substring(start);
+            }
+            switch (field) {
+                case "data":
+                    data.append(value).append('\n');
+                    break;
+                case "event":
+                    event = value;
+                    break;
+                case "id":
+                    if (value.indexOf('\0') == -1) id = value;
+                    break;
+                case "retry":
+                    try {
+                        retry = Long.parseLong(value);
+                    } catch (NumberFormatException ignored) {
+                    }
+                    break;
+                default:
+            }
+            return true;
+        }
+
+        @Override
+        public boolean reconnect(URLResponse<?> response) {
+            // the server asks the client to stop reconnecting
+            return response.getStatus() != HttpURLConnection.HTTP_NO_CONTENT;
+        }
+
+        @Override
+        public long reconnectDelay(long delay) {
+            return retry < 0 ? delay : retry;
+        }
+
+        private boolean dispatch(Predicate<ServerSentEvent> emitter) {
+            if (id != null) lastEventId = id;
+            if (data.length() == 0) {
+                clear();
+                return true;
+            }
+            data.setLength(data.length() - 1);
+            ServerSentEvent sse = new ServerSentEvent(lastEventId, event == null || event.isEmpty() ? ServerSentEvent.DEFAULT_EVENT : event, data.toString());
+            clear();
+            return emitter.test(sse);
+        }
+
+        private void clear() {
+            data.setLength(0);
+            event = null;
+            id = null;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package pers.clare.urlrequest.stream;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+
+/**
+ * UTF-8 line protocol, lines end with CRLF, LF or CR.
+ */
+interface LineDecoder<E> extends StreamDecoder<E> {
+
+    @Override
+    default void decode(InputStream in, Predicate<E> emitter) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!decode(line, emitter)) return;
+        }
+    }
+
+    /**
+     * Decode one line.
+     *
+     * @return false to stop reading
+     */
+    boolean decode(String line, Predicate<E> emitter);
+}
@@ -0,0 +1,24 @@
+package pers.clare.urlrequest.stream;
+
+import pers.clare.urlrequest.HeaderValues;
+import pers.clare.urlrequest.URLRequest;
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Newline-delimited JSON publisher, every non-blank line is mapped to one item.
+ */
+public class NdjsonPublisher<E> extends StreamPublisher<E> {
+    private final Function<String, E> mapper;
+
+    public NdjsonPublisher(URLRequest<?> request, Function<String, E> mapper) {
+        super(request, HeaderValues.NDJSON);
+        this.mapper = mapper;
+    }
+
+    @Override
+    protected LineDecoder<E> newDecoder() {
+        return (line, emitter) -> line.isBlank() || emitter.test(mapper.apply(line));
+    }
+}
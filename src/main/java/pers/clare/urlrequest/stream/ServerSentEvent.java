@@ -0,0 +1,43 @@
+package pers.clare.urlrequest.stream;
+
+/**
+ * text/event-stream event.
+ */
+@SuppressWarnings("unused")
+public class ServerSentEvent {
+    public static final String DEFAULT_EVENT = "message";
+
+    private final String id;
+    private final String event;
+    private final String data;
+
+    ServerSentEvent(String id, String event, String data) {
+        this.id = id;
+        this.event = event;
+        this.data = data;
+    }
+
+    /**
+     * Last event id, null if the server never sent one.
+     */
+    public String getId() {
+        return id;
+    }
+
+    public String getEvent() {
+        return event;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "ServerSentEvent{" +
+               "id='" + id + '\'' +
+               ", event='" + event + '\'' +
+               ", data='" + data + '\'' +
+               '}';
+    }
+}
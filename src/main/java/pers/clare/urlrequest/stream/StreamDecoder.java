@@ -0,0 +1,41 @@
+package pers.clare.urlrequest.stream;
+
+import pers.clare.urlrequest.URLRequest;
+import pers.clare.urlrequest.URLResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Predicate;
+
+/**
+ * Per subscription stream protocol state.
+ */
+interface StreamDecoder<E> {
+
+    /**
+     * Prepare the request of every (re)connection.
+     */
+    default void prepare(URLRequest<?> request) {
+    }
+
+    /**
+     * Decode the response body until it ends or the emitter returns false.
+     *
+     * @param emitter blocks until demand, returns false when the subscription is cancelled
+     */
+    void decode(InputStream in, Predicate<E> emitter) throws IOException;
+
+    /**
+     * Whether to reconnect after the response ended.
+     */
+    default boolean reconnect(URLResponse<?> response) {
+        return true;
+    }
+
+    /**
+     * Delay before reconnecting.
+     */
+    default long reconnectDelay(long delay) {
+        return delay;
+    }
+}
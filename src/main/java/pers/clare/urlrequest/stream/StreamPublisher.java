@@ -0,0 +1,238 @@
+package pers.clare.urlrequest.stream;
+
+import pers.clare.urlrequest.HeaderNames;
+import pers.clare.urlrequest.URLRequest;
+import pers.clare.urlrequest.URLRequestMethod;
+import pers.clare.urlrequest.URLResponse;
+import pers.clare.urlrequest.exception.URLResponseException;
+import pers.clare.urlrequest.handler.ResponseHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.concurrent.*;
+
+/**
+ * Streaming response publisher.
+ * Every subscription reads on its own executor thread and only reads ahead when the subscriber has demand.
+ */
+@SuppressWarnings("unused")
+public abstract class StreamPublisher<E> implements Flow.Publisher<E> {
+    /**
+     * Max silence between two lines, heartbeat comments keep the stream alive.
+     */
+    public static final int DEFAULT_IDLE_TIMEOUT = 60000;
+
+    public static final long DEFAULT_RECONNECT_DELAY = 3000;
+
+    private static final Executor DEFAULT_EXECUTOR = Executors.newCachedThreadPool((runnable) -> {
+        Thread thread = new Thread(runnable, "url-request-stream");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final URLRequest<?> request;
+    private final String accept;
+    private Executor executor = DEFAULT_EXECUTOR;
+    private int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private long reconnectDelay = DEFAULT_RECONNECT_DELAY;
+    private boolean reconnect;
+
+    /**
+     * @param accept default Accept header, null to keep the request header
+     */
+    protected StreamPublisher(URLRequest<?> request, String accept) {
+        this.request = request;
+        this.accept = accept;
+    }
+
+    protected abstract StreamDecoder<E> newDecoder();
+
+    public StreamPublisher<E> executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public StreamPublisher<E> idleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    public StreamPublisher<E> reconnectDelay(long reconnectDelay) {
+        this.reconnectDelay = reconnectDelay;
+        return this;
+    }
+
+    /**
+     * Reconnect when the stream ends or the connection fails, HTTP error responses are always terminal
+     * and the decoder may end the stream too, e.g. text/event-stream on 204.
+     */
+    public StreamPublisher<E> reconnect(boolean reconnect) {
+        this.reconnect = reconnect;
+        return this;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super E> subscriber) {
+        Objects.requireNonNull(subscriber);
+        StreamSubscription subscription = new StreamSubscription(subscriber, newDecoder());
+        subscriber.onSubscribe(subscription);
+        try {
+            executor.execute(subscription::run);
+        } catch (RejectedExecutionException e) {
+            subscription.terminate(e);
+        }
+    }
+
+    private class StreamSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super E> subscriber;
+        private final StreamDecoder<E> decoder;
+        private long demand;
+        private boolean cancelled;
+        private boolean terminated;
+        private Throwable error;
+        private volatile InputStream current;
+
+        private StreamSubscription(Flow.Subscriber<? super E> subscriber, StreamDecoder<E> decoder) {
+            this.subscriber = subscriber;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (cancelled) return;
+            if (n <= 0) {
+                error = new IllegalArgumentException("non-positive request " + n);
+                cancel();
+                return;
+            }
+            demand += n;
+            if (demand < 0) demand = Long.MAX_VALUE;
+            notifyAll();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (cancelled) return;
+                cancelled = true;
+                notifyAll();
+            }
+            closeQuietly(current);
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void run() {
+            ResponseHandler<Void> handler = (in, charset) -> {
+                current = in;
+                if (isCancelled()) return null;
+                decoder.decode(in, this::emit);
+                return null;
+            };
+            try {
+                while (!isCancelled()) {
+                    URLRequest<Void> connect = URLRequest.build(request, handler)
+                            .readTimeout(idleTimeout);
+                    if (accept != null && !connect.getHeaders().containsKey(HeaderNames.ACCEPT)) {
+                        connect.header(HeaderNames.ACCEPT, accept);
+                    }
+                    decoder.prepare(connect);
+                    try {
+                        URLResponse<Void> response = connect.go(request.getMethod() == null ? URLRequestMethod.GET : request.getMethod());
+                        if (!reconnect || !decoder.reconnect(response)) break;
+                    } catch (URLResponseException e) {
+                        terminate(e);
+                        return;
+                    } catch (RuntimeException e) {
+                        if (isCancelled()) break;
+                        if (!reconnect) {
+                            terminate(e);
+                            return;
+                        }
+                    } finally {
+                        closeQuietly(current);
+                        current = null;
+                    }
+                    if (!sleep(decoder.reconnectDelay(reconnectDelay))) break;
+                }
+                terminate(null);
+            } catch (Throwable e) {
+                terminate(e);
+            }
+        }
+
+        /**
+         * Wait for demand, then deliver.
+         */
+        private boolean emit(E item) {
+            synchronized (this) {
+                while (demand == 0 && !cancelled) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        cancelled = true;
+                    }
+                }
+                if (cancelled) return false;
+                demand--;
+            }
+            try {
+                subscriber.onNext(item);
+                return true;
+            } catch (Throwable e) {
+                synchronized (this) {
+                    error = e;
+                }
+                cancel();
+                return false;
+            }
+        }
+
+        private synchronized boolean sleep(long millis) {
+            long end = System.currentTimeMillis() + millis;
+            long wait;
+            while (!cancelled && (wait = end - System.currentTimeMillis()) > 0) {
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelled = true;
+                }
+            }
+            return !cancelled;
+        }
+
+        /**
+         * Signal onComplete or onError once, nothing after a plain cancel.
+         */
+        private void terminate(Throwable e) {
+            synchronized (this) {
+                if (terminated) return;
+                terminated = true;
+                if (error != null) {
+                    e = error;
+                } else if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+            }
+            if (e == null) {
+                subscriber.onComplete();
+            } else {
+                subscriber.onError(e);
+            }
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in == null) return;
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
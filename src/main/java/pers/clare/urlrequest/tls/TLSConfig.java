@@ -0,0 +1,212 @@
+package pers.clare.urlrequest.tls;
+
+import javax.net.ssl.*;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reusable TLS settings, share one instance between requests.
+ * SSLContexts and socket factories are created once, so sessions are resumed and
+ * keep-alive connections are reused instead of paying a full handshake per call.
+ * Configure before first use.
+ */
+@SuppressWarnings("unused")
+public class TLSConfig {
+    public static final String HTTP_1_1 = "http/1.1";
+
+    public static final int DEFAULT_PORT = 443;
+    public static final int DEFAULT_TIMEOUT = 10000;
+
+    private final Map<String, KeyStore> hostTrustStores = new ConcurrentHashMap<>();
+    private final Map<String, SSLContext> contexts = new ConcurrentHashMap<>();
+    private final Map<String, SSLSocketFactory> socketFactories = new ConcurrentHashMap<>();
+    private String protocol = "TLS";
+    private KeyManager[] keyManagers;
+    private TrustManager[] trustManagers;
+    private HostnameVerifier hostnameVerifier;
+    private String[] applicationProtocols;
+    private Integer sessionCacheSize;
+    private Integer sessionTimeout;
+
+    public TLSConfig protocol(String protocol) {
+        this.protocol = protocol;
+        return reset();
+    }
+
+    /**
+     * Client certificates.
+     */
+    public TLSConfig keyManagers(KeyManager... keyManagers) {
+        this.keyManagers = keyManagers;
+        return reset();
+    }
+
+    public TLSConfig trustManagers(TrustManager... trustManagers) {
+        this.trustManagers = trustManagers;
+        return reset();
+    }
+
+    public TLSConfig trustStore(KeyStore trustStore) {
+        return trustManagers(trustManagers(trustStore));
+    }
+
+    /**
+     * Trust material used only for the host.
+     */
+    public TLSConfig trustStore(String host, KeyStore trustStore) {
+        hostTrustStores.put(host.toLowerCase(), trustStore);
+        return reset();
+    }
+
+    public TLSConfig hostnameVerifier(HostnameVerifier hostnameVerifier) {
+        this.hostnameVerifier = hostnameVerifier;
+        return this;
+    }
+
+    /**
+     * ALPN protocols of HttpsURLConnection sockets. HttpsURLConnection only speaks HTTP/1.1, so only
+     * {@value #HTTP_1_1} is ever advertised and other protocols such as h2 are dropped.
+     * {@link pers.clare.urlrequest.http2.Http2ConnectionFactory} ignores this setting, it negotiates from its version.
+     */
+    public TLSConfig applicationProtocols(String... applicationProtocols) {
+        this.applicationProtocols = applicationProtocols;
+        return reset();
+    }
+
+    /**
+     * Max cached client sessions, 0 means unlimited.
+     */
+    public TLSConfig sessionCacheSize(Integer sessionCacheSize) {
+        this.sessionCacheSize = sessionCacheSize;
+        return reset();
+    }
+
+    /**
+     * Cached session lifetime in seconds, 0 means unlimited.
+     */
+    public TLSConfig sessionTimeout(Integer sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+        return reset();
+    }
+
+    /**
+     * Shared context of hosts without their own trust material.
+     */
+    public SSLContext getSSLContext() {
+        return getSSLContext(null);
+    }
+
+    public SSLContext getSSLContext(String host) {
+        String key = contextKey(host);
+        return contexts.computeIfAbsent(key, (k) -> createContext(hostTrustStores.get(k)));
+    }
+
+    /**
+     * Cached socket factory of the host.
+     */
+    public SSLSocketFactory getSocketFactory(String host) {
+        return socketFactories.computeIfAbsent(contextKey(host), (key) -> {
+            SSLSocketFactory factory = getSSLContext(host).getSocketFactory();
+            String[] protocols = http1Protocols();
+            return protocols == null ? factory : new ConfiguredSSLSocketFactory(factory, protocols);
+        });
+    }
+
+    public HostnameVerifier getHostnameVerifier() {
+        return hostnameVerifier;
+    }
+
+    public void configure(HttpsURLConnection connection) {
+        connection.setSSLSocketFactory(getSocketFactory(connection.getURL().getHost()));
+        if (hostnameVerifier != null) {
+            connection.setHostnameVerifier(hostnameVerifier);
+        }
+    }
+
+    public void warmUp(String host, int port) throws IOException {
+        warmUp(host, port, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Handshake ahead of the first request, so the session is cached and later connections resume it.
+     * The server is verified like an HttpsURLConnection would, so an untrusted session is never cached.
+     *
+     * @param timeout connect and handshake timeout in millis
+     */
+    public void warmUp(String host, int port, int timeout) throws IOException {
+        try (SSLSocket socket = (SSLSocket) getSocketFactory(host).createSocket()) {
+            SSLParameters parameters = socket.getSSLParameters();
+            // a custom verifier replaces the endpoint identification, as in HttpsURLConnection
+            if (hostnameVerifier == null) parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            if (!isIpLiteral(host)) parameters.setServerNames(List.of(new SNIHostName(host)));
+            socket.setSSLParameters(parameters);
+            socket.setSoTimeout(timeout);
+            socket.connect(new InetSocketAddress(host, port), timeout);
+            socket.startHandshake();
+            if (hostnameVerifier != null && !hostnameVerifier.verify(host, socket.getSession())) {
+                socket.getSession().invalidate();
+                throw new SSLPeerUnverifiedException("hostname " + host + " not verified");
+            }
+        }
+    }
+
+    public void warmUp(URL url) throws IOException {
+        warmUp(url.getHost(), url.getPort() == -1 ? DEFAULT_PORT : url.getPort());
+    }
+
+    /**
+     * A server picking h2 would break the HTTP/1.1 connection, null to leave ALPN out.
+     */
+    private String[] http1Protocols() {
+        if (applicationProtocols == null) return null;
+        for (String protocol : applicationProtocols) {
+            if (HTTP_1_1.equalsIgnoreCase(protocol)) return new String[]{HTTP_1_1};
+        }
+        return null;
+    }
+
+    private static boolean isIpLiteral(String host) {
+        return host.indexOf(':') >= 0 || host.chars().allMatch((c) -> c == '.' || Character.isDigit(c));
+    }
+
+    private String contextKey(String host) {
+        if (host == null) return "";
+        String key = host.toLowerCase();
+        return hostTrustStores.containsKey(key) ? key : "";
+    }
+
+    private SSLContext createContext(KeyStore hostTrustStore) {
+        try {
+            SSLContext context = SSLContext.getInstance(protocol);
+            context.init(keyManagers, hostTrustStore == null ? trustManagers : trustManagers(hostTrustStore), null);
+            SSLSessionContext sessionContext = context.getClientSessionContext();
+            if (sessionCacheSize != null) sessionContext.setSessionCacheSize(sessionCacheSize);
+            if (sessionTimeout != null) sessionContext.setSessionTimeout(sessionTimeout);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private static TrustManager[] trustManagers(KeyStore trustStore) {
+        try {
+            TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            factory.init(trustStore);
+            return factory.getTrustManagers();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private TLSConfig reset() {
+        contexts.clear();
+        socketFactories.clear();
+        return this;
+    }
+}
@@ -0,0 +1,152 @@
+package pers.clare.urlrequest.trace;
+
+import java.net.URL;
+
+/**
+ * One request hop, redirects are sibling spans of the same parent.
+ */
+@SuppressWarnings("unused")
+public class Span {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String traceId;
+    private final long spanId;
+    private final String parentId;
+    private final boolean sampled;
+    private final String method;
+    private final URL url;
+    private final int hop;
+    private final long startTime = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private long durationNanos = -1;
+    private int status;
+    private String error;
+    private String traceparent;
+
+    Span(String traceId, long spanId, String parentId, boolean sampled, String method, URL url, int hop) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentId = parentId;
+        this.sampled = sampled;
+        this.method = method;
+        this.url = url;
+        this.hop = hop;
+    }
+
+    /**
+     * Set once the response status line is read.
+     */
+    public void status(int status) {
+        this.status = status;
+    }
+
+    /**
+     * @return false if already ended
+     */
+    boolean end(Throwable error) {
+        if (durationNanos >= 0) return false;
+        durationNanos = System.nanoTime() - startNanos;
+        if (error != null) this.error = error.getMessage() == null ? error.getClass().getName() : error.getMessage();
+        return true;
+    }
+
+    /**
+     * W3C traceparent header value naming this span as parent.
+     */
+    public String traceparent() {
+        if (traceparent == null) {
+            char[] chars = new char[55];
+            chars[0] = '0';
+            chars[1] = '0';
+            chars[2] = '-';
+            traceId.getChars(0, 32, chars, 3);
+            chars[35] = '-';
+            hex(spanId, chars, 36);
+            chars[52] = '-';
+            chars[53] = '0';
+            chars[54] = sampled ? '1' : '0';
+            traceparent = new String(chars);
+        }
+        return traceparent;
+    }
+
+    static void hex(long value, char[] chars, int offset) {
+        for (int i = 15; i >= 0; i--) {
+            chars[offset + i] = HEX[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        char[] chars = new char[16];
+        hex(spanId, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Null for a root span.
+     */
+    public String getParentId() {
+        return parentId;
+    }
+
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * 0 for the first hop, incremented by each redirect.
+     */
+    public int getHop() {
+        return hop;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * -1 until ended.
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * 0 if no response was received.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "Span{" +
+               "traceId='" + traceId + '\'' +
+               ", spanId='" + getSpanId() + '\'' +
+               ", parentId='" + parentId + '\'' +
+               ", method='" + method + '\'' +
+               ", url=" + url +
+               ", hop=" + hop +
+               ", durationNanos=" + durationNanos +
+               ", status=" + status +
+               ", error='" + error + '\'' +
+               '}';
+    }
+}
@@ -0,0 +1,46 @@
+package pers.clare.urlrequest.trace;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-process ring buffer keeping the latest spans, the oldest are overwritten.
+ */
+@SuppressWarnings("unused")
+public class SpanBuffer implements SpanExporter {
+    private final AtomicReferenceArray<Span> spans;
+    private final AtomicLong next = new AtomicLong();
+
+    public SpanBuffer(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.spans = new AtomicReferenceArray<>(capacity);
+    }
+
+    @Override
+    public void export(Span span) {
+        spans.set((int) (next.getAndIncrement() % spans.length()), span);
+    }
+
+    /**
+     * Spans exported since created, including overwritten ones.
+     */
+    public long count() {
+        return next.get();
+    }
+
+    /**
+     * Remove and return the buffered spans by start time.
+     */
+    public List<Span> drain() {
+        List<Span> result = new ArrayList<>();
+        for (int i = 0; i < spans.length(); i++) {
+            Span span = spans.getAndSet(i, null);
+            if (span != null) result.add(span);
+        }
+        result.sort(Comparator.comparingLong(Span::getStartTime));
+        return result;
+    }
+}
@@ -0,0 +1,10 @@
+package pers.clare.urlrequest.trace;
+
+/**
+ * Receives the sampled spans, called on the request thread.
+ */
+@FunctionalInterface
+public interface SpanExporter {
+
+    void export(Span span);
+}
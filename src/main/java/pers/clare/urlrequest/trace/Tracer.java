@@ -0,0 +1,104 @@
+package pers.clare.urlrequest.trace;
+
+import pers.clare.urlrequest.HeaderNames;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Propagates W3C trace context and records a span per request hop.
+ * A traceparent header on the request continues that trace and its sampling decision,
+ * otherwise a new trace is sampled by {@link #sampleRate(double)}.
+ * Unsampled hops still propagate traceparent but are not exported.
+ */
+@SuppressWarnings("unused")
+public class Tracer {
+    private double sampleRate = 1;
+    private SpanExporter exporter = (span) -> {
+    };
+
+    /**
+     * Fraction of new traces recorded, 0 to 1.
+     */
+    public Tracer sampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
+    public Tracer exporter(SpanExporter exporter) {
+        this.exporter = exporter;
+        return this;
+    }
+
+    /**
+     * Start the span of a request hop.
+     *
+     * @param previous the span of the previous redirect hop, null for the first hop
+     */
+    public Span start(String method, URL url, Map<String, List<String>> headers, Span previous) {
+        if (previous != null) {
+            return new Span(previous.getTraceId(), newId(), previous.getParentId(), previous.isSampled(), method, url, previous.getHop() + 1);
+        }
+        String traceparent = first(headers, HeaderNames.TRACEPARENT);
+        if (isValid(traceparent)) {
+            boolean sampled = (Character.digit(traceparent.charAt(54), 16) & 1) == 1;
+            return new Span(traceparent.substring(3, 35), newId(), traceparent.substring(36, 52), sampled, method, url, 0);
+        }
+        return new Span(newTraceId(), newId(), null, sample(), method, url, 0);
+    }
+
+    /**
+     * End the span and export it if sampled, ending twice does nothing.
+     */
+    public void end(Span span, Throwable error) {
+        if (span.end(error) && span.isSampled()) {
+            exporter.export(span);
+        }
+    }
+
+    private boolean sample() {
+        double rate = sampleRate;
+        if (rate >= 1) return true;
+        if (rate <= 0) return false;
+        return ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    private static String first(Map<String, List<String>> headers, String name) {
+        if (headers == null) return null;
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * version 00, 32 hex trace id, 16 hex parent id, 2 hex flags.
+     */
+    private static boolean isValid(String traceparent) {
+        if (traceparent == null || traceparent.length() != 55) return false;
+        if (traceparent.charAt(2) != '-' || traceparent.charAt(35) != '-' || traceparent.charAt(52) != '-') return false;
+        for (int i = 0; i < 55; i++) {
+            if (i == 2 || i == 35 || i == 52) continue;
+            char c = traceparent.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return !traceparent.startsWith("ff")
+               && !traceparent.regionMatches(3, "00000000000000000000000000000000", 0, 32)
+               && !traceparent.regionMatches(36, "0000000000000000", 0, 16);
+    }
+
+    private static long newId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    private static String newTraceId() {
+        char[] chars = new char[32];
+        Span.hex(ThreadLocalRandom.current().nextLong(), chars, 0);
+        Span.hex(newId(), chars, 16);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,19 @@
+package pers.clare.server.controller;
+
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+@RestController
+@RequestMapping("count")
+public class CountController {
+    private final AtomicLong counter = new AtomicLong();
+
+    @RequestMapping
+    public long request(long delay) throws InterruptedException {
+        long count = counter.incrementAndGet();
+        Thread.sleep(delay);
+        return count;
+    }
+}
@@ -0,0 +1,84 @@
+package pers.clare.server.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import pers.clare.urlrequest.UploadDictionary;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reference server of {@link UploadDictionary}, echoes the decoded body.
+ */
+@RestController
+@RequestMapping("dictionary")
+public class DictionaryController {
+    public static final String RECEIVED_LENGTH = "Received-Length";
+
+    private final Map<String, byte[]> dictionaries = new ConcurrentHashMap<>();
+
+    @PostMapping
+    public ResponseEntity<String> upload(HttpServletRequest request) throws Exception {
+        byte[] received = request.getInputStream().readAllBytes();
+        byte[] body = received;
+        if (UploadDictionary.CODING.equalsIgnoreCase(request.getHeader("Content-Encoding"))) {
+            byte[] dictionary = null;
+            String id = request.getHeader(UploadDictionary.AVAILABLE_DICTIONARY);
+            if (id != null) {
+                dictionary = dictionaries.get(id);
+                if (dictionary == null) return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+            }
+            body = inflate(received, dictionary);
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header(RECEIVED_LENGTH, String.valueOf(received.length));
+        String proposed = request.getHeader(UploadDictionary.USE_AS_DICTIONARY);
+        if (proposed != null) {
+            byte[] dictionary = UploadDictionary.tail(body);
+            if (proposed.equals(UploadDictionary.id(dictionary))) {
+                dictionaries.put(proposed, dictionary);
+                response.header(UploadDictionary.USE_AS_DICTIONARY, proposed);
+            }
+        }
+        return response.body(new String(body, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Forget every dictionary, like a restarted server.
+     */
+    @DeleteMapping
+    public void clear() {
+        dictionaries.clear();
+    }
+
+    private static byte[] inflate(byte[] data, byte[] dictionary) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsDictionary()) {
+                    if (dictionary == null) throw new DataFormatException("dictionary required");
+                    inflater.setDictionary(dictionary);
+                } else if (n == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("truncated");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+}
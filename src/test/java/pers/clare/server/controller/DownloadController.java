@@ -0,0 +1,30 @@
+package pers.clare.server.controller;
+
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Range aware download, served by Spring resource handling.
+ */
+@RestController
+@RequestMapping("download")
+public class DownloadController {
+
+    public static byte[] content(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31 % 251);
+        }
+        return bytes;
+    }
+
+    @RequestMapping
+    public ResponseEntity<Resource> download(int size) {
+        return ResponseEntity.ok()
+                .eTag("\"" + size + "\"")
+                .body(new ByteArrayResource(content(size)));
+    }
+}
@@ -0,0 +1,22 @@
+package pers.clare.server.controller;
+
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+@RestController
+@RequestMapping("multipart")
+public class MultipartController {
+
+    @RequestMapping
+    public String request(
+            @RequestParam("text") String text
+            , @RequestParam("file") MultipartFile file
+    ) throws IOException {
+        return text + ":" + file.getOriginalFilename() + ":" + new String(file.getBytes(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,42 @@
+package pers.clare.server.controller;
+
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+@RestController
+@RequestMapping("stream")
+public class StreamController {
+
+    @RequestMapping("sse")
+    public void sse(
+            HttpServletResponse response
+            , @RequestHeader(value = "Last-Event-ID", required = false) Integer lastEventId
+    ) throws IOException {
+        int start = lastEventId == null ? 0 : lastEventId;
+        response.setContentType("text/event-stream;charset=UTF-8");
+        PrintWriter writer = response.getWriter();
+        writer.write(": heartbeat\n\n");
+        for (int i = start + 1; i <= start + 3; i++) {
+            writer.write("id: " + i + "\nevent: tick\ndata: " + i + "\ndata: 身體\n\n");
+        }
+        writer.flush();
+    }
+
+    @RequestMapping("ndjson")
+    public void ndjson(
+            HttpServletResponse response
+            , int count
+    ) throws IOException {
+        response.setContentType("application/x-ndjson");
+        PrintWriter writer = response.getWriter();
+        for (int i = 0; i < count; i++) {
+            writer.write("{\"time\":" + i + ",\"data\":[\"" + i + "\"]}\n");
+        }
+        writer.flush();
+    }
+}
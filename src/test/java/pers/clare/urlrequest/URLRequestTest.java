@@ -4,17 +4,82 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.*;
 import pers.clare.server.Application;
+import pers.clare.server.controller.DictionaryController;
+import pers.clare.server.controller.DownloadController;
+import pers.clare.urlrequest.auth.AccessToken;
+import pers.clare.urlrequest.auth.TokenManager;
+import pers.clare.urlrequest.body.MultipartBody;
+import pers.clare.urlrequest.cache.DiskCache;
+import pers.clare.urlrequest.exception.ConcurrencyLimitException;
+import pers.clare.urlrequest.exception.ResponseBodyTooLargeException;
 import pers.clare.urlrequest.exception.URLRequestException;
 import pers.clare.urlrequest.exception.URLResponseException;
 import pers.clare.urlrequest.handler.ResponseHandler;
+import pers.clare.urlrequest.http2.Http2ConnectionFactory;
+import pers.clare.urlrequest.keepalive.KeepAliveGuard;
+import pers.clare.urlrequest.limit.AimdLimit;
+import pers.clare.urlrequest.limit.ConcurrencyLimiter;
+import pers.clare.urlrequest.limit.GradientLimit;
+import pers.clare.urlrequest.load.LatencyHistogram;
+import pers.clare.urlrequest.load.LoadGenerator;
+import pers.clare.urlrequest.load.LoadReport;
+import pers.clare.urlrequest.log.AsyncLogSink;
+import pers.clare.urlrequest.log.LogEntry;
+import pers.clare.urlrequest.log.RequestLogger;
+import pers.clare.urlrequest.mock.MockResponse;
+import pers.clare.urlrequest.mock.MockRoute;
+import pers.clare.urlrequest.mock.MockTransport;
+import pers.clare.urlrequest.proxy.ProxyRoutes;
+import pers.clare.urlrequest.schedule.Priority;
+import pers.clare.urlrequest.schedule.RequestScheduler;
+import pers.clare.urlrequest.stream.ServerSentEvent;
+import pers.clare.urlrequest.tls.TLSConfig;
+import pers.clare.urlrequest.trace.Span;
+import pers.clare.urlrequest.trace.SpanBuffer;
+import pers.clare.urlrequest.trace.Tracer;
 import pers.clare.urlrequest.util.PerformanceUtil;
 import pers.clare.urlrequest.vo.Data;
 
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.UUID;
+import java.net.ConnectException;
+import java.net.CookieManager;
+import java.net.HttpCookie;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
 
 @DisplayName("URLRequestTest")
@@ -258,4 +323,1971 @@ class URLRequestTest {
         }
     }
 
+    @Nested
+    @TestInstance(PER_CLASS)
+    class body_limit {
+        private final String url = "http://127.0.0.1:" + port + "/string?param=param";
+
+        private URLRequest<String> build() {
+            return URLRequest.build(url)
+                    .param("body", "abcdef")
+                    .maxBodySize(5);
+        }
+
+        @Test
+        void truncate() {
+            assertEquals("param", build().bodyLimitPolicy(BodyLimitPolicy.TRUNCATE).get().getBody());
+        }
+
+        @Test
+        void fail() {
+            URLRequestException exception = assertThrows(URLRequestException.class, build().bodyLimitPolicy(BodyLimitPolicy.FAIL)::get);
+            assertTrue(exception.getCause() instanceof ResponseBodyTooLargeException);
+        }
+
+        @Test
+        void within_limit() {
+            assertEquals("paramabcdef", build().maxBodySize(11).get().getBody());
+        }
+
+        @Test
+        void error_body() {
+            MockTransport transport = new MockTransport();
+            transport.route("/error").respond(MockResponse.of(500).body("abcdefghij"));
+            URLResponseException exception = assertThrows(URLResponseException.class, URLRequest.build("http://mock/error")
+                    .connectionFactory(transport)
+                    .maxErrorBodySize(4)
+                    .bodyLimitPolicy(BodyLimitPolicy.TRUNCATE)::get);
+            assertEquals("abcd", exception.getResponse().getBody());
+        }
+
+        @Test
+        void error_body_keeps_status() {
+            MockTransport transport = new MockTransport();
+            transport.route("/error/large").respond(MockResponse.of(503).body("abcdefghij"));
+            // FAIL applies to success bodies, an error body over the limit must not hide the status
+            URLResponseException exception = assertThrows(URLResponseException.class, URLRequest.build("http://mock/error/large")
+                    .connectionFactory(transport)
+                    .maxErrorBodySize(4)::get);
+            assertEquals(503, exception.getResponse().getStatus());
+            assertEquals("abcd", exception.getResponse().getBody());
+        }
+
+        @Test
+        void untrusted_content_length() {
+            // without a limit, a huge Content-Length must not be allocated up front
+            MockTransport transport = new MockTransport();
+            transport.route("/lying").respond(MockResponse.ok("short").header(HeaderNames.CONTENT_LENGTH, "2000000000"));
+            byte[] large = DownloadController.content(3 * 1024 * 1024);
+            transport.route("/large").respond(MockResponse.of(200).body(large));
+            assertEquals("short", URLRequest.build("http://mock/lying").connectionFactory(transport).get().getBody());
+            assertEquals(5, URLRequest.build("http://mock/lying", URLRequestUtil.toBytesHandler).connectionFactory(transport).get().getBody().length);
+            assertArrayEquals(large, URLRequest.build("http://mock/large", URLRequestUtil.toBytesHandler).connectionFactory(transport).get().getBody());
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class multipart {
+        private final String url = "http://127.0.0.1:" + port + "/multipart";
+        private final String content = "檔案內容";
+
+        @Test
+        void fixed_length() {
+            MultipartBody body = new MultipartBody()
+                    .part("text", "身體")
+                    .part("file", content.getBytes(StandardCharsets.UTF_8), "a.txt", HeaderValues.HTML);
+            assertTrue(body.contentLength() > 0);
+            assertEquals("身體:a.txt:" + content, URLRequest.build(url).body(body).post().getBody());
+        }
+
+        @Test
+        void chunked() {
+            MultipartBody body = new MultipartBody()
+                    .part("text", "身體")
+                    .part("file", new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), "b.txt", null);
+            assertEquals(-1, body.contentLength());
+            assertEquals("身體:b.txt:" + content, URLRequest.build(url).body(body).post().getBody());
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class stream {
+        private final ObjectMapper om = new ObjectMapper();
+
+        private <E> List<E> collect(Flow.Publisher<E> publisher, int count) throws Exception {
+            List<E> items = new ArrayList<>();
+            CompletableFuture<List<E>> future = new CompletableFuture<>();
+            publisher.subscribe(new Flow.Subscriber<>() {
+                private Flow.Subscription subscription;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(E item) {
+                    items.add(item);
+                    if (items.size() == count) {
+                        subscription.cancel();
+                        future.complete(items);
+                    } else {
+                        subscription.request(1);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    future.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    future.complete(items);
+                }
+            });
+            return future.get(10, TimeUnit.SECONDS);
+        }
+
+        @Test
+        void event_stream_reconnect() throws Exception {
+            List<ServerSentEvent> events = collect(URLRequest.build("http://127.0.0.1:" + port + "/stream/sse")
+                    .eventStream()
+                    .reconnectDelay(10), 5);
+            assertEquals(5, events.size());
+            for (int i = 0; i < events.size(); i++) {
+                ServerSentEvent event = events.get(i);
+                assertEquals(String.valueOf(i + 1), event.getId());
+                assertEquals("tick", event.getEvent());
+                assertEquals((i + 1) + "\n身體", event.getData());
+            }
+        }
+
+        @Test
+        void event_stream_no_content() throws Exception {
+            MockTransport transport = new MockTransport();
+            transport.route("/sse").respond(MockResponse.of(204));
+            List<ServerSentEvent> events = collect(URLRequest.build("http://mock/sse")
+                    .connectionFactory(transport)
+                    .eventStream()
+                    .reconnectDelay(10), 5);
+            assertTrue(events.isEmpty());
+            assertEquals(1, transport.count());
+        }
+
+        @Test
+        void ndjson() throws Exception {
+            List<Data> list = collect(URLRequest.build("http://127.0.0.1:" + port + "/stream/ndjson")
+                    .param("count", 3)
+                    .ndjson((line) -> {
+                        try {
+                            return om.readValue(line, Data.class);
+                        } catch (JsonProcessingException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }), 100);
+            assertEquals(3, list.size());
+            assertEquals(new Data(2L, new String[]{"2"}), list.get(2));
+        }
+
+        private Flow.Publisher<ByteBuffer> publisher(byte[] bytes, int chunk) {
+            return (subscriber) -> subscriber.onSubscribe(new Flow.Subscription() {
+                private int position;
+                private boolean done;
+
+                @Override
+                public synchronized void request(long n) {
+                    while (n-- > 0 && !done) {
+                        if (position == bytes.length) {
+                            done = true;
+                            subscriber.onComplete();
+                            return;
+                        }
+                        int length = Math.min(chunk, bytes.length - position);
+                        subscriber.onNext(ByteBuffer.wrap(bytes, position, length));
+                        position += length;
+                    }
+                }
+
+                @Override
+                public synchronized void cancel() {
+                    done = true;
+                }
+            });
+        }
+
+        @Test
+        void byte_buffer() throws Exception {
+            Data data = new Data(System.currentTimeMillis(), new String[]{"1", "2", "身體"});
+            byte[] bytes = om.writeValueAsBytes(data);
+            List<ByteBuffer> buffers = collect(URLRequest.build("http://127.0.0.1:" + port + "/json")
+                    .header(HeaderNames.CONTENT_TYPE, HeaderValues.JSON)
+                    .body(publisher(bytes, 3), -1)
+                    .method(URLRequestMethod.POST)
+                    .publisher()
+                    .bufferSize(4), Integer.MAX_VALUE);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (ByteBuffer buffer : buffers) {
+                assertTrue(buffer.remaining() <= 4);
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            }
+            assertEquals(data, om.readValue(out.toByteArray(), Data.class));
+        }
+
+        @Test
+        void broken_publisher() {
+            MockTransport transport = new MockTransport();
+            transport.route("/upload").respond(MockResponse.ok("ok"));
+            Flow.Publisher<ByteBuffer> stalled = (subscriber) -> subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            URLRequestException e = assertThrows(URLRequestException.class, URLRequest.build("http://mock/upload")
+                    .connectionFactory(transport)
+                    .readTimeout(200)
+                    .body(stalled, -1)::post);
+            assertTrue(e.getCause() instanceof SocketTimeoutException, String.valueOf(e.getCause()));
+            // ignores the demand
+            Flow.Publisher<ByteBuffer> flooding = (subscriber) -> {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                for (int i = 0; i < 100; i++) {
+                    subscriber.onNext(ByteBuffer.wrap(new byte[]{1}));
+                }
+                subscriber.onComplete();
+            };
+            assertThrows(URLRequestException.class, URLRequest.build("http://mock/upload")
+                    .connectionFactory(transport)
+                    .body(flooding, -1)::post);
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class http2 {
+        private final Http2ConnectionFactory factory = new Http2ConnectionFactory()
+                .maxConcurrentStreams(10)
+                .connections(2);
+        private final Data data = new Data(System.currentTimeMillis(), new String[]{"1", "2"});
+        private final ObjectMapper om = new ObjectMapper();
+        private final ResponseHandler<Data> handler = (in, charset) -> om.readValue(new InputStreamReader(in, charset), Data.class);
+
+        private URLRequest<Data> build(String path, String method) throws JsonProcessingException {
+            return URLRequest
+                    .build("http://127.0.0.1:" + port + path, handler)
+                    .connectionFactory(factory)
+                    .method(method)
+                    .header(HeaderNames.CONTENT_TYPE, HeaderValues.JSON)
+                    .body(om.writeValueAsString(data));
+        }
+
+        @Test
+        void string() {
+            assertEquals("param身體", URLRequest.build("http://127.0.0.1:" + port + "/string?param=param")
+                    .connectionFactory(factory)
+                    .param("body", "身體")
+                    .get()
+                    .getBody());
+        }
+
+        @Test
+        void json() throws Exception {
+            assertEquals(data, build("/json", URLRequestMethod.POST).go().getBody());
+            assertEquals(data, build("/json", URLRequestMethod.PUT).go().getBody());
+        }
+
+        @Test
+        void error() throws Exception {
+            URLResponseException exception = assertThrows(URLResponseException.class, build("/json", URLRequestMethod.GET)::go);
+            assertEquals(400, exception.getResponse().getStatus());
+        }
+
+        @Test
+        void restricted_headers() {
+            // headers java.net.http rejects are dropped instead of failing the request
+            assertEquals("param", URLRequest.build("http://127.0.0.1:" + port + "/string?param=param")
+                    .connectionFactory(factory)
+                    .header(HeaderNames.DATE, "Tue, 15 Nov 1994 08:12:31 GMT")
+                    .header(HeaderNames.VIA, "1.1 proxy")
+                    .header(HeaderNames.WARNING, "199 - \"note\"")
+                    .header(HeaderNames.FROM, "user@example.com")
+                    .get()
+                    .getBody());
+        }
+
+        @Test
+        void redirect() throws Exception {
+            assertEquals(data, build("/redirect?path=json", URLRequestMethod.POST).redirectAny(true).go().getBody());
+        }
+
+        @Test
+        void redirect_release_stream() {
+            // one stream, a hop which kept its permit would time out the next request
+            Http2ConnectionFactory single = new Http2ConnectionFactory()
+                    .maxConcurrentStreams(1)
+                    .connections(1)
+                    .connectTimeout(1000);
+            for (int i = 0; i < 3; i++) {
+                assertEquals("param身體", URLRequest.build("http://127.0.0.1:" + port + "/redirect?path=string")
+                        .connectionFactory(single)
+                        .redirectAny(true)
+                        .param("param", "param")
+                        .param("body", "身體")
+                        .get()
+                        .getBody());
+            }
+        }
+
+        @Test
+        void performance() throws Exception {
+            PerformanceUtil.byTime(100, 10000, this::string);
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class tls {
+        private final TLSConfig tls = new TLSConfig()
+                .applicationProtocols("http/1.1")
+                .sessionCacheSize(100)
+                .sessionTimeout(3600);
+
+        @Test
+        void reuse_context() throws Exception {
+            HttpsURLConnection first = (HttpsURLConnection) new URL("https://127.0.0.1/a").openConnection();
+            HttpsURLConnection second = (HttpsURLConnection) new URL("https://127.0.0.1/b").openConnection();
+            tls.configure(first);
+            tls.configure(second);
+            assertSame(first.getSSLSocketFactory(), second.getSSLSocketFactory());
+            assertEquals(100, tls.getSSLContext().getClientSessionContext().getSessionCacheSize());
+        }
+
+        @Test
+        void alpn() throws Exception {
+            try (SSLSocket socket = (SSLSocket) tls.getSocketFactory("127.0.0.1").createSocket()) {
+                assertArrayEquals(new String[]{"http/1.1"}, socket.getSSLParameters().getApplicationProtocols());
+            }
+            // HttpsURLConnection cannot speak h2, a server must never be offered it
+            TLSConfig h2 = new TLSConfig().applicationProtocols("h2", "http/1.1");
+            try (SSLSocket socket = (SSLSocket) h2.getSocketFactory("127.0.0.1").createSocket()) {
+                assertArrayEquals(new String[]{"http/1.1"}, socket.getSSLParameters().getApplicationProtocols());
+            }
+            TLSConfig only = new TLSConfig().applicationProtocols("h2");
+            try (SSLSocket socket = (SSLSocket) only.getSocketFactory("127.0.0.1").createSocket()) {
+                assertEquals(0, socket.getSSLParameters().getApplicationProtocols().length);
+            }
+        }
+
+        @Test
+        void warm_up_resume() throws Exception {
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            try (InputStream in = getClass().getResourceAsStream("/tls/localhost.p12")) {
+                keyStore.load(in, "changeit".toCharArray());
+            }
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore, "changeit".toCharArray());
+            SSLContext server = SSLContext.getInstance("TLSv1.2");
+            server.init(keyManagers.getKeyManagers(), null, null);
+            try (SSLServerSocket serverSocket = (SSLServerSocket) server.getServerSocketFactory().createServerSocket(0)) {
+                Thread acceptor = new Thread(() -> {
+                    while (!serverSocket.isClosed()) {
+                        try (SSLSocket socket = (SSLSocket) serverSocket.accept()) {
+                            socket.startHandshake();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                });
+                acceptor.setDaemon(true);
+                acceptor.start();
+                int tlsPort = serverSocket.getLocalPort();
+                // TLS 1.2 session ids show the resumption
+                TLSConfig config = new TLSConfig().protocol("TLSv1.2").trustStore(keyStore);
+                // the certificate names localhost only
+                assertThrows(SSLHandshakeException.class, () -> config.warmUp("127.0.0.1", tlsPort));
+                config.warmUp("localhost", tlsPort);
+                List<byte[]> ids = Collections.list(config.getSSLContext().getClientSessionContext().getIds());
+                assertEquals(1, ids.size());
+                try (SSLSocket socket = (SSLSocket) config.getSocketFactory("localhost").createSocket("localhost", tlsPort)) {
+                    socket.startHandshake();
+                    assertArrayEquals(ids.get(0), socket.getSession().getId());
+                }
+            }
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class warm_up {
+
+        @Test
+        void run() {
+            Map<String, Throwable> failures = URLRequestWarmUp.of("http://127.0.0.1:" + port + "/string", "http://127.0.0.1:" + port + "/json")
+                    .connectionsPerHost(4)
+                    .iterations(1000)
+                    .run();
+            assertTrue(failures.isEmpty(), failures.toString());
+        }
+
+        @Test
+        void unknown_host() {
+            Map<String, Throwable> failures = URLRequestUtil.warmUp(List.of("http://" + UUID.randomUUID() + ".invalid"), 1);
+            assertEquals(1, failures.size());
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class single_flight {
+        private final SingleFlight singleFlight = new SingleFlight(HeaderNames.AUTHORIZATION);
+
+        private Callable<String> call(String authorization) {
+            return () -> URLRequest.build("http://127.0.0.1:" + port + "/count")
+                    .singleFlight(singleFlight)
+                    .header(HeaderNames.AUTHORIZATION, authorization)
+                    .param("delay", 500)
+                    .get()
+                    .getBody();
+        }
+
+        @Test
+        void coalesce() throws Exception {
+            ExecutorService executor = Executors.newFixedThreadPool(20);
+            try {
+                List<Callable<String>> calls = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    calls.add(call(i % 2 == 0 ? "a" : "b"));
+                }
+                Set<String> bodies = new HashSet<>();
+                for (Future<String> future : executor.invokeAll(calls)) {
+                    bodies.add(future.get());
+                }
+                // one call per authorization
+                assertEquals(2, bodies.size());
+                assertEquals(0, singleFlight.size());
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        @Test
+        void credentials_and_limits() throws Exception {
+            MockTransport transport = new MockTransport();
+            MockRoute route = transport.route("/shared").respond(MockResponse.ok("abcdef")).latency(300);
+            SingleFlight plain = new SingleFlight();
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Callable<String>> calls = new ArrayList<>();
+                for (String cookie : new String[]{"a", "b", "a", "b"}) {
+                    calls.add(() -> URLRequest.build("http://mock/shared")
+                            .connectionFactory(transport)
+                            .singleFlight(plain)
+                            .header(HeaderNames.COOKIE, "session=" + cookie)
+                            .get()
+                            .getBody());
+                }
+                executor.invokeAll(calls);
+                // cookies are always part of the key
+                assertTrue(route.count() >= 2);
+
+                calls.clear();
+                for (int i = 0; i < 4; i++) {
+                    int maxBodySize = i % 2 == 0 ? 3 : 100;
+                    calls.add(() -> URLRequest.build("http://mock/shared")
+                            .connectionFactory(transport)
+                            .singleFlight(plain)
+                            .maxBodySize(maxBodySize)
+                            .bodyLimitPolicy(BodyLimitPolicy.TRUNCATE)
+                            .get()
+                            .getBody());
+                }
+                Set<String> bodies = new HashSet<>();
+                for (Future<String> future : executor.invokeAll(calls)) {
+                    bodies.add(future.get());
+                }
+                // each caller reads within its own limit
+                assertEquals(Set.of("abc", "abcdef"), bodies);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class http_request {
+        private final ObjectMapper om = new ObjectMapper();
+        private final Data data = new Data(System.currentTimeMillis(), new String[]{"1", "2"});
+        private final ResponseHandler<Data> handler = (in, charset) -> om.readValue(new InputStreamReader(in, charset), Data.class);
+
+        @Test
+        void params_and_body() throws Exception {
+            HttpRequest bean = new HttpRequest();
+            bean.setUrl("http://127.0.0.1:" + port + "/json");
+            bean.setMethod(URLRequestMethod.POST);
+            bean.setHeaders(HeaderNames.CONTENT_TYPE + ": " + HeaderValues.JSON);
+            bean.setParams("param: param");
+            bean.setBody(om.writeValueAsString(data));
+            assertEquals(data, URLRequestUtil.createRequest(bean, handler).go().getBody());
+            assertSame(HttpRequestTemplate.of(bean), HttpRequestTemplate.of(bean));
+        }
+
+        @Test
+        void load_http() throws Exception {
+            String text = "# string\n" +
+                          "GET http://127.0.0.1:" + port + "/string?param=param&body=1 HTTP/1.1\n" +
+                          "Accept: text/plain\n" +
+                          "\n" +
+                          "###\n" +
+                          "POST http://127.0.0.1:" + port + "/json\n" +
+                          "# header comment\n" +
+                          "Content-Type: application/json\n" +
+                          "// Authorization: Bearer off\n" +
+                          "\n" +
+                          om.writeValueAsString(data) + "\n" +
+                          "\n";
+            List<HttpRequest> beans = HttpRequestLoader.loadHttp(text);
+            assertEquals(2, beans.size());
+            assertEquals("Content-Type: application/json\n", beans.get(1).getHeaders());
+            assertEquals("param1", HttpRequestTemplate.compile(beans.get(0)).execute().getBody());
+            assertEquals(data, HttpRequestTemplate.compile(beans.get(1)).execute(handler).getBody());
+        }
+
+        @Test
+        void load_json_lines() throws Exception {
+            Path path = Files.createTempFile("requests", ".jsonl");
+            try {
+                List<String> lines = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    lines.add("{\"url\":\"http://127.0.0.1:" + port + "/string\",\"method\":\"POST\",\"params\":\"param: " + i + "\\nbody: \\u8eab\",\"readTimeout\":5000}");
+                }
+                Files.write(path, lines);
+                ExecutorService executor = Executors.newFixedThreadPool(4);
+                try {
+                    List<CompletableFuture<URLResponse<String>>> futures = HttpRequestLoader.executeAll(HttpRequestLoader.compile(path), URLRequestUtil.toStringHandler, executor);
+                    for (int i = 0; i < futures.size(); i++) {
+                        assertEquals(i + "身", futures.get(i).get().getBody());
+                    }
+                } finally {
+                    executor.shutdown();
+                }
+            } finally {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class upload_dictionary {
+        private final String url = "http://127.0.0.1:" + port + "/dictionary";
+
+        private String document(int version) {
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < 500; i++) {
+                if (i > 0) sb.append(',');
+                sb.append("{\"id\":").append(i).append(",\"name\":\"item-").append(i * 7919 % 1000)
+                        .append("\",\"version\":").append(i == 250 ? version : 0).append('}');
+            }
+            return sb.append(']').toString();
+        }
+
+        private URLResponse<String> upload(UploadDictionary dictionary, String body) {
+            return URLRequest.build(url)
+                    .uploadDictionary(dictionary)
+                    .body(body.getBytes(StandardCharsets.UTF_8))
+                    .post();
+        }
+
+        private int received(URLResponse<?> response) {
+            for (Map.Entry<String, List<String>> entry : response.getHeaders().entrySet()) {
+                if (DictionaryController.RECEIVED_LENGTH.equalsIgnoreCase(entry.getKey())) {
+                    return Integer.parseInt(entry.getValue().get(0));
+                }
+            }
+            return -1;
+        }
+
+        @Test
+        void repeat() {
+            UploadDictionary dictionary = new UploadDictionary();
+            String first = document(1);
+            URLResponse<String> response = upload(dictionary, first);
+            assertEquals(first, response.getBody());
+            assertEquals(1, dictionary.size());
+            int plain = received(response);
+
+            String second = document(2);
+            response = upload(dictionary, second);
+            assertEquals(second, response.getBody());
+            int delta = received(response);
+            assertTrue(delta * 4 < plain, delta + " vs " + plain);
+        }
+
+        @Test
+        void lost() {
+            UploadDictionary dictionary = new UploadDictionary();
+            upload(dictionary, document(1));
+            assertEquals(1, dictionary.size());
+            URLRequest.build(url).delete();
+            // 412, then resent without the dictionary
+            String body = document(3);
+            URLResponse<String> response = upload(dictionary, body);
+            assertEquals(body, response.getBody());
+            assertEquals(1, dictionary.size());
+            body = document(4);
+            assertEquals(body, upload(dictionary, body).getBody());
+        }
+
+        @Test
+        void unsupported() {
+            MockTransport transport = new MockTransport();
+            MockRoute route = transport.route("/plain").respond(MockResponse.ok("ok")).record();
+            UploadDictionary dictionary = new UploadDictionary();
+            byte[] body = document(1).getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < 2; i++) {
+                URLRequest.build("http://mock/plain")
+                        .connectionFactory(transport)
+                        .uploadDictionary(dictionary)
+                        .body(body)
+                        .post();
+                // never encoded for a server which did not echo the proposal
+                assertArrayEquals(body, route.last().getBody());
+                assertNull(route.last().getHeaders().get(HeaderNames.CONTENT_ENCODING));
+                assertNotNull(route.last().getHeaders().get(UploadDictionary.USE_AS_DICTIONARY));
+            }
+            assertEquals(0, dictionary.size());
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class mock_transport {
+        private final MockTransport transport = new MockTransport();
+
+        private URLRequest<String> request(String path) {
+            return URLRequest.build("http://mock" + path)
+                    .connectionFactory(transport);
+        }
+
+        @Test
+        void sequence() {
+            MockRoute route = transport.route("/sequence")
+                    .respond(MockResponse.of(503), MockResponse.ok("ok").header(HeaderNames.CONTENT_TYPE, "text/plain"))
+                    .record();
+            URLResponseException e = assertThrows(URLResponseException.class, () -> request("/sequence").get());
+            assertEquals(503, e.getResponse().getStatus());
+            assertEquals("ok", request("/sequence").post().getBody());
+            assertEquals("ok", request("/sequence").get().getBody());
+            assertEquals(3, route.count());
+            assertEquals("GET", route.last().getMethod());
+            assertThrows(URLResponseException.class, () -> request("/missing").get());
+        }
+
+        @Test
+        void body() {
+            MockRoute route = transport.route("POST", "/echo").record();
+            request("/echo").body("hello").post();
+            assertEquals("hello", new String(route.last().getBody(), StandardCharsets.UTF_8));
+        }
+
+        @Test
+        void redirect() {
+            transport.route("/from").respond(MockResponse.of(302).header(HeaderNames.LOCATION, "/to"));
+            transport.route("/to").respond(MockResponse.ok("to"));
+            assertEquals("to", request("/from").get().getBody());
+        }
+
+        @Test
+        void failure() {
+            MockRoute route = transport.route("/error").errorRate(1);
+            assertThrows(URLRequestException.class, () -> request("/error").get());
+            assertEquals(1, route.count());
+        }
+
+        @Test
+        void timeout() {
+            transport.route("/slow").latency(1000);
+            long start = System.currentTimeMillis();
+            assertThrows(URLRequestException.class, () -> request("/slow").readTimeout(50).get());
+            assertTrue(System.currentTimeMillis() - start < 1000);
+        }
+
+        @Test
+        void bandwidth() {
+            transport.route("/large").respond(MockResponse.of(200).body(new byte[20000])).bandwidth(100000);
+            long start = System.currentTimeMillis();
+            URLResponse<byte[]> response = URLRequest.build("http://mock/large", URLRequestUtil.toBytesHandler)
+                    .connectionFactory(transport)
+                    .get();
+            assertEquals(20000, response.getBody().length);
+            assertTrue(System.currentTimeMillis() - start >= 190);
+        }
+
+        @Test
+        void throughput() {
+            MockRoute route = transport.route("/fast").respond(MockResponse.ok("1"));
+            URLRequest<String> request = request("/fast");
+            int count = 100000;
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                request.get();
+            }
+            System.out.printf("mock transport %d requests %d ms%n", count, System.currentTimeMillis() - start);
+            assertEquals(count, route.count());
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class tracing {
+        private final MockTransport transport = new MockTransport();
+        private final MockRoute target = transport.route("/target").respond(MockResponse.ok("ok")).record();
+        private final SpanBuffer buffer = new SpanBuffer(16);
+        private final Tracer tracer = new Tracer().exporter(buffer);
+
+        private URLRequest<String> request(String path) {
+            return URLRequest.build("http://mock" + path)
+                    .connectionFactory(transport)
+                    .tracer(tracer);
+        }
+
+        private String traceparent() {
+            return target.last().getHeaders().get(HeaderNames.TRACEPARENT).get(0);
+        }
+
+        @Test
+        void inject() {
+            buffer.drain();
+            request("/target").get();
+            List<Span> spans = buffer.drain();
+            assertEquals(1, spans.size());
+            Span span = spans.get(0);
+            assertEquals(200, span.getStatus());
+            assertEquals("00-" + span.getTraceId() + "-" + span.getSpanId() + "-01", traceparent());
+            assertTrue(span.getDurationNanos() >= 0);
+        }
+
+        @Test
+        void continue_trace() {
+            buffer.drain();
+            String parent = "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01";
+            request("/target").header(HeaderNames.TRACEPARENT, parent).get();
+            Span span = buffer.drain().get(0);
+            assertEquals("0af7651916cd43dd8448eb211c80319c", span.getTraceId());
+            assertEquals("b7ad6b7169203331", span.getParentId());
+            assertTrue(traceparent().startsWith("00-0af7651916cd43dd8448eb211c80319c-"));
+            assertTrue(!traceparent().contains("b7ad6b7169203331"));
+        }
+
+        @Test
+        void redirect() {
+            buffer.drain();
+            transport.route("/redirect").respond(MockResponse.of(302).header(HeaderNames.LOCATION, "http://mock/target"));
+            request("/redirect").redirectAny(true).get();
+            List<Span> spans = buffer.drain();
+            assertEquals(2, spans.size());
+            assertEquals(302, spans.get(0).getStatus());
+            assertEquals(200, spans.get(1).getStatus());
+            assertEquals(1, spans.get(1).getHop());
+            assertEquals(spans.get(0).getTraceId(), spans.get(1).getTraceId());
+            assertEquals(spans.get(1).getSpanId(), traceparent().substring(36, 52));
+        }
+
+        @Test
+        void unsampled() {
+            buffer.drain();
+            Tracer tracer = new Tracer().sampleRate(0).exporter(buffer);
+            request("/target").tracer(tracer).get();
+            assertEquals(0, buffer.drain().size());
+            assertTrue(traceparent().endsWith("-00"));
+        }
+
+        @Test
+        void error() {
+            buffer.drain();
+            transport.route("/unavailable").respond(MockResponse.of(503));
+            assertThrows(URLResponseException.class, () -> request("/unavailable").get());
+            Span span = buffer.drain().get(0);
+            assertEquals(503, span.getStatus());
+            assertTrue(span.getError() != null);
+        }
+
+        @Test
+        void buffer_capacity() {
+            assertThrows(IllegalArgumentException.class, () -> new SpanBuffer(0));
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class interceptors {
+        private final MockTransport transport = new MockTransport();
+        private final MockRoute target = transport.route("/target").respond(MockResponse.ok("ok")).record();
+
+        private URLRequest<String> request() {
+            return URLRequest.build("http://mock/target")
+                    .connectionFactory(transport);
+        }
+
+        @Test
+        void order() {
+            List<String> calls = new ArrayList<>();
+            Interceptors interceptors = Interceptors.of(
+                    (chain) -> {
+                        calls.add("outer");
+                        return chain.proceed(chain.request());
+                    }
+            ).with((chain) -> {
+                calls.add("inner " + chain.method());
+                return chain.proceed(chain.request());
+            });
+            request().interceptors(interceptors).get();
+            assertEquals(List.of("outer", "inner GET"), calls);
+        }
+
+        @Test
+        void rewrite() {
+            URLRequest<String> request = request()
+                    .interceptors((chain) -> chain.proceed(chain.request().copy().header(HeaderNames.AUTHORIZATION, "token")));
+            request.get();
+            assertEquals("token", target.last().getHeaders().get(HeaderNames.AUTHORIZATION).get(0));
+            assertTrue(request.getHeaders().isEmpty());
+        }
+
+        @Test
+        void short_circuit() {
+            long count = target.count();
+            URLResponse<String> response = request()
+                    .interceptors((chain) -> URLResponse.of(chain.request().getUrl(), 200, "cached", Map.of(), "cached"))
+                    .get();
+            assertEquals("cached", response.getBody());
+            assertEquals(count, target.count());
+        }
+
+        @Test
+        void transform() {
+            URLResponse<String> response = request()
+                    .interceptors((chain) -> {
+                        URLResponse<?> origin = chain.proceed(chain.request());
+                        return URLResponse.of(origin.getUrl(), origin.getStatus(), origin.getMessage(), origin.getHeaders()
+                                , String.valueOf(origin.getBody()).toUpperCase());
+                    })
+                    .get();
+            assertEquals("OK", response.getBody());
+        }
+
+        @Test
+        void empty() {
+            assertEquals("ok", request().interceptors(Interceptors.of()).get().getBody());
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class token_manager {
+        private final MockTransport transport = new MockTransport();
+
+        private TokenManager manager(AtomicInteger fetches, long expiresIn, long delay) {
+            return new TokenManager(() -> {
+                Thread.sleep(delay);
+                return AccessToken.bearer("t" + fetches.incrementAndGet(), expiresIn);
+            });
+        }
+
+        private String authorization(MockRoute route) {
+            return route.last().getHeaders().get(HeaderNames.AUTHORIZATION).get(0);
+        }
+
+        @Test
+        void attach() {
+            MockRoute route = transport.route("/attach").record();
+            AtomicInteger fetches = new AtomicInteger();
+            TokenManager manager = manager(fetches, 3600000, 0);
+            for (int i = 0; i < 10; i++) {
+                URLRequest.build("http://mock/attach")
+                        .connectionFactory(transport)
+                        .interceptors(manager)
+                        .get();
+            }
+            assertEquals("Bearer t1", authorization(route));
+            assertEquals(1, fetches.get());
+        }
+
+        @Test
+        void replay() {
+            MockRoute route = transport.route("/replay")
+                    .respond(MockResponse.of(401), MockResponse.ok("ok"))
+                    .record();
+            AtomicInteger fetches = new AtomicInteger();
+            URLResponse<String> response = URLRequest.build("http://mock/replay")
+                    .connectionFactory(transport)
+                    .interceptors(manager(fetches, 3600000, 0))
+                    .body("payload")
+                    .post();
+            assertEquals("ok", response.getBody());
+            assertEquals(2, route.count());
+            assertEquals("Bearer t2", authorization(route));
+            assertEquals("payload", new String(route.last().getBody(), StandardCharsets.UTF_8));
+        }
+
+        @Test
+        void replay_once() {
+            MockRoute route = transport.route("/denied").respond(MockResponse.of(401));
+            URLRequest<String> request = URLRequest.build("http://mock/denied")
+                    .connectionFactory(transport)
+                    .interceptors(manager(new AtomicInteger(), 3600000, 0));
+            assertThrows(URLResponseException.class, request::get);
+            assertEquals(2, route.count());
+        }
+
+        @Test
+        void single_flight() throws Exception {
+            AtomicInteger fetches = new AtomicInteger();
+            TokenManager manager = manager(fetches, 3600000, 200);
+            AccessToken stale = manager.token();
+            ExecutorService executor = Executors.newFixedThreadPool(20);
+            try {
+                List<Callable<AccessToken>> calls = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    calls.add(() -> manager.renew(stale));
+                }
+                Set<String> tokens = new HashSet<>();
+                for (Future<AccessToken> future : executor.invokeAll(calls)) {
+                    tokens.add(future.get().getValue());
+                }
+                assertEquals(Set.of("t2"), tokens);
+                assertEquals(2, fetches.get());
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        @Test
+        void background_refresh() throws Exception {
+            AtomicInteger fetches = new AtomicInteger();
+            TokenManager manager = manager(fetches, 500, 0).refreshBefore(400);
+            manager.token();
+            long deadline = System.currentTimeMillis() + 3000;
+            while (fetches.get() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(fetches.get() >= 2);
+            manager.clear();
+        }
+
+        @Test
+        void short_lifetime() throws Exception {
+            AtomicInteger fetches = new AtomicInteger();
+            // lives less than the default refreshBefore, refreshed after half its lifetime
+            TokenManager manager = manager(fetches, 400, 0).minRefreshDelay(100);
+            manager.token();
+            Thread.sleep(500);
+            manager.clear();
+            assertTrue(fetches.get() >= 2);
+            assertTrue(fetches.get() <= 4);
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class segmented_download {
+        private final int size = 1000003;
+
+        private String url() {
+            return "http://127.0.0.1:" + port + "/download?size=" + size;
+        }
+
+        @Test
+        void download() throws Exception {
+            Path dir = Files.createTempDirectory("download");
+            Path target = URLRequest.build(url())
+                    .download(dir.resolve("file.bin"))
+                    .segments(4)
+                    .minSegmentSize(1024)
+                    .run();
+            assertArrayEquals(DownloadController.content(size), Files.readAllBytes(target));
+            assertTrue(!Files.exists(dir.resolve("file.bin.part")));
+            assertTrue(!Files.exists(dir.resolve("file.bin.part.checkpoint")));
+        }
+
+        @Test
+        void resume() throws Exception {
+            Path dir = Files.createTempDirectory("download");
+            Path target = dir.resolve("file.bin");
+            List<String> ranges = new CopyOnWriteArrayList<>();
+            Interceptor record = (chain) -> {
+                List<String> range = chain.request().getHeaders().get(HeaderNames.RANGE);
+                if (range != null) ranges.add(range.get(0));
+                return chain.proceed(chain.request());
+            };
+            // every range but the first fails
+            Interceptor fail = (chain) -> {
+                List<String> range = chain.request().getHeaders().get(HeaderNames.RANGE);
+                if (range != null && !range.get(0).startsWith("bytes=0-")) throw new IllegalStateException("broken");
+                return chain.proceed(chain.request());
+            };
+            assertThrows(RuntimeException.class, () -> URLRequest.build(url())
+                    .interceptors(record, fail)
+                    .download(target)
+                    .segments(4)
+                    .minSegmentSize(1024)
+                    .retries(0)
+                    .run());
+            assertTrue(Files.exists(dir.resolve("file.bin.part.checkpoint")));
+
+            ranges.clear();
+            URLRequest.build(url())
+                    .interceptors(record)
+                    .download(target)
+                    .segments(4)
+                    .minSegmentSize(1024)
+                    .run();
+            assertArrayEquals(DownloadController.content(size), Files.readAllBytes(target));
+            assertEquals(3, ranges.size());
+            assertTrue(ranges.stream().noneMatch((range) -> range.startsWith("bytes=0-")));
+        }
+
+        @Test
+        void single() throws Exception {
+            Path dir = Files.createTempDirectory("download");
+            Path target = URLRequest.build("http://127.0.0.1:" + port + "/string")
+                    .param("param", "str")
+                    .param("body", "ing")
+                    .download(dir.resolve("string.txt"))
+                    .run();
+            assertEquals("string", Files.readString(target));
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class disk_cache {
+        private final MockTransport transport = new MockTransport();
+
+        private <T> URLResponse<T> get(DiskCache cache, String path, ResponseHandler<T> handler) {
+            return URLRequest.build("http://mock" + path, handler)
+                    .connectionFactory(transport)
+                    .interceptors(cache)
+                    .get();
+        }
+
+        @Test
+        void restart() throws Exception {
+            Path dir = Files.createTempDirectory("cache");
+            MockRoute route = transport.route("/cached").respond(MockResponse.ok("cached")
+                    .header(HeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8")
+                    .header(HeaderNames.CACHE_CONTROL, "max-age=60"));
+            try (DiskCache cache = new DiskCache(dir, 1024 * 1024)) {
+                assertEquals("cached", get(cache, "/cached", URLRequestUtil.toStringHandler).getBody());
+                assertEquals("cached", get(cache, "/cached", URLRequestUtil.toStringHandler).getBody());
+                assertEquals(1, route.count());
+            }
+            try (DiskCache cache = new DiskCache(dir, 1024 * 1024)) {
+                URLResponse<String> response = get(cache, "/cached", URLRequestUtil.toStringHandler);
+                assertEquals("cached", response.getBody());
+                assertEquals(200, response.getStatus());
+                assertEquals(1, route.count());
+            }
+        }
+
+        @Test
+        void mapped() throws Exception {
+            byte[] bytes = DownloadController.content(100000);
+            MockRoute route = transport.route("/large").respond(MockResponse.of(200).body(bytes));
+            try (DiskCache cache = new DiskCache(Files.createTempDirectory("cache"), 1024 * 1024).ttl(60000)) {
+                get(cache, "/large", URLRequestUtil.toBytesHandler);
+                assertArrayEquals(bytes, get(cache, "/large", URLRequestUtil.toBytesHandler).getBody());
+                assertEquals(1, route.count());
+            }
+        }
+
+        @Test
+        void no_store() throws Exception {
+            MockRoute route = transport.route("/no-store").respond(MockResponse.ok("1").header(HeaderNames.CACHE_CONTROL, "no-store"));
+            MockRoute maxAge = transport.route("/max-age").respond(MockResponse.ok("1").header(HeaderNames.CACHE_CONTROL, "max-age=0"));
+            try (DiskCache cache = new DiskCache(Files.createTempDirectory("cache"), 1024 * 1024)) {
+                get(cache, "/no-store", URLRequestUtil.toStringHandler);
+                get(cache, "/no-store", URLRequestUtil.toStringHandler);
+                get(cache, "/max-age", URLRequestUtil.toStringHandler);
+                get(cache, "/max-age", URLRequestUtil.toStringHandler);
+                assertEquals(2, route.count());
+                assertEquals(2, maxAge.count());
+                assertEquals(0, cache.count());
+            }
+        }
+
+        @Test
+        void not_shared() throws Exception {
+            MockRoute ttl = transport.route("/ttl").respond(MockResponse.ok("1"));
+            MockRoute shared = transport.route("/shared").respond(MockResponse.ok("1").header(HeaderNames.CACHE_CONTROL, "private, max-age=60"));
+            MockRoute noCache = transport.route("/no-cache").respond(MockResponse.ok("1").header(HeaderNames.CACHE_CONTROL, "no-cache, max-age=60"));
+            MockRoute vary = transport.route("/vary").respond(MockResponse.ok("1").header(HeaderNames.CACHE_CONTROL, "max-age=60").header(HeaderNames.VARY, "*"));
+            MockRoute session = transport.route("/session").respond(MockResponse.ok("1")
+                    .header(HeaderNames.CACHE_CONTROL, "max-age=60")
+                    .header(HeaderNames.SET_COOKIE, "session=1"));
+            try (DiskCache cache = new DiskCache(Files.createTempDirectory("cache"), 1024 * 1024)) {
+                for (int i = 0; i < 2; i++) {
+                    // no max-age and no ttl
+                    get(cache, "/ttl", URLRequestUtil.toStringHandler);
+                    get(cache, "/shared", URLRequestUtil.toStringHandler);
+                    get(cache, "/no-cache", URLRequestUtil.toStringHandler);
+                    get(cache, "/vary", URLRequestUtil.toStringHandler);
+                    URLRequest.build("http://mock/session")
+                            .connectionFactory(transport)
+                            .header(HeaderNames.AUTHORIZATION, "Bearer " + i)
+                            .interceptors(cache)
+                            .get();
+                }
+                assertEquals(2, ttl.count());
+                assertEquals(2, shared.count());
+                assertEquals(2, noCache.count());
+                assertEquals(2, vary.count());
+                assertEquals(2, session.count());
+                assertEquals(0, cache.count());
+                // cached without the cookie of the first caller
+                assertEquals("session=1", get(cache, "/session", URLRequestUtil.toStringHandler).getHeaders().get(HeaderNames.SET_COOKIE).get(0));
+                assertNull(get(cache, "/session", URLRequestUtil.toStringHandler).getHeaders().get(HeaderNames.SET_COOKIE));
+                assertEquals(3, session.count());
+            }
+        }
+
+        @Test
+        void interrupted() throws Exception {
+            MockRoute route = transport.route("/interrupted").respond(MockResponse.ok("cached").header(HeaderNames.CACHE_CONTROL, "max-age=60"));
+            try (DiskCache cache = new DiskCache(Files.createTempDirectory("cache"), 1024 * 1024)) {
+                get(cache, "/interrupted", URLRequestUtil.toStringHandler);
+                // the interrupted read closes the shared channel
+                Thread.currentThread().interrupt();
+                try {
+                    get(cache, "/interrupted", URLRequestUtil.toStringHandler);
+                } finally {
+                    Thread.interrupted();
+                }
+                assertEquals("cached", get(cache, "/interrupted", URLRequestUtil.toStringHandler).getBody());
+                assertEquals(2, route.count());
+            }
+        }
+
+        @Test
+        void compact() throws Exception {
+            MockRoute route = transport.route("/compact/*").respond(MockResponse.of(200).body(new byte[4000]));
+            try (DiskCache cache = new DiskCache(Files.createTempDirectory("cache"), 64 * 1024).ttl(60000)) {
+                for (int i = 0; i < 100; i++) {
+                    get(cache, "/compact/" + i, URLRequestUtil.toBytesHandler);
+                }
+                assertTrue(cache.size() <= 64 * 1024);
+                assertTrue(cache.count() < 16);
+                // the most recently used survive
+                get(cache, "/compact/99", URLRequestUtil.toBytesHandler);
+                assertEquals(100, route.count());
+            }
+        }
+
+        @Test
+        void corrupted() throws Exception {
+            Path dir = Files.createTempDirectory("cache");
+            MockRoute route = transport.route("/corrupted").respond(MockResponse.ok("corrupted"));
+            try (DiskCache cache = new DiskCache(dir, 1024 * 1024).ttl(60000)) {
+                get(cache, "/corrupted", URLRequestUtil.toStringHandler);
+            }
+            Path data = dir.resolve("data.0");
+            byte[] bytes = Files.readAllBytes(data);
+            bytes[bytes.length - 6] ^= 1;
+            Files.write(data, bytes);
+            try (DiskCache cache = new DiskCache(dir, 1024 * 1024).ttl(60000)) {
+                assertEquals("corrupted", get(cache, "/corrupted", URLRequestUtil.toStringHandler).getBody());
+                assertEquals(2, route.count());
+            }
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class lazy_response {
+        private final MockTransport transport = new MockTransport();
+
+        @Test
+        void status() {
+            transport.route("/health").respond(MockResponse.ok("ok"));
+            transport.route("/down").respond(MockResponse.of(503).body("down"));
+            assertEquals(200, URLRequest.build("http://mock/health").connectionFactory(transport).status());
+            assertEquals(503, URLRequest.build("http://mock/down").connectionFactory(transport).status());
+            assertEquals(200, URLRequest.build("http://127.0.0.1:" + port + "/string").status());
+        }
+
+        @Test
+        void status_fast_path() {
+            transport.route("/status").respond(MockResponse.of(503).body("down"));
+            List<URLResponse<?>> responses = new ArrayList<>();
+            URLRequest<String> request = URLRequest.build("http://mock/status")
+                    .connectionFactory(transport)
+                    .header("X-Trace", "1")
+                    .param("q", "1");
+            URLRequest<String> observed = request.interceptors((chain) -> {
+                // the original state, not a copy of its maps
+                assertSame(request.getHeaders(), chain.request().getHeaders());
+                assertSame(request.getParams(), chain.request().getParams());
+                URLResponse<?> response = chain.proceed(chain.request());
+                responses.add(response);
+                return response;
+            });
+            assertEquals(503, observed.status());
+            // the error status is returned, not thrown, and its body is not read into a string
+            assertEquals(503, responses.get(0).getStatus());
+            assertNull(responses.get(0).getBody());
+        }
+
+        @Test
+        void bytes() {
+            transport.route("/bytes").respond(MockResponse.ok("bytes"));
+            assertArrayEquals("bytes".getBytes(StandardCharsets.UTF_8), URLRequest.build("http://mock/bytes").connectionFactory(transport).bytes());
+        }
+
+        @Test
+        void headers() {
+            transport.route("/headers").respond(MockResponse.ok("ok").header("X-Value", "1"));
+            URLResponse<String> response = URLRequest.build("http://mock/headers").connectionFactory(transport).get();
+            assertEquals("1", response.getHeader("x-value"));
+            assertEquals(List.of("1"), response.getHeaders().get("X-Value"));
+            assertEquals("1", response.getHeader("X-VALUE"));
+            assertEquals(null, response.getHeader("missing"));
+        }
+
+        @Test
+        void charset() {
+            assertEquals(StandardCharsets.UTF_8, URLRequestUtil.findCharset("application/json; charset=UTF-8"));
+            assertEquals(StandardCharsets.ISO_8859_1, URLRequestUtil.findCharset("text/html;CHARSET=\"iso-8859-1\" ; q=1"));
+            assertEquals(null, URLRequestUtil.findCharset("text/plain"));
+            assertEquals(null, URLRequestUtil.findCharset("text/plain; charset=unknown-charset"));
+            assertEquals(null, URLRequestUtil.findCharset((String) null));
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class frozen_request {
+        private final MockTransport transport = new MockTransport();
+
+        private URLRequest<String> frozen(String path) {
+            return URLRequest.build("http://mock" + path)
+                    .connectionFactory(transport)
+                    .header("X-Base", "base")
+                    .param("base", 1)
+                    .freeze();
+        }
+
+        @Test
+        void overlay() {
+            URLRequest<String> frozen = frozen("/overlay");
+            assertTrue(frozen.isFrozen());
+            assertSame(frozen, frozen.freeze());
+            URLRequest<String> overlay = frozen.header("X-Call", "call").param("call", 2).timeout(1000);
+            assertNotSame(frozen, overlay);
+            assertFalse(overlay.isFrozen());
+            assertEquals(2, overlay.getHeaders().size());
+            assertEquals(2, overlay.getParams().size());
+            assertEquals(1000, overlay.getTimeout());
+            assertEquals(1, frozen.getHeaders().size());
+            assertEquals(1, frozen.getParams().size());
+            assertNull(frozen.getTimeout());
+            assertThrows(UnsupportedOperationException.class, () -> frozen.getHeaders().put("X-Call", new ArrayList<>()));
+            assertThrows(UnsupportedOperationException.class, () -> frozen.getHeaders().get("x-base").add("other"));
+        }
+
+        @Test
+        void execute() {
+            MockRoute route = transport.route("/execute").respond(MockResponse.ok("ok")).record();
+            URLRequest<String> frozen = frozen("/execute");
+            assertEquals("ok", frozen.post().getBody());
+            assertNull(frozen.getMethod());
+            assertEquals("POST", route.last().getMethod());
+            CookieManager cookieManager = new CookieManager();
+            cookieManager.getCookieStore().add(URI.create("http://mock/execute"), new HttpCookie("session", "1"));
+            URLRequest<String> request = frozen.cookieManager(cookieManager).freeze();
+            request.get();
+            assertEquals("session=1", route.last().getHeaders().get(HeaderNames.COOKIE).get(0));
+            assertFalse(request.getHeaders().containsKey(HeaderNames.COOKIE));
+        }
+
+        @Test
+        void concurrent() throws Exception {
+            MockRoute route = transport.route("/concurrent").respond(MockResponse.ok("ok"));
+            URLRequest<String> frozen = frozen("/concurrent");
+            ExecutorService executor = Executors.newFixedThreadPool(20);
+            try {
+                List<Future<String>> futures = new ArrayList<>();
+                for (int i = 0; i < 400; i++) {
+                    int call = i;
+                    futures.add(executor.submit(() -> frozen.header("X-Call", String.valueOf(call)).param("call", call).get().getBody()));
+                }
+                for (Future<String> future : futures) {
+                    assertEquals("ok", future.get());
+                }
+            } finally {
+                executor.shutdown();
+            }
+            assertEquals(400, route.count());
+            assertEquals(1, frozen.getHeaders().size());
+            assertEquals(1, frozen.getParams().size());
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class concurrency_limiter {
+        private final MockTransport transport = new MockTransport();
+
+        private URLRequest<String> request(String path, ConcurrencyLimiter limiter) {
+            return URLRequest.build("http://mock" + path)
+                    .connectionFactory(transport)
+                    .interceptors(limiter);
+        }
+
+        @Test
+        void reject() throws Exception {
+            transport.route("/reject").respond(MockResponse.ok("ok")).latency(300);
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter(() -> new AimdLimit().initialLimit(1).maxLimit(1));
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                Future<String> first = executor.submit(() -> request("/reject", limiter).get().getBody());
+                Thread.sleep(100);
+                assertEquals(1, limiter.getInflight(new URL("http://mock/reject")));
+                ConcurrencyLimitException e = assertThrows(ConcurrencyLimitException.class, () -> request("/reject", limiter).get());
+                assertEquals(1, e.getLimit());
+                assertEquals("ok", first.get());
+            } finally {
+                executor.shutdown();
+            }
+            assertEquals(0, limiter.getInflight(new URL("http://mock/reject")));
+        }
+
+        @Test
+        void queue() throws Exception {
+            MockRoute route = transport.route("/queue").respond(MockResponse.ok("ok")).latency(50);
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter(() -> new AimdLimit().initialLimit(1).maxLimit(1))
+                    .maxQueue(10)
+                    .maxWait(5000);
+            ExecutorService executor = Executors.newFixedThreadPool(5);
+            try {
+                List<Future<String>> futures = new ArrayList<>();
+                for (int i = 0; i < 5; i++) {
+                    futures.add(executor.submit(() -> request("/queue", limiter).get().getBody()));
+                }
+                for (Future<String> future : futures) {
+                    assertEquals("ok", future.get());
+                }
+            } finally {
+                executor.shutdown();
+            }
+            assertEquals(5, route.count());
+        }
+
+        @Test
+        void aimd() throws Exception {
+            transport.route("/aimd").respond(MockResponse.ok("ok"));
+            transport.route("/overload").respond(MockResponse.of(503));
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter(() -> new AimdLimit().initialLimit(2));
+            for (int i = 0; i < 10; i++) {
+                request("/aimd", limiter).get();
+            }
+            // one in flight reaches half of a limit of 2 only
+            assertEquals(3, limiter.getLimit(new URL("http://mock/aimd")));
+            assertThrows(URLResponseException.class, () -> request("/overload", limiter).get());
+            assertEquals(2, limiter.getLimit(new URL("http://mock/overload")));
+        }
+
+        @Test
+        void drops() throws Exception {
+            transport.route("/bug").respond(MockResponse.ok("ok"));
+            transport.route("/timeout").errorRate(1, SocketTimeoutException::new);
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter(() -> new AimdLimit().initialLimit(10));
+            ResponseHandler<String> handler = (in, charset) -> {
+                throw new IllegalStateException("bug");
+            };
+            assertThrows(URLRequestException.class, () -> URLRequest.build("http://mock/bug", handler)
+                    .connectionFactory(transport)
+                    .interceptors(limiter)
+                    .get());
+            assertThrows(IllegalStateException.class, () -> request("/bug", limiter)
+                    .interceptors(limiter, (chain) -> {
+                        throw new IllegalStateException("bug");
+                    })
+                    .get());
+            // neither failure is the backend's
+            assertEquals(10, limiter.getLimit(new URL("http://mock/bug")));
+            assertEquals(0, limiter.getInflight(new URL("http://mock/bug")));
+            assertThrows(URLRequestException.class, () -> request("/timeout", limiter).get());
+            assertEquals(9, limiter.getLimit(new URL("http://mock/timeout")));
+        }
+
+        @Test
+        void gradient() {
+            GradientLimit limit = new GradientLimit().initialLimit(20);
+            for (int i = 0; i < 50; i++) {
+                limit.onSample(TimeUnit.MILLISECONDS.toNanos(10), 20, false);
+            }
+            int grown = limit.getLimit();
+            assertTrue(grown > 20);
+            for (int i = 0; i < 20; i++) {
+                limit.onSample(TimeUnit.MILLISECONDS.toNanos(100), grown, false);
+            }
+            assertTrue(limit.getLimit() < grown);
+            int slow = limit.getLimit();
+            limit.onSample(TimeUnit.MILLISECONDS.toNanos(10), slow, true);
+            assertTrue(limit.getLimit() < slow);
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class request_scheduler {
+        private final MockTransport transport = new MockTransport();
+
+        private URLRequest<String> request(String path, String tenant, RequestScheduler scheduler, List<String> order) {
+            return URLRequest.build("http://mock" + path)
+                    .connectionFactory(transport)
+                    .header("X-Tenant", tenant)
+                    .interceptors(scheduler, (chain) -> {
+                        order.add(chain.request().getUrl().getPath());
+                        return chain.proceed(chain.request());
+                    });
+        }
+
+        private RequestScheduler scheduler() {
+            return new RequestScheduler(1)
+                    .tenant((request) -> request.getHeaders().get("X-Tenant").get(0))
+                    .priority((request) -> request.getUrl().getPath().startsWith("/high") ? Priority.HIGH : Priority.LOW)
+                    .maxWait(5000);
+        }
+
+        /**
+         * Occupy the only permit, then queue the paths in order.
+         */
+        private void run(RequestScheduler scheduler, List<String> order, String... pathAndTenants) throws Exception {
+            transport.route("/block").respond(MockResponse.ok("ok")).latency(500);
+            ExecutorService executor = Executors.newCachedThreadPool();
+            try {
+                List<Future<String>> futures = new ArrayList<>();
+                futures.add(executor.submit(() -> request("/block", "block", scheduler, order).get().getBody()));
+                Thread.sleep(50);
+                for (int i = 0; i < pathAndTenants.length; i += 2) {
+                    String path = pathAndTenants[i];
+                    String tenant = pathAndTenants[i + 1];
+                    transport.route(path).respond(MockResponse.ok("ok"));
+                    futures.add(executor.submit(() -> request(path, tenant, scheduler, order).get().getBody()));
+                    Thread.sleep(20);
+                }
+                assertEquals(pathAndTenants.length / 2, scheduler.getQueued());
+                for (Future<String> future : futures) {
+                    assertEquals("ok", future.get());
+                }
+            } finally {
+                executor.shutdown();
+            }
+            assertEquals(0, scheduler.getInflight());
+            assertEquals(0, scheduler.getQueued());
+        }
+
+        @Test
+        void priority() throws Exception {
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            RequestScheduler scheduler = scheduler();
+            run(scheduler, order, "/low1", "a", "/low2", "a", "/high1", "a");
+            assertEquals(Arrays.asList("/block", "/high1", "/low1", "/low2"), order);
+        }
+
+        @Test
+        void fair() throws Exception {
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            RequestScheduler scheduler = scheduler();
+            run(scheduler, order, "/a1", "a", "/a2", "a", "/a3", "a", "/a4", "a", "/b1", "b", "/b2", "b");
+            assertEquals(Arrays.asList("/block", "/a1", "/b1", "/a2", "/b2", "/a3", "/a4"), order);
+        }
+
+        @Test
+        void weight() throws Exception {
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            RequestScheduler scheduler = scheduler().weight("b", 2);
+            run(scheduler, order, "/wa1", "a", "/wa2", "a", "/wb1", "b", "/wb2", "b", "/wb3", "b", "/wb4", "b");
+            assertEquals(Arrays.asList("/block", "/wb1", "/wa1", "/wb2", "/wb3", "/wa2", "/wb4"), order);
+        }
+
+        @Test
+        void reject() throws Exception {
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            RequestScheduler scheduler = scheduler()
+                    .maxConcurrency(Priority.LOW, 1)
+                    .maxQueue(1)
+                    .maxWait(100);
+            transport.route("/reject").respond(MockResponse.ok("ok")).latency(500);
+            ExecutorService executor = Executors.newCachedThreadPool();
+            try {
+                Future<String> first = executor.submit(() -> request("/reject", "a", scheduler, order).get().getBody());
+                Thread.sleep(50);
+                Future<?> queued = executor.submit(() -> request("/reject", "a", scheduler, order).get());
+                Thread.sleep(20);
+                assertEquals(1, scheduler.getInflight(Priority.LOW));
+                assertEquals(1, scheduler.getQueued(Priority.LOW));
+                assertEquals(1, scheduler.getQueued("a"));
+                assertThrows(ConcurrencyLimitException.class, () -> request("/reject", "b", scheduler, order).get());
+                ExecutionException e = assertThrows(ExecutionException.class, queued::get);
+                assertTrue(e.getCause() instanceof ConcurrencyLimitException);
+                assertEquals("ok", first.get());
+            } finally {
+                executor.shutdown();
+            }
+            assertEquals(0, scheduler.getQueued("a"));
+            assertEquals(0, scheduler.getInflight());
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class charsets {
+        private final MockTransport transport = new MockTransport();
+
+        @Test
+        void for_name() {
+            assertSame(StandardCharsets.UTF_8, Charsets.forName("utf-8", null));
+            assertSame(Charsets.forName("ms950", null), Charsets.forName("ms950", null));
+            assertNull(Charsets.forName("not a charset", null));
+            assertSame(StandardCharsets.UTF_16, Charsets.forName("unknown-charset", StandardCharsets.UTF_16));
+        }
+
+        @Test
+        void decode() {
+            String value = "身體 body";
+            for (String name : new String[]{"UTF-8", "ISO-8859-1", "US-ASCII", "MS950", "UTF-16", "GB18030"}) {
+                Charset charset = Charset.forName(name);
+                byte[] bytes = ("ab" + value).getBytes(charset);
+                assertEquals(new String(bytes, charset), Charsets.decode(bytes, 0, bytes.length, charset));
+                assertEquals(new String(bytes, 2, bytes.length - 2, charset), Charsets.decode(bytes, 2, bytes.length - 2, charset));
+            }
+            byte[] malformed = {(byte) 0xff, (byte) 0xfe, 'a'};
+            Charset big5 = Charset.forName("Big5");
+            assertEquals(new String(malformed, big5), Charsets.decode(malformed, 0, malformed.length, big5));
+            byte[] large = value.repeat(20000).getBytes(big5);
+            assertEquals(value.repeat(20000), Charsets.decode(large, 0, large.length, big5));
+        }
+
+        @Test
+        void response() {
+            String value = "身體";
+            transport.route("/ms950").respond(MockResponse.ok(value)
+                    .header(HeaderNames.CONTENT_TYPE, HeaderValues.HTML + "; charset=ms950")
+                    .body(value.getBytes(Charset.forName("ms950"))));
+            transport.route("/malformed").respond(MockResponse.ok(value)
+                    .header(HeaderNames.CONTENT_TYPE, HeaderValues.HTML + "; charset=\"no-such-charset\""));
+            assertEquals(value, URLRequest.build("http://mock/ms950").connectionFactory(transport).get().getBody());
+            assertEquals(value, URLRequest.build("http://mock/malformed").connectionFactory(transport).get().getBody());
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class load_generator {
+        private final MockTransport transport = new MockTransport();
+
+        @Test
+        void histogram() {
+            LatencyHistogram histogram = new LatencyHistogram();
+            for (long i = 1; i <= 100000; i++) {
+                histogram.record(i * 1000);
+            }
+            assertEquals(100000, histogram.getCount());
+            assertEquals(1000, histogram.getMin());
+            assertEquals(100000000, histogram.getMax());
+            assertEquals(50000000, histogram.getValueAtPercentile(50), 50000000 * 0.01);
+            assertEquals(99000000, histogram.getValueAtPercentile(99), 99000000 * 0.01);
+            assertEquals(99990000, histogram.getValueAtPercentile(99.99), 99990000 * 0.01);
+            assertEquals(100000000, histogram.getValueAtPercentile(100));
+        }
+
+        @Test
+        void open_loop() throws Exception {
+            MockRoute route = transport.route("/load").respond(MockResponse.ok("ok"), MockResponse.of(503)).cycle();
+            URLRequest<Void> request = URLRequest.build("http://mock/load", URLRequestUtil.discardHandler)
+                    .connectionFactory(transport)
+                    .method(URLRequestMethod.GET)
+                    .freeze();
+            LoadReport report = new LoadGenerator(Collections.singletonList(request))
+                    .rate(200)
+                    .warmUp(100)
+                    .duration(500)
+                    .run();
+            assertEquals(120, route.count());
+            assertEquals(100, report.getCount());
+            assertEquals(50L, (long) report.getErrors().get("HTTP 503"));
+        }
+
+        @Test
+        void coordinated_omission() throws Exception {
+            transport.route("/stall").respond(MockResponse.ok("ok")).latency(100);
+            URLRequest<Void> request = URLRequest.build("http://mock/stall", URLRequestUtil.discardHandler)
+                    .connectionFactory(transport)
+                    .method(URLRequestMethod.GET);
+            // one sender can serve 10/s, requests scheduled at 20/s queue behind it
+            LoadReport report = new LoadGenerator(Collections.singletonList(request))
+                    .rate(20)
+                    .threads(1)
+                    .duration(1000)
+                    .run();
+            assertEquals(20, report.getCount());
+            assertTrue(report.getServiceTime().getValueAtPercentile(99) < 200_000_000L);
+            assertTrue(report.getResponseTime().getValueAtPercentile(99) > 800_000_000L);
+        }
+
+        @Test
+        void drain_timeout() throws Exception {
+            transport.route("/slow").respond(MockResponse.ok("ok")).latency(300);
+            URLRequest<Void> request = URLRequest.build("http://mock/slow", URLRequestUtil.discardHandler)
+                    .connectionFactory(transport)
+                    .method(URLRequestMethod.GET);
+            LoadReport report = new LoadGenerator(Collections.singletonList(request))
+                    .rate(20)
+                    .threads(1)
+                    .duration(500)
+                    .drain(100)
+                    .run();
+            // requests never sent or still in flight at the end are not silently lost
+            assertEquals(10, report.getCount());
+            assertTrue(report.getErrors().get(LoadGenerator.DRAIN_TIMEOUT) >= 7);
+            assertFalse(request.isFrozen());
+        }
+
+        @Test
+        void users() throws Exception {
+            MockRoute route = transport.route("/users").respond(MockResponse.ok("ok")).latency(10);
+            URLRequest<Void> request = URLRequest.build("http://mock/users", URLRequestUtil.discardHandler)
+                    .connectionFactory(transport)
+                    .method(URLRequestMethod.GET);
+            LoadReport report = new LoadGenerator(Collections.singletonList(request))
+                    .users(4)
+                    .rate(40)
+                    .duration(1000)
+                    .run();
+            assertEquals(40, report.getCount());
+            assertEquals(0, report.getErrorCount());
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class request_logger {
+        private final MockTransport transport = new MockTransport();
+
+        @Test
+        void entry() {
+            transport.route("/log").respond(MockResponse.ok("response body"));
+            List<LogEntry> entries = new ArrayList<>();
+            RequestLogger logger = new RequestLogger(entries::add)
+                    .headers(true)
+                    .bodies(8)
+                    .redact("X-Api-Key");
+            URLRequest.build("http://mock/log")
+                    .connectionFactory(transport)
+                    .interceptors(logger)
+                    .header(HeaderNames.AUTHORIZATION, "Bearer secret")
+                    .header(HeaderNames.COOKIE, "session=secret")
+                    .header("X-Api-Key", "secret")
+                    .header("X-Trace", "visible")
+                    .body("request body")
+                    .post();
+            assertEquals(1, entries.size());
+            LogEntry entry = entries.get(0);
+            assertEquals(URLRequestMethod.POST, entry.getMethod());
+            assertEquals(200, entry.getStatus());
+            assertEquals(12, entry.getRequestSize());
+            assertEquals(13, entry.getResponseSize());
+            assertEquals("request ...", entry.getRequestBody());
+            assertEquals("response...", entry.getResponseBody());
+            assertTrue(entry.getDurationNanos() > 0);
+            assertEquals(RequestLogger.REDACTED, entry.getRequestHeaders().get(HeaderNames.AUTHORIZATION).get(0));
+            assertEquals(RequestLogger.REDACTED, entry.getRequestHeaders().get(HeaderNames.COOKIE).get(0));
+            assertEquals(RequestLogger.REDACTED, entry.getRequestHeaders().get("X-Api-Key").get(0));
+            assertEquals("visible", entry.getRequestHeaders().get("X-Trace").get(0));
+            assertFalse(entry.toJson().contains("secret"));
+        }
+
+        @Test
+        void byte_body() {
+            MockRoute route = transport.route("/log/bytes").respond(MockResponse.ok("ok")).record();
+            List<LogEntry> entries = new ArrayList<>();
+            byte[] body = "café".getBytes(StandardCharsets.UTF_8);
+            URLRequest<String> request = URLRequest.build("http://mock/log/bytes")
+                    .connectionFactory(transport)
+                    .interceptors(new RequestLogger(entries::add).bodies(100))
+                    .body(body)
+                    .freeze();
+            request.post();
+            assertEquals(body.length, entries.get(0).getRequestSize());
+            assertEquals("café", entries.get(0).getRequestBody());
+            // logging must not turn the shared request into a string body
+            assertNull(request.bodyString);
+            assertSame(body, request.bodyBytes);
+            assertArrayEquals(body, route.last().getBody());
+        }
+
+        @Test
+        void sampling() {
+            transport.route("/sample").respond(MockResponse.ok("ok"));
+            transport.route("/sample/error").respond(MockResponse.of(500));
+            List<LogEntry> entries = Collections.synchronizedList(new ArrayList<>());
+            RequestLogger logger = new RequestLogger(entries::add)
+                    .sampleRate(0)
+                    .maxPerSecond(0);
+            URLRequest<String> request = URLRequest.build("http://mock/sample").connectionFactory(transport).interceptors(logger);
+            for (int i = 0; i < 10; i++) {
+                request.get();
+            }
+            assertEquals(0, entries.size());
+            URLRequest<String> error = URLRequest.build("http://mock/sample/error").connectionFactory(transport).interceptors(logger);
+            assertThrows(URLResponseException.class, error::get);
+            assertEquals(1, entries.size());
+            assertEquals(500, entries.get(0).getStatus());
+            assertTrue(entries.get(0).isError());
+        }
+
+        @Test
+        void rate_limit() {
+            transport.route("/limit").respond(MockResponse.of(503));
+            List<LogEntry> entries = Collections.synchronizedList(new ArrayList<>());
+            RequestLogger logger = new RequestLogger(entries::add).maxPerSecond(5);
+            URLRequest<String> request = URLRequest.build("http://mock/limit").connectionFactory(transport).interceptors(logger);
+            for (int i = 0; i < 20; i++) {
+                assertThrows(URLResponseException.class, request::get);
+            }
+            assertTrue(entries.size() <= 10);
+            assertEquals(20, entries.size() + logger.getSuppressed());
+        }
+
+        @Test
+        void async_sink() throws Exception {
+            transport.route("/async").respond(MockResponse.ok("ok"));
+            List<String> lines = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch release = new CountDownLatch(1);
+            AsyncLogSink sink = new AsyncLogSink(4, (line) -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                lines.add(line);
+            });
+            RequestLogger logger = new RequestLogger(sink).maxPerSecond(0);
+            URLRequest<String> request = URLRequest.build("http://mock/async").connectionFactory(transport).interceptors(logger);
+            // the blocked output never blocks the caller, overflow is dropped
+            for (int i = 0; i < 10; i++) {
+                request.get();
+            }
+            release.countDown();
+            sink.close();
+            assertEquals(10, lines.size() + sink.getDropped());
+            assertTrue(sink.getDropped() > 0);
+            assertTrue(lines.get(0).startsWith("{\"time\":"));
+            assertTrue(lines.get(0).contains("\"url\":\"http://mock/async\""));
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class keep_alive_guard {
+        private final MockTransport transport = new MockTransport();
+
+        /**
+         * Fails the next calls like a connection the server closed while idle.
+         */
+        private Interceptor reset(AtomicInteger failures, IOException error) {
+            return (chain) -> {
+                if (failures.getAndDecrement() > 0) {
+                    throw new URLRequestException(chain.request().getUrl().toString(), error.getMessage(), chain.request(), error);
+                }
+                return chain.proceed(chain.request());
+            };
+        }
+
+        @Test
+        void replay() {
+            transport.route("/keep-alive").respond(MockResponse.ok("ok"));
+            AtomicInteger failures = new AtomicInteger(1);
+            KeepAliveGuard guard = new KeepAliveGuard();
+            URLRequest<String> request = URLRequest.build("http://keep-alive/keep-alive")
+                    .connectionFactory(transport)
+                    .interceptors(guard, reset(failures, new SocketException("Connection reset")));
+            // a host never used has no pooled connection to blame
+            assertThrows(URLRequestException.class, request::get);
+            assertEquals("ok", request.get().getBody());
+            failures.set(2);
+            assertEquals("ok", request.get().getBody());
+            assertEquals(2, guard.getReplays());
+            failures.set(5);
+            assertThrows(URLRequestException.class, request::get);
+            assertEquals(5, guard.getReplays());
+        }
+
+        @Test
+        void no_replay() {
+            transport.route("/no-replay").respond(MockResponse.ok("ok"));
+            AtomicInteger failures = new AtomicInteger();
+            KeepAliveGuard guard = new KeepAliveGuard().maxIdle(0);
+            URLRequest<String> request = URLRequest.build("http://no-replay/no-replay")
+                    .connectionFactory(transport)
+                    .interceptors(guard, reset(failures, new SocketException("Connection reset")));
+            request.get();
+            failures.set(1);
+            assertThrows(URLRequestException.class, request::post);
+            URLRequest<String> refused = URLRequest.build("http://no-replay/no-replay")
+                    .connectionFactory(transport)
+                    .interceptors(guard, reset(failures, new ConnectException("Connection refused")));
+            failures.set(1);
+            assertThrows(URLRequestException.class, refused::get);
+            assertEquals(0, guard.getReplays());
+        }
+
+        @Test
+        void no_replay_after_response() {
+            MockRoute route = transport.route("/read-failure").respond(MockResponse.ok("ok"));
+            AtomicInteger reads = new AtomicInteger();
+            KeepAliveGuard guard = new KeepAliveGuard();
+            URLRequest<String> request = URLRequest.build("http://read-failure/read-failure", (in, charset) -> {
+                        // the body read fails once the status line arrived, the handler already ran
+                        if (reads.incrementAndGet() > 1) throw new SocketException("Connection reset");
+                        return URLRequestUtil.toStringHandler.apply(in, charset);
+                    })
+                    .connectionFactory(transport)
+                    .interceptors(guard);
+            request.get();
+            URLRequestException e = assertThrows(URLRequestException.class, request::get);
+            assertTrue(e.isResponded());
+            assertEquals(2, reads.get());
+            assertEquals(2, route.count());
+            assertEquals(0, guard.getReplays());
+        }
+
+        @Test
+        void probe() throws Exception {
+            MockRoute head = transport.route(URLRequestMethod.HEAD, "/probe").respond(MockResponse.of(200)).record();
+            MockRoute post = transport.route("/probe").respond(MockResponse.ok("posted"));
+            KeepAliveGuard guard = new KeepAliveGuard().maxIdle(50);
+            URLRequest<String> request = URLRequest.build("http://probe/probe?id=1")
+                    .connectionFactory(transport)
+                    .header("X-Token", "secret")
+                    .param("password", "secret")
+                    .interceptors(guard);
+            assertEquals("posted", request.post().getBody());
+            assertEquals("posted", request.post().getBody());
+            assertEquals(0, head.count());
+            Thread.sleep(100);
+            assertEquals("posted", request.post().getBody());
+            assertEquals(1, head.count());
+            assertEquals(3, post.count());
+            // the probe carries nothing of the request but its connection
+            assertEquals("http://probe/probe", head.last().getUrl().toString());
+            assertFalse(head.last().getHeaders().containsKey("X-Token"));
+            assertNull(head.last().getBody());
+        }
+
+        @Test
+        void validate_idle() throws Exception {
+            MockRoute head = transport.route(URLRequestMethod.HEAD, "/validate").respond(MockResponse.of(200));
+            transport.route("/validate").respond(MockResponse.ok("ok"));
+            KeepAliveGuard guard = new KeepAliveGuard().validateIdle(50);
+            try {
+                URLRequest.build("http://validate/validate")
+                        .connectionFactory(transport)
+                        .interceptors(guard)
+                        .get();
+                Thread.sleep(300);
+                assertTrue(head.count() > 0);
+                assertTrue(guard.getProbes() >= head.count());
+            } finally {
+                guard.close();
+            }
+        }
+    }
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class proxy_routes {
+
+        private Proxy deadProxy() throws Exception {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                return new Proxy(Proxy.Type.HTTP, new InetSocketAddress("127.0.0.1", socket.getLocalPort()));
+            }
+        }
+
+        @Test
+        void route() throws Exception {
+            Proxy proxy = deadProxy();
+            ProxyRoutes routes = new ProxyRoutes()
+                    .direct("localhost")
+                    .route("*.example.com", proxy);
+            assertEquals(Proxy.NO_PROXY, routes.select(new URI("http://localhost/")).get(0));
+            assertSame(proxy, routes.select(new URI("http://api.example.com/")).get(0));
+            assertSame(proxy, routes.select(new URI("http://example.com/")).get(0));
+            assertEquals(Proxy.NO_PROXY, routes.select(new URI("http://other.com/")).get(0));
+        }
+
+        @Test
+        void failover() throws Exception {
+            Proxy proxy = deadProxy();
+            ProxyRoutes routes = new ProxyRoutes()
+                    .failureThreshold(1)
+                    .credentials(proxy, "user", "password")
+                    .route("*", proxy, Proxy.NO_PROXY);
+            URLResponse<String> response = URLRequest.build("http://127.0.0.1:" + port + "/string")
+                    .proxySelector(routes)
+                    .get();
+            assertEquals(200, response.getStatus());
+            assertTrue(routes.isDown(proxy));
+            // the down proxy goes last
+            assertEquals(Proxy.NO_PROXY, routes.select(new URI("http://127.0.0.1/")).get(0));
+            routes.connected(proxy);
+            assertSame(proxy, routes.select(new URI("http://127.0.0.1/")).get(0));
+        }
+
+        @Test
+        void multipart() throws Exception {
+            ProxyRoutes routes = new ProxyRoutes()
+                    .failureThreshold(1)
+                    .route("*", deadProxy(), Proxy.NO_PROXY);
+            String content = "檔案內容";
+            MultipartBody fixed = new MultipartBody()
+                    .part("text", "身體")
+                    .part("file", content.getBytes(StandardCharsets.UTF_8), "a.txt", HeaderValues.HTML);
+            MultipartBody chunked = new MultipartBody()
+                    .part("text", "身體")
+                    .part("file", new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), "b.txt", null);
+            String url = "http://127.0.0.1:" + port + "/multipart";
+            assertEquals("身體:a.txt:" + content, URLRequest.build(url).proxySelector(routes).body(fixed).post().getBody());
+            assertEquals("身體:b.txt:" + content, URLRequest.build(url).proxySelector(routes).body(chunked).post().getBody());
+        }
+
+        @Test
+        void copy() throws Exception {
+            ProxyRoutes routes = new ProxyRoutes();
+            Proxy proxy = deadProxy();
+            URLRequest<String> request = URLRequest.build("http://127.0.0.1:" + port + "/string")
+                    .proxy(proxy)
+                    .proxySelector(routes);
+            URLRequest<String> copy = URLRequest.build("http://127.0.0.1:" + port + "/json", request);
+            assertSame(proxy, copy.getProxy());
+            assertSame(routes, copy.getProxySelector());
+        }
+    }
 }